@@ -0,0 +1,122 @@
+/**
+ * Classe principale mesurant le temps de rendu des tuiles isochrones autour
+ * de Lausanne, à plusieurs niveaux de zoom et pour chaque manière de les
+ * dessiner. Les arguments optionnels sont
+ * l'arrêt de départ, la date (AAAA-MM-JJ) et l'heure (HH:MM:SS).
+ */
+
+
+package ch.epfl.isochrone;
+
+import java.awt.Color;
+import java.io.IOException;
+import java.util.ArrayList;
+
+import ch.epfl.isochrone.geo.PointOSM;
+import ch.epfl.isochrone.geo.PointWGS84;
+import ch.epfl.isochrone.tiledmap.ColorTable;
+import ch.epfl.isochrone.tiledmap.IsochroneTileProvider;
+import ch.epfl.isochrone.timetable.Date;
+import ch.epfl.isochrone.timetable.FastestPathTree;
+import ch.epfl.isochrone.timetable.Graph;
+import ch.epfl.isochrone.timetable.SecondsPastMidnight;
+import ch.epfl.isochrone.timetable.Stop;
+import ch.epfl.isochrone.timetable.TimeTable;
+import ch.epfl.isochrone.timetable.TimeTableReader;
+import ch.epfl.isochrone.timetable.TimeTableSnapshot;
+
+public class IsochroneTileBenchmark {
+
+    private static final PointWGS84 CENTER = new PointWGS84(
+            Math.toRadians(6.63), Math.toRadians(46.52));
+    private static final int MIN_ZOOM = 11;
+    private static final int MAX_ZOOM = 17;
+    // Nombre de tuiles de chaque côté de la tuile centrale.
+    private static final int SPAN = 3;
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) throws IOException {
+
+        String arret = args.length > 0 ? args[0] : "Lausanne-Gare";
+        String date = args.length > 1 ? args[1] : "2013-10-01";
+        String heure = args.length > 2 ? args[2] : "06:08:00";
+
+        TimeTableReader reader = new TimeTableReader("/time-table/");
+        TimeTableSnapshot snapshot = TimeTableSnapshot.readOrBuild(reader,
+                TimeTableSnapshot.DEFAULT_FILE,
+                TimeTableSnapshot.DEFAULT_WALKING_TIME,
+                TimeTableSnapshot.DEFAULT_WALKING_SPEED);
+        TimeTable timetable = snapshot.timeTable();
+
+        String[] champsDate = date.split("-");
+        Date dateDep = new Date(Integer.parseInt(champsDate[2]),
+                Integer.parseInt(champsDate[1]),
+                Integer.parseInt(champsDate[0]));
+        Graph graph = snapshot.graph().forServices(
+                timetable.servicesForDate(dateDep));
+
+        Stop depart = null;
+        for (Stop i : timetable.stops()) {
+            if (i.name().equals(arret)) {
+                depart = i;
+                break;
+            }
+        }
+
+        String[] champsHeure = heure.split(":");
+        int heureDep = SecondsPastMidnight.fromHMS(
+                Integer.parseInt(champsHeure[0]),
+                Integer.parseInt(champsHeure[1]),
+                Integer.parseInt(champsHeure[2]));
+        FastestPathTree fastestPath = graph.fastestPaths(depart, heureDep);
+
+        // Mêmes couleurs que l'application
+        ArrayList<Color> colorList = new ArrayList<>();
+        colorList.add(new Color(1.0f, 0.0f, 0.0f));
+        colorList.add(new Color(1.0f, 0.5f, 0.0f));
+        colorList.add(new Color(1.0f, 1.0f, 0.0f));
+        colorList.add(new Color(0.5f, 1.0f, 0.0f));
+        colorList.add(new Color(0.0f, 1.0f, 0.0f));
+        colorList.add(new Color(0.0f, 0.5f, 0.5f));
+        colorList.add(new Color(0.0f, 0.0f, 1.0f));
+        colorList.add(new Color(0.0f, 0.0f, 0.5f));
+        colorList.add(new Color(0.0f, 0.0f, 0.0f));
+        ColorTable colorTable = new ColorTable(300, colorList);
+
+        int side = 2 * SPAN + 1;
+        for (IsochroneTileProvider.Rasterizer rasterizer : IsochroneTileProvider.Rasterizer
+                .values()) {
+            System.out.println(rasterizer);
+            for (int zoom = MIN_ZOOM; zoom <= MAX_ZOOM; zoom++) {
+                PointOSM center = CENTER.toOSM(zoom);
+                int centerX = center.roundedX() / 256;
+                int centerY = center.roundedY() / 256;
+
+                // Le premier passage, qui construit l'index des arrêts du
+                // niveau de zoom, est mesuré à part.
+                IsochroneTileProvider provider = new IsochroneTileProvider(
+                        fastestPath, colorTable,
+                        TimeTableSnapshot.DEFAULT_WALKING_SPEED, rasterizer);
+                long first = 0;
+                long total = 0;
+                for (int round = 0; round <= ROUNDS; round++) {
+                    long start = System.nanoTime();
+                    for (int x = centerX - SPAN; x <= centerX + SPAN; x++) {
+                        for (int y = centerY - SPAN; y <= centerY + SPAN; y++) {
+                            provider.tileAt(zoom, x, y);
+                        }
+                    }
+                    long elapsed = System.nanoTime() - start;
+                    if (round == 0)
+                        first = elapsed;
+                    else
+                        total += elapsed;
+                }
+
+                System.out.printf("zoom %2d : %7.3f ms par tuile (premier passage : %7.3f ms)%n",
+                        zoom, total / 1e6 / (ROUNDS * side * side),
+                        first / 1e6 / (side * side));
+            }
+        }
+    }
+}
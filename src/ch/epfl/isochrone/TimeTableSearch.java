@@ -19,6 +19,7 @@ import ch.epfl.isochrone.timetable.SecondsPastMidnight;
 import ch.epfl.isochrone.timetable.Stop;
 import ch.epfl.isochrone.timetable.TimeTable;
 import ch.epfl.isochrone.timetable.TimeTableReader;
+import ch.epfl.isochrone.timetable.TimeTableSnapshot;
 
 public class TimeTableSearch {
 
@@ -31,7 +32,13 @@ public class TimeTableSearch {
 
         TimeTableReader reader = new TimeTableReader("/time-table/");
 
-        TimeTable timetable = reader.readTimeTable();
+        //Lecture de l'horaire et du graphe dans l'instantané, reconstruit si
+        //les fichiers ont changé.
+        TimeTableSnapshot snapshot = TimeTableSnapshot.readOrBuild(reader,
+                TimeTableSnapshot.DEFAULT_FILE,
+                TimeTableSnapshot.DEFAULT_WALKING_TIME,
+                TimeTableSnapshot.DEFAULT_WALKING_SPEED);
+        TimeTable timetable = snapshot.timeTable();
 
         String[] champsDate;
         champsDate = date.split("-");
@@ -40,8 +47,8 @@ public class TimeTableSearch {
                 Integer.parseInt(champsDate[1]),
                 Integer.parseInt(champsDate[0]));
 
-        Graph graph = reader.readGraphForServices(timetable.stops(),
-                timetable.servicesForDate(dateDep), 300, 1.25);
+        Graph graph = snapshot.graph().forServices(
+                timetable.servicesForDate(dateDep));
 
         Stop depart = null;
 
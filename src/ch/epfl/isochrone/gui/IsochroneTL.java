@@ -21,9 +21,14 @@ import java.net.URL;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.Set;
 import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 import javax.swing.BorderFactory;
+import javax.swing.DefaultComboBoxModel;
 import javax.swing.Icon;
 import javax.swing.ImageIcon;
 import javax.swing.JComboBox;
@@ -42,6 +47,8 @@ import javax.swing.JTextPane;
 import javax.swing.JViewport;
 import javax.swing.SpinnerDateModel;
 import javax.swing.SwingConstants;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
 import javax.swing.event.ChangeEvent;
 import javax.swing.event.ChangeListener;
 import javax.swing.plaf.SeparatorUI;
@@ -56,12 +63,17 @@ import ch.epfl.isochrone.tiledmap.LineProvider;
 import ch.epfl.isochrone.tiledmap.OSMTileProvider;
 import ch.epfl.isochrone.tiledmap.TileProvider;
 import ch.epfl.isochrone.tiledmap.TransparentTileProvider;
+import ch.epfl.isochrone.timetable.ConnectionScan;
 import ch.epfl.isochrone.timetable.Date;
+import ch.epfl.isochrone.timetable.FastestPathProfile;
 import ch.epfl.isochrone.timetable.FastestPathTree;
-import ch.epfl.isochrone.timetable.Graph;
+import ch.epfl.isochrone.timetable.FastestPathTreeCache;
+import ch.epfl.isochrone.timetable.Service;
 import ch.epfl.isochrone.timetable.Stop;
 import ch.epfl.isochrone.timetable.TimeTable;
+import ch.epfl.isochrone.timetable.TimeTableLoader;
 import ch.epfl.isochrone.timetable.TimeTableReader;
+import ch.epfl.isochrone.timetable.TimeTableSnapshot;
 import ch.epfl.isochrone.timetable.Date.Month;
 import ch.epfl.isochrone.timetable.SecondsPastMidnight;
 
@@ -74,29 +86,46 @@ public final class IsochroneTL {
     private static final int INITIAL_DEPARTURE_TIME = SecondsPastMidnight
             .fromHMS(6, 8, 0);
     private static final Date INITIAL_DATE = new Date(1, Month.OCTOBER, 2013);
-    private static final int WALKING_TIME = 5 * 60;
-    private static final double WALKING_SPEED = 1.25;
+    private static final int WALKING_TIME = TimeTableSnapshot
+            .DEFAULT_WALKING_TIME;
+    private static final double WALKING_SPEED = TimeTableSnapshot
+            .DEFAULT_WALKING_SPEED;
+    private static final int PROFILE_WINDOW = 3600;
+    private static final long TREE_CACHE_BYTES = 16 * 1024 * 1024;
+    // Intervalle entre deux vérifications des fichiers de l'horaire, en
+    // millisecondes.
+    private static final int RELOAD_PERIOD = 60 * 1000;
     private Stop m_selectedStop;
     private Point m_positionBPoint;
     private Point m_positionSouris;
     private Boolean m_isPressed = false;
     private Date m_selectedDate;
     private int m_selectedTime;
-    private Graph m_graph;
     private TimeTable m_timetable;
-    private TimeTableReader m_reader;
+    private TimeTableLoader m_loader;
+    private ConnectionScan m_allConnections;
+    private ConnectionScan m_connections;
+    private FastestPathProfile m_profile;
     private FastestPathTree m_fastestPath;
+    // Arbre sans limite de durée de l'arrêt et de l'heure de départ
+    // sélectionnés, calculé au besoin (voir itineraryTree), ou null.
+    private FastestPathTree m_unboundedPath;
+    private FastestPathTreeCache m_treeCache;
     private TileProvider m_bgTileProvider;
     private TileProvider m_fgTileProvider;
     private LineProvider m_lineProvider;
     private ColorTable m_colorTable;
     private TiledMapComponent m_tiledMapComponent;
+    private JComboBox<Stop> m_startStopBox;
+    private JComboBox<Stop> m_destinationBox;
     private int m_zoom;
 
     /* Variables pour bonus */
     private Stop m_destination = null;
     private final JTextArea m_pathText = new JTextArea();
     private final JScrollPane m_pathArea = new JScrollPane(m_pathText);
+    // Durée et mémoire du dernier rechargement de l'horaire.
+    private final JLabel m_reloadLabel = new JLabel();
     private static final String LINE_JUMP = System.getProperty("line.separator");
 
     /**
@@ -131,12 +160,17 @@ public final class IsochroneTL {
 
         m_colorTable = new ColorTable(300, colorList);
 
-        m_reader = new TimeTableReader("/time-table/");
-        m_timetable = m_reader.readTimeTable();
-
-        m_graph = m_reader.readGraphForServices(m_timetable.stops(),
-                m_timetable.servicesForDate(INITIAL_DATE), WALKING_TIME,
-                WALKING_SPEED);
+        // L'horaire et le graphe pour tous les services sont lus dans
+        // l'instantané (reconstruit si les fichiers ont changé), puis les
+        // connexions du graphe sont restreintes aux services de la date
+        // choisie (voir updateGraph). Ils sont rechargés en arrière-plan
+        // lorsque les fichiers changent (voir startReloading).
+        m_loader = new TimeTableLoader(new TimeTableReader("/time-table/"),
+                TimeTableSnapshot.DEFAULT_FILE, WALKING_TIME, WALKING_SPEED);
+        TimeTableSnapshot snapshot = m_loader.current();
+        m_timetable = snapshot.timeTable();
+        m_allConnections = new ConnectionScan(snapshot.graph());
+        Set<Service> services = m_timetable.servicesForDate(INITIAL_DATE);
 
         String startingStopName = INITIAL_STARTING_STOP_NAME;
 
@@ -153,14 +187,17 @@ public final class IsochroneTL {
         m_selectedDate = INITIAL_DATE;
 
         // Création du FastestPathTree pour l'heure de départ et l'arrêt de
-        // départ
-        m_fastestPath = m_graph.fastestPaths(m_selectedStop,
-                INITIAL_DEPARTURE_TIME);
+        // départ, à partir du profil de la plage horaire centrée sur cette
+        // heure.
+        m_connections = m_allConnections.forServices(services);
+        m_treeCache = new FastestPathTreeCache(TREE_CACHE_BYTES);
+        m_fastestPath = cachedFastestPath();
 
         m_bgTileProvider = new CachedTileProvider(new OSMTileProvider(new URL(
                 OSM_TILE_URL)));
         IsochroneTileProvider isoTileProvider = new IsochroneTileProvider(
-                m_fastestPath, m_colorTable, WALKING_SPEED);
+                m_fastestPath, m_colorTable, WALKING_SPEED,
+                IsochroneTileProvider.Rasterizer.TRAVEL_TIME_FIELD);
         FilteringTileProvider filteredTileProvider = new TransparentTileProvider(
                 0.5, isoTileProvider);
 
@@ -172,8 +209,10 @@ public final class IsochroneTL {
         
         /* bonus */
         m_pathText.setEditable(false);          
-        m_lineProvider = new LineProvider(new ArrayList<>(m_fastestPath.pathTo(m_destination)));
-        tileProviders.add(m_lineProvider);
+        m_lineProvider = new LineProvider(new ArrayList<>(itineraryTree().pathTo(m_destination)));
+        // Le chemin d'un fournisseur ne change plus une fois affiché (voir
+        // updateIsochrone) : ses tuiles peuvent être gardées en cache.
+        tileProviders.add(new CachedTileProvider(m_lineProvider));
         
         m_tiledMapComponent.setProviders(tileProviders);
         
@@ -188,14 +227,101 @@ public final class IsochroneTL {
         }
     }
 
-    private void updateGraph(Date newDate) throws IOException {
-        m_graph = m_reader.readGraphForServices(m_timetable.stops(),
-                m_timetable.servicesForDate(newDate), WALKING_TIME,
-                WALKING_SPEED);
+    private void updateGraph(Date newDate) {
+        Set<Service> services = m_timetable.servicesForDate(newDate);
+        m_connections = m_allConnections.forServices(services);
+        m_profile = null;
         updateFastestPath();
     }
 
-    private void updateDeparture(Date date, int newTime) throws IOException {
+    // Vérifie périodiquement si les fichiers de l'horaire ont changé et, si
+    // c'est le cas, les recharge en arrière-plan. Le profil de tous les
+    // services du nouvel horaire est aussi construit en arrière-plan, seul
+    // le remplacement de l'horaire affiché se fait dans le thread de
+    // l'interface : l'ancien horaire reste utilisé jusque-là.
+    private void startReloading() {
+        m_loader.addListener(new TimeTableLoader.Listener() {
+            @Override
+            public void reloaded(final TimeTableLoader.Report report) {
+                final TimeTableSnapshot snapshot = report.snapshot();
+                final ConnectionScan connections = new ConnectionScan(
+                        snapshot.graph());
+                SwingUtilities.invokeLater(new Runnable() {
+                    @Override
+                    public void run() {
+                        updateTimeTable(snapshot, connections);
+                        m_reloadLabel.setText(report.toString());
+                    }
+                });
+            }
+        });
+
+        Timer timer = new Timer(RELOAD_PERIOD, new ActionListener() {
+            private Future<TimeTableLoader.Report> m_pending;
+
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                if (m_pending != null && m_pending.isDone()) {
+                    try {
+                        m_pending.get();
+                    } catch (InterruptedException | ExecutionException e1) {
+                        System.out
+                                .println("Error : Problème au rechargement de l'horaire !");
+                    }
+                    m_pending = null;
+                }
+                if (m_pending == null)
+                    m_pending = m_loader.reloadIfChanged();
+            }
+        });
+        timer.start();
+    }
+
+    // Remplace l'horaire affiché par celui de l'instantané donné. Les arrêts
+    // sélectionnés sont retrouvés par leur nom dans le nouvel horaire.
+    private void updateTimeTable(TimeTableSnapshot snapshot,
+            ConnectionScan connections) {
+        m_timetable = snapshot.timeTable();
+        m_allConnections = connections;
+        m_treeCache.clear();
+
+        Vector<Stop> stops = sortedStops();
+        m_selectedStop = stopNamed(stops, m_selectedStop.name());
+        m_destination = stopNamed(stops, m_destination.name());
+        DefaultComboBoxModel<Stop> startModel = new DefaultComboBoxModel<>(
+                stops);
+        startModel.setSelectedItem(m_selectedStop);
+        m_startStopBox.setModel(startModel);
+        DefaultComboBoxModel<Stop> destinationModel = new DefaultComboBoxModel<>(
+                stops);
+        destinationModel.setSelectedItem(m_destination);
+        m_destinationBox.setModel(destinationModel);
+
+        updateGraph(m_selectedDate);
+        changeItineraryText();
+    }
+
+    // Arrêt du nom donné, ou le premier arrêt s'il n'existe plus.
+    private static Stop stopNamed(Vector<Stop> stops, String name) {
+        for (Stop i : stops) {
+            if (i.name().equals(name))
+                return i;
+        }
+        return stops.get(0);
+    }
+
+    // Arrêts de l'horaire triés par nom.
+    private Vector<Stop> sortedStops() {
+        Vector<Stop> stops = new Vector<>(m_timetable.stops());
+        Collections.sort(stops, new Comparator<Stop>() {
+            public int compare(Stop a, Stop b) {
+                return a.name().compareTo(b.name());
+            }
+        });
+        return stops;
+    }
+
+    private void updateDeparture(Date date, int newTime) {
         if (date.relative(-1).equals(m_selectedDate)
                 && SecondsPastMidnight.hours(newTime) < 4
                 && SecondsPastMidnight.fromHMS(24, 0, 0) + newTime == m_selectedTime) {
@@ -228,24 +354,71 @@ public final class IsochroneTL {
     }
 
     private void updateFastestPath() {
-        m_fastestPath = m_graph.fastestPaths(m_selectedStop, m_selectedTime);
+        m_fastestPath = cachedFastestPath();
+        m_unboundedPath = null;
         updateIsochrone();
     }
 
+    // Arbre de l'arrêt, de la date et de l'heure de départ sélectionnés, lu
+    // dans le cache s'il a déjà été calculé.
+    private FastestPathTree cachedFastestPath() {
+        return m_treeCache.get(m_selectedStop, m_selectedDate, m_selectedTime,
+                new Callable<FastestPathTree>() {
+                    @Override
+                    public FastestPathTree call() {
+                        // Le profil n'est recalculé que si l'arrêt de départ
+                        // change ou si l'heure de départ sort de sa plage, les
+                        // autres heures de départ sont lues directement dans
+                        // le profil. La plage est centrée sur l'heure de
+                        // départ, qui peut ainsi être avancée comme reculée.
+                        if (m_profile == null
+                                || m_profile.startingStop() != m_selectedStop
+                                || !m_profile.covers(m_selectedTime)) {
+                            int windowStart = Math.max(0, m_selectedTime
+                                    - PROFILE_WINDOW / 2);
+                            m_profile = m_connections.profile(m_selectedStop,
+                                    windowStart, windowStart + PROFILE_WINDOW,
+                                    isochroneHorizon());
+                        }
+                        return m_profile.fastestPaths(m_selectedTime);
+                    }
+                });
+    }
+
+    // Durée au-delà de laquelle les arrêts ne sont plus dessinés, à laquelle
+    // sont limitées les recherches des isochrones.
+    private int isochroneHorizon() {
+        return m_colorTable.getNumberOfColors() * m_colorTable.getInterval();
+    }
+
+    // Arbre utilisé pour l'itinéraire : celui de l'isochrone, sauf si la
+    // destination est au-delà de son horizon. L'arbre sans limite n'est
+    // alors calculé qu'une fois par arrêt et heure de départ, quelle que
+    // soit la destination.
+    private FastestPathTree itineraryTree() {
+        if (m_fastestPath.arrivalTime(m_destination) != SecondsPastMidnight.INFINITE)
+            return m_fastestPath;
+        if (m_unboundedPath == null)
+            m_unboundedPath = m_connections.fastestPaths(m_selectedStop,
+                    m_selectedTime);
+        return m_unboundedPath;
+    }
+
     private void updateIsochrone() {
 
         IsochroneTileProvider isoTileProvider = new IsochroneTileProvider(
-                m_fastestPath, m_colorTable, WALKING_SPEED);
+                m_fastestPath, m_colorTable, WALKING_SPEED,
+                IsochroneTileProvider.Rasterizer.TRAVEL_TIME_FIELD);
         FilteringTileProvider filteredTileProvider = new TransparentTileProvider(
                 0.5, isoTileProvider);
         m_fgTileProvider = new CachedTileProvider(filteredTileProvider);
         
-        m_lineProvider = new LineProvider(new ArrayList<>(m_fastestPath.pathTo(m_destination)));
+        m_lineProvider = new LineProvider(new ArrayList<>(itineraryTree().pathTo(m_destination)));
 
         ArrayList<TileProvider> providers = new ArrayList<>();
         providers.add(m_bgTileProvider);
         providers.add(m_fgTileProvider);
-        providers.add(m_lineProvider);
+        providers.add(new CachedTileProvider(m_lineProvider));
         m_tiledMapComponent.setProviders(providers);
     }
 
@@ -368,20 +541,16 @@ public final class IsochroneTL {
         pathPanel.add(title, BorderLayout.PAGE_START);
         pathPanel.add(createDestinationPanel(), BorderLayout.PAGE_START);
         pathPanel.add(m_pathArea, BorderLayout.CENTER);
+        pathPanel.add(m_reloadLabel, BorderLayout.PAGE_END);
         return pathPanel;
     }
 
     private JPanel createDestinationPanel() {
         JLabel destStop = new JLabel("Destination");
 
-        Vector<Stop> stops = new Vector<>(m_timetable.stops());
-        Collections.sort(stops, new Comparator<Stop>() {
-            public int compare(Stop a, Stop b) {
-                return a.name().compareTo(b.name());
-            }
-        });
-        JComboBox<Stop> stopBox = new JComboBox<>(stops);
+        JComboBox<Stop> stopBox = new JComboBox<>(sortedStops());
         stopBox.setSelectedItem(m_selectedStop);
+        m_destinationBox = stopBox;
         stopBox.addActionListener(new ActionListener() {
 
             @Override
@@ -413,15 +582,16 @@ public final class IsochroneTL {
     }
     
     private void changeItineraryText(){
-        ArrayList<Stop> path = new ArrayList<>(m_fastestPath.pathTo(m_destination));
+        FastestPathTree tree = itineraryTree();
+        ArrayList<Stop> path = new ArrayList<>(tree.pathTo(m_destination));
         String newTxt = "";
         int time;
-        if(m_fastestPath.arrivalTime(path.get(path.size() - 1)) == SecondsPastMidnight.INFINITE){
+        if(tree.arrivalTime(path.get(path.size() - 1)) == SecondsPastMidnight.INFINITE){
             m_pathText.setText("Impossible d'effectuer l'itinéraire.");
         }
         else{    
             for (int i = 0; i < path.size(); i ++){
-                time = m_fastestPath.arrivalTime(path.get(i));
+                time = tree.arrivalTime(path.get(i));
                 if (SecondsPastMidnight.hours(time) >= 24){
                     time -= 24*3600;
                 }
@@ -433,7 +603,7 @@ public final class IsochroneTL {
     }
     
     private void updateLine(){
-        m_lineProvider.setPath(new ArrayList<>(m_fastestPath.pathTo(m_destination)));
+        m_lineProvider.setPath(new ArrayList<>(itineraryTree().pathTo(m_destination)));
         updateIsochrone();
     }
 
@@ -444,14 +614,9 @@ public final class IsochroneTL {
 
         JLabel startStop = new JLabel("Départ");
 
-        Vector<Stop> stops = new Vector<>(m_timetable.stops());
-        Collections.sort(stops, new Comparator<Stop>() {
-            public int compare(Stop a, Stop b) {
-                return a.name().compareTo(b.name());
-            }
-        });
-        JComboBox<Stop> stopBox = new JComboBox<>(stops);
+        JComboBox<Stop> stopBox = new JComboBox<>(sortedStops());
         stopBox.setSelectedItem(m_selectedStop);
+        m_startStopBox = stopBox;
         stopBox.addActionListener(new ActionListener() {
 
             @Override
@@ -484,14 +649,9 @@ public final class IsochroneTL {
             public void stateChanged(ChangeEvent e) {
                 java.util.Date newDate = ((SpinnerDateModel) e.getSource())
                         .getDate();
-                try {
-                    updateDeparture(new Date(newDate),
-                            SecondsPastMidnight.fromJavaDate(newDate));
-                    changeItineraryText();
-                } catch (IOException e1) {
-                    System.out
-                            .println("Error : Problème à la lecture de l'horaire !");
-                }
+                updateDeparture(new Date(newDate),
+                        SecondsPastMidnight.fromJavaDate(newDate));
+                changeItineraryText();
             }
         });
 
@@ -522,6 +682,8 @@ public final class IsochroneTL {
 
         frame.pack();
         frame.setVisible(true);
+
+        startReloading();
     }
 
     /**
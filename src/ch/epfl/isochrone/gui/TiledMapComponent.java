@@ -114,9 +114,10 @@ public final class TiledMapComponent extends JComponent {
             for (int x = begX; x <= endX; x++) {
                 posX = 256 * x;
                 posY = 256 * y;
+                // Les tuiles sont dessinées sans être copiées : si elles sont
+                // en cache, redessiner la carte n'alloue aucune image.
                 for (int i = 0; i < m_providers.size(); i++) {
-                    g.drawImage(m_providers.get(i).tileAt(m_zoom, x, y)
-                            .getTileImage(), null, posX, posY);
+                    m_providers.get(i).tileAt(m_zoom, x, y).draw(g, posX, posY);
                 }
             }
         }
@@ -1,5 +1,7 @@
 /**
  * Classe représentant un fournisseur de tuiles permettant un accès plus rapide aux Tiles par rapport aux autres fournisseurs.
+ * Elle peut être utilisée par plusieurs threads à la fois, si le fournisseur transformé le peut aussi ; deux threads
+ * demandant en même temps une tuile absente du cache peuvent toutefois la calculer chacun.
  * 
  * @author Justinien Bouron (236608)
  * @author Nicolas Roussel (238333)
@@ -23,6 +25,16 @@ public final class CachedTileProvider implements TileProvider {
         m_tileProvider = tileProvider;
     }
 
+    /**
+     * Retourne le cache des tuiles de ce fournisseur, par exemple pour en
+     * lire les statistiques.
+     * 
+     * @return Le cache de tuiles.
+     */
+    public TileCache cache() {
+        return m_tileCache;
+    }
+
     @Override
     /**
      * Redefinition de la méthode tileAt de l'interface TileProvider. Si la tuile correspondant a ces coordonées est contenue dans le cache de tuile cette méthode renvoit la tuile correspondante, sinon elle l'ajoute au cache de tuile avant de la renvoyer.
@@ -7,8 +7,6 @@
 
 package ch.epfl.isochrone.tiledmap;
 
-import java.awt.image.BufferedImage;
-
 public abstract class FilteringTileProvider implements TileProvider {
 
     private final TileProvider m_provider;
@@ -34,10 +32,31 @@ public abstract class FilteringTileProvider implements TileProvider {
      */
     abstract public int transformARGB(int argb);
 
+    /**
+     * Transforme d'un coup les couleurs d'un tableau de pixels (voir
+     * transformARGB(int)). Par défaut, chaque pixel est transformé par
+     * transformARGB(int) ; une sous-classe peut redéfinir cette méthode par
+     * une boucle plus simple, que la machine virtuelle peut vectoriser.
+     *
+     * @param src
+     *            Les couleurs à transformer, au format ARGB. Le tableau ne
+     *            doit pas être modifié.
+     * @param dst
+     *            Le tableau recevant les couleurs transformées, au moins aussi
+     *            long que src.
+     */
+    public void transformARGB(int[] src, int[] dst) {
+        for (int i = 0; i < src.length; i++) {
+            dst[i] = transformARGB(src[i]);
+        }
+    }
+
     /**
      * Redéfinition de la méthode tileAt qui va renvoyer une Tile, du
      * fournisseur de tuile, ayant subit une transformation des couleurs de tous
-     * ses pixels via la méthode transformArgb.
+     * ses pixels via la méthode transformARGB. Les pixels de la tuile
+     * d'origine sont lus sans copie, et les pixels transformés forment
+     * directement l'image de la nouvelle tuile : c'est la seule copie.
      * 
      * @param zoom
      *            Le niveau de zoom.
@@ -50,14 +69,10 @@ public abstract class FilteringTileProvider implements TileProvider {
     @Override
     public Tile tileAt(int zoom, int x, int y) {
         Tile t = m_provider.tileAt(zoom, x, y);
-        BufferedImage tImage = t.getTileImage();
-        for (int coord_y = 0; coord_y < 256; coord_y++) {
-            for (int coord_x = 0; coord_x < 256; coord_x++) {
-                tImage.setRGB(coord_x, coord_y,
-                        transformARGB(tImage.getRGB(coord_x, coord_y)));
-            }
-        }
-        return new Tile(tImage, zoom, x, y);
+        int[] pixels = t.pixels();
+        int[] transformed = new int[pixels.length];
+        transformARGB(pixels, transformed);
+        return Tile.fromPixels(transformed, t.width(), t.height(), zoom, x, y);
     }
 
 }
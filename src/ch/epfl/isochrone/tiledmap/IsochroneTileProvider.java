@@ -10,16 +10,58 @@ package ch.epfl.isochrone.tiledmap;
 import java.awt.Graphics2D;
 import java.awt.geom.Ellipse2D;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import ch.epfl.isochrone.geo.PointOSM;
 import ch.epfl.isochrone.timetable.FastestPathTree;
+import ch.epfl.isochrone.timetable.LatestDepartureTree;
+import ch.epfl.isochrone.timetable.SecondsPastMidnight;
 import ch.epfl.isochrone.timetable.Stop;
 
 public final class IsochroneTileProvider implements TileProvider {
 
-    private final FastestPathTree m_pathTree;
+    // Arrêts atteints et durée du trajet en TL correspondante (depuis l'arrêt
+    // de départ, ou jusqu'à l'arrêt de destination pour une recherche en heure
+    // d'arrivée).
+    private final Stop[] m_stops;
+    private final int[] m_travelTimes;
     private final ColorTable m_colorTable;
     private final double m_walkingSpeed;
+    private final Rasterizer m_rasterizer;
+
+    // Index des positions des arrêts, par niveau de zoom, construits à la
+    // première tuile demandée à chaque niveau.
+    private final ConcurrentMap<Integer, StopGrid> m_grids = new ConcurrentHashMap<>();
+
+    // Durées de trajet de chaque pixel d'une tuile, réutilisées par chaque
+    // thread d'une tuile à l'autre (voir Rasterizer.TRAVEL_TIME_FIELD).
+    private static final ThreadLocal<int[]> TRAVEL_TIMES = new ThreadLocal<int[]>() {
+        @Override
+        protected int[] initialValue() {
+            return new int[256 * 256];
+        }
+    };
+
+    /**
+     * Manière de dessiner les tuiles isochrones.
+     */
+    public enum Rasterizer {
+        /**
+         * Dessine pour chaque couleur, de la plus lointaine à la plus proche,
+         * une ellipse par arrêt : chaque pixel peut être peint plusieurs fois.
+         */
+        ELLIPSES,
+        /**
+         * Calcule pour chaque pixel la durée minimale du trajet jusqu'à lui
+         * (durée du trajet en TL jusqu'à un arrêt proche, puis à pied
+         * jusqu'au pixel), puis écrit directement la couleur de cette durée
+         * dans l'image. Le résultat est exact au pixel près.
+         */
+        TRAVEL_TIME_FIELD
+    }
 
     /**
      * Constructeur de la classe IsochroneTileProvider.
@@ -30,12 +72,93 @@ public final class IsochroneTileProvider implements TileProvider {
      */
     public IsochroneTileProvider(FastestPathTree pathTree,
             ColorTable colorTable, double walkingSpeed) {
-        if(walkingSpeed < 0){
-            throw new IllegalArgumentException("Error : La vitesse de marche ne peut pas être ngative !");
+        this(pathTree, colorTable, walkingSpeed, Rasterizer.ELLIPSES);
+    }
+
+    /**
+     * Constructeur de la classe IsochroneTileProvider.
+     * @param pathTree  Arbre des plus couts chemin à l'aide du quel ce fournisseur créera les tuiles isochrones.
+     * @param colorTable    Instance de ColorTable dont on utilisera les couleurs pour créer les tuile isochrones.
+     * @param walkingSpeed  Vitesse de marche.
+     * @param rasterizer    Manière de dessiner les tuiles.
+     * @throws IllegalArgumentException Lève l'exception si la vitesse de marche est inférieure à zéro.
+     */
+    public IsochroneTileProvider(FastestPathTree pathTree,
+            ColorTable colorTable, double walkingSpeed, Rasterizer rasterizer) {
+        checkWalkingSpeed(walkingSpeed);
+        int count = 0;
+        for (Stop s : pathTree.stops()) {
+            if (pathTree.arrivalTime(s) != SecondsPastMidnight.INFINITE)
+                count++;
+        }
+        m_stops = new Stop[count];
+        m_travelTimes = new int[count];
+        int i = 0;
+        for (Stop s : pathTree.stops()) {
+            int arrivalTime = pathTree.arrivalTime(s);
+            if (arrivalTime != SecondsPastMidnight.INFINITE) {
+                m_stops[i] = s;
+                m_travelTimes[i] = arrivalTime - pathTree.startingTime();
+                i++;
+            }
+        }
+        m_colorTable = colorTable;
+        m_walkingSpeed = walkingSpeed;
+        m_rasterizer = rasterizer;
+    }
+
+    /**
+     * Constructeur des tuiles isochrones d'une recherche en heure d'arrivée :
+     * chaque zone colorée contient les points depuis lesquels on peut
+     * atteindre la destination à temps en partant au plus tôt la durée
+     * correspondante avant l'heure d'arrivée.
+     * @param departureTree  Arbre des heures de départ au plus tard vers la destination.
+     * @param colorTable    Instance de ColorTable dont on utilisera les couleurs pour créer les tuile isochrones.
+     * @param walkingSpeed  Vitesse de marche.
+     * @throws IllegalArgumentException Lève l'exception si la vitesse de marche est inférieure à zéro.
+     */
+    public IsochroneTileProvider(LatestDepartureTree departureTree,
+            ColorTable colorTable, double walkingSpeed) {
+        this(departureTree, colorTable, walkingSpeed, Rasterizer.ELLIPSES);
+    }
+
+    /**
+     * Constructeur des tuiles isochrones d'une recherche en heure d'arrivée
+     * (voir le constructeur précédent).
+     * @param departureTree  Arbre des heures de départ au plus tard vers la destination.
+     * @param colorTable    Instance de ColorTable dont on utilisera les couleurs pour créer les tuile isochrones.
+     * @param walkingSpeed  Vitesse de marche.
+     * @param rasterizer    Manière de dessiner les tuiles.
+     * @throws IllegalArgumentException Lève l'exception si la vitesse de marche est inférieure à zéro.
+     */
+    public IsochroneTileProvider(LatestDepartureTree departureTree,
+            ColorTable colorTable, double walkingSpeed, Rasterizer rasterizer) {
+        checkWalkingSpeed(walkingSpeed);
+        int count = 0;
+        for (Stop s : departureTree.stops()) {
+            if (departureTree.departureTime(s) != LatestDepartureTree.NEGATIVE_INFINITE)
+                count++;
+        }
+        m_stops = new Stop[count];
+        m_travelTimes = new int[count];
+        int i = 0;
+        for (Stop s : departureTree.stops()) {
+            int departureTime = departureTree.departureTime(s);
+            if (departureTime != LatestDepartureTree.NEGATIVE_INFINITE) {
+                m_stops[i] = s;
+                m_travelTimes[i] = departureTree.arrivalTime() - departureTime;
+                i++;
+            }
         }
-        m_pathTree = pathTree;
         m_colorTable = colorTable;
         m_walkingSpeed = walkingSpeed;
+        m_rasterizer = rasterizer;
+    }
+
+    private static void checkWalkingSpeed(double walkingSpeed) {
+        if(walkingSpeed < 0){
+            throw new IllegalArgumentException("Error : La vitesse de marche ne peut pas être ngative !");
+        }
     }
 
     /**
@@ -50,6 +173,14 @@ public final class IsochroneTileProvider implements TileProvider {
         //Création d'une BufferedImage avec les dimesions d'une tile
         BufferedImage i = new BufferedImage(256, 256,
                 BufferedImage.TYPE_INT_ARGB);
+        if (m_rasterizer == Rasterizer.TRAVEL_TIME_FIELD)
+            rasterizeTravelTimes(i, zoom, x, y);
+        else
+            fillEllipses(i, zoom, x, y);
+        return Tile.adopt(i, zoom, x, y);
+    }
+
+    private void fillEllipses(BufferedImage i, int zoom, int x, int y) {
         Graphics2D g = i.createGraphics();
 
         // Remplit avec la couleur de fond
@@ -60,10 +191,9 @@ public final class IsochroneTileProvider implements TileProvider {
         if (m_colorTable.getNumberOfColors() > 1){
             
             //Initialisation de variables
-            int arrivalTime = 0;
+            int travelTime = 0;
             int interval = m_colorTable.getInterval();
             int timeLeft = 0;
-            int startingTime = m_pathTree.startingTime();
             
             //Coordonées OSM du centre du système de coordonées de g (Graphics2D)
             int originTileX = x * 256;
@@ -78,26 +208,278 @@ public final class IsochroneTileProvider implements TileProvider {
             Double distanceOnePixelX = point1.toWGS84().distanceTo(point2.toWGS84());
             Double distanceOnePixelY = point1.toWGS84().distanceTo(point3.toWGS84());
             
+            // Seuls les arrêts dont le plus grand cercle, celui de la
+            // dernière couleur, peut toucher la tuile sont dessinés.
+            int bands = m_colorTable.getNumberOfColors() - 1;
+            StopGrid grid = grid(zoom);
+            int[] candidates = stopsReaching(grid, bands * interval,
+                    originTileX, originTileY, distanceOnePixelX,
+                    distanceOnePixelY);
+
             //Boucle qui dessine tout les cercles couche par couche
-            for (int j = m_colorTable.getNumberOfColors() - 2; j >= 0; j--) {
+            for (int j = bands - 1; j >= 0; j--) {
                 g.setColor(m_colorTable.getColor(j)); //séléction de la couleur
-                for (Stop s : m_pathTree.stops()) { //On dessine pout tout les points
-                    arrivalTime = m_pathTree.arrivalTime(s); //calcul du temps d'arrivée
-                    if (arrivalTime - startingTime <= (j + 1) * interval) { // on dessine que si le temps d'arrivée est dans l'intervalle de la couleur
-                        PointOSM sOSM = s.position().toOSM(zoom);                        
-                        timeLeft = (j + 1) * interval - (arrivalTime - startingTime); //calcul du temps restant
+                for (int k : candidates) { //On dessine pour les arrêts proches de la tuile
+                    travelTime = m_travelTimes[k]; //durée du trajet en TL
+                    if (travelTime <= (j + 1) * interval) { // on dessine que si la durée est dans l'intervalle de la couleur
+                        timeLeft = (j + 1) * interval - travelTime; //calcul du temps restant
                         double walkRadius = m_walkingSpeed * timeLeft; //calcul de la distance que l'on peut encore parcourir à pied
                         int pixelRadiusX = (int) Math.round(walkRadius / distanceOnePixelX); //conversion de la distance (mètres) en pixels pour X
                         int pixelRadiusY = (int) Math.round(walkRadius / distanceOnePixelY); //conversion de la distance (mètres) en pixels pour Y
                         
-                        g.fill(new Ellipse2D.Double(sOSM.x() - pixelRadiusX - originTileX, 
-                                sOSM.y() -pixelRadiusY - originTileY, pixelRadiusX * 2, pixelRadiusY*2)); //on dessine le cercle
+                        g.fill(new Ellipse2D.Double(grid.x(k) - pixelRadiusX - originTileX, 
+                                grid.y(k) - pixelRadiusY - originTileY, pixelRadiusX * 2, pixelRadiusY*2)); //on dessine le cercle
                     }
                 }
             }
         }
         g.dispose();
-        return new Tile(i, zoom, x, y);
+    }
+
+    private void rasterizeTravelTimes(BufferedImage image, int zoom, int x,
+            int y) {
+        int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer())
+                .getData();
+        int bands = m_colorTable.getNumberOfColors() - 1;
+        int background = m_colorTable.getColor(bands).getRGB();
+        int interval = m_colorTable.getInterval();
+        int maxTime = bands * interval;
+
+        int originX = x * 256;
+        int originY = y * 256;
+        double metersPerPixelX = metersPerPixel(zoom, originX, originY, 1, 0);
+        double metersPerPixelY = metersPerPixel(zoom, originX, originY, 0, 1);
+        StopGrid grid = grid(zoom);
+
+        // Durée minimale du trajet jusqu'au centre de chaque pixel, arrondie
+        // à la seconde supérieure, ou maxTime + 1 si elle dépasse maxTime.
+        int[] times = TRAVEL_TIMES.get();
+        Arrays.fill(times, maxTime + 1);
+        if (bands > 0 && m_walkingSpeed > 0) {
+            // Les arrêts les plus proches en TL sont traités en premier, ce
+            // qui permet d'écarter rapidement les pixels qu'un arrêt plus
+            // lointain ne peut plus améliorer.
+            int[] stops = stopsReaching(grid, maxTime, originX, originY,
+                    metersPerPixelX, metersPerPixelY);
+            long[] sorted = new long[stops.length];
+            for (int k = 0; k < stops.length; k++)
+                sorted[k] = (long) m_travelTimes[stops[k]] << 32 | stops[k];
+            Arrays.sort(sorted);
+
+            for (long i : sorted) {
+                int k = (int) i;
+                int travelTime = m_travelTimes[k];
+                double maxWalk = m_walkingSpeed * (maxTime - travelTime);
+                double stopX = grid.x(k) - originX;
+                double stopY = grid.y(k) - originY;
+                int minRow = Math.max(0, (int) Math.floor(stopY - maxWalk / metersPerPixelY));
+                int maxRow = Math.min(255, (int) Math.ceil(stopY + maxWalk / metersPerPixelY));
+
+                for (int row = minRow; row <= maxRow; row++) {
+                    double dy = (row + 0.5 - stopY) * metersPerPixelY;
+                    double dy2 = dy * dy;
+                    if (dy2 > maxWalk * maxWalk)
+                        continue;
+                    // colonnes du disque parcouru à pied sur cette ligne
+                    double halfWidth = Math.sqrt(maxWalk * maxWalk - dy2) / metersPerPixelX;
+                    int minColumn = Math.max(0, (int) Math.floor(stopX - halfWidth));
+                    int maxColumn = Math.min(255, (int) Math.ceil(stopX + halfWidth));
+                    for (int column = minColumn; column <= maxColumn; column++) {
+                        int pixel = row * 256 + column;
+                        // le pixel n'est amélioré que si la marche dure au
+                        // plus budget secondes ; le test sur le carré de la
+                        // distance, un peu plus large, évite la racine
+                        int budget = times[pixel] - travelTime - 1;
+                        if (budget < 0)
+                            continue;
+                        double dx = (column + 0.5 - stopX) * metersPerPixelX;
+                        double distance2 = dx * dx + dy2;
+                        double reach = (budget + 1) * m_walkingSpeed;
+                        if (distance2 > reach * reach)
+                            continue;
+                        int time = travelTime + (int) Math.ceil(Math.sqrt(distance2) / m_walkingSpeed);
+                        if (time < times[pixel])
+                            times[pixel] = time;
+                    }
+                }
+            }
+        }
+
+        // Un pixel atteint en une durée t prend la couleur j de la plus
+        // petite ellipse qui le contient, soit celle où t <= (j + 1) *
+        // interval.
+        int[] colors = new int[bands];
+        for (int j = 0; j < bands; j++)
+            colors[j] = m_colorTable.getColor(j).getRGB();
+        for (int pixel = 0; pixel < pixels.length; pixel++) {
+            int time = times[pixel];
+            if (time > maxTime)
+                pixels[pixel] = background;
+            else
+                pixels[pixel] = colors[time <= 0 ? 0 : (time - 1) / interval];
+        }
+    }
+
+    // Arrêts dont le cercle de la dernière couleur, parcouru à pied pendant
+    // maxTime moins la durée du trajet en TL, peut toucher la tuile.
+    private int[] stopsReaching(StopGrid grid, int maxTime, int originX,
+            int originY, double metersPerPixelX, double metersPerPixelY) {
+        int[] stops = grid.stopsNear(originX, originY,
+                pixelRadius(maxTime, metersPerPixelX),
+                pixelRadius(maxTime, metersPerPixelY));
+        int count = 0;
+        for (int k : stops) {
+            int maxTimeLeft = maxTime - m_travelTimes[k];
+            if (maxTimeLeft >= 0
+                    && grid.reaches(k, originX, originY,
+                            pixelRadius(maxTimeLeft, metersPerPixelX),
+                            pixelRadius(maxTimeLeft, metersPerPixelY)))
+                stops[count++] = k;
+        }
+        return Arrays.copyOf(stops, count);
+    }
+
+    // Distance en mètres entre le coin haut gauche de la tuile et le pixel
+    // voisin dans la direction donnée.
+    private static double metersPerPixel(int zoom, int originX, int originY,
+            int dx, int dy) {
+        PointOSM origin = new PointOSM(zoom, originX, originY);
+        PointOSM neighbour = new PointOSM(zoom, originX + dx, originY + dy);
+        return origin.toWGS84().distanceTo(neighbour.toWGS84());
+    }
+
+    // Rayon en pixels du cercle parcouru à pied pendant la durée donnée,
+    // arrondi comme ceux dessinés par tileAt.
+    private int pixelRadius(int time, double metersPerPixel) {
+        return (int) Math.round(m_walkingSpeed * time / metersPerPixel);
+    }
+
+    private StopGrid grid(int zoom) {
+        StopGrid grid = m_grids.get(zoom);
+        if (grid == null) {
+            // deux threads peuvent construire le même index, un seul est
+            // gardé
+            grid = new StopGrid(m_stops, zoom);
+            StopGrid previous = m_grids.putIfAbsent(zoom, grid);
+            if (previous != null)
+                grid = previous;
+        }
+        return grid;
+    }
+
+    /**
+     * Index des positions OSM des arrêts à un niveau de zoom, regroupés par
+     * cases de la taille d'une tuile. Seules les cases non vides sont
+     * gardées, triées par ligne puis par colonne : les cases d'une ligne
+     * comprises entre deux colonnes sont donc consécutives.
+     */
+    private static final class StopGrid {
+
+        private static final int CELL_SIZE = 256;
+
+        // Position OSM de chaque arrêt, par indice dans m_stops.
+        private final double[] m_x;
+        private final double[] m_y;
+        private final int m_maxCell;
+        // Cases non vides (ligne << 32 | colonne), triées, et arrêts qu'elles
+        // contiennent : ceux de la case i occupent
+        // [m_cellOffsets[i]; m_cellOffsets[i + 1][ de m_cellStops.
+        private final long[] m_cellKeys;
+        private final int[] m_cellOffsets;
+        private final int[] m_cellStops;
+
+        StopGrid(Stop[] stops, int zoom) {
+            m_x = new double[stops.length];
+            m_y = new double[stops.length];
+            m_maxCell = PointOSM.maxXY(zoom) / CELL_SIZE;
+            long[] keys = new long[stops.length];
+            for (int i = 0; i < stops.length; i++) {
+                PointOSM p = stops[i].position().toOSM(zoom);
+                m_x[i] = p.x();
+                m_y[i] = p.y();
+                keys[i] = key(cell(m_x[i]), cell(m_y[i]));
+            }
+
+            long[] sorted = keys.clone();
+            Arrays.sort(sorted);
+            int cellCount = 0;
+            for (int i = 0; i < sorted.length; i++) {
+                if (i == 0 || sorted[i] != sorted[i - 1])
+                    sorted[cellCount++] = sorted[i];
+            }
+            m_cellKeys = Arrays.copyOf(sorted, cellCount);
+
+            m_cellOffsets = new int[cellCount + 1];
+            int[] cells = new int[stops.length];
+            for (int i = 0; i < stops.length; i++) {
+                cells[i] = Arrays.binarySearch(m_cellKeys, keys[i]);
+                m_cellOffsets[cells[i] + 1]++;
+            }
+            for (int i = 0; i < cellCount; i++)
+                m_cellOffsets[i + 1] += m_cellOffsets[i];
+            m_cellStops = new int[stops.length];
+            int[] next = Arrays.copyOf(m_cellOffsets, cellCount);
+            for (int i = 0; i < stops.length; i++)
+                m_cellStops[next[cells[i]]++] = i;
+        }
+
+        double x(int stop) {
+            return m_x[stop];
+        }
+
+        double y(int stop) {
+            return m_y[stop];
+        }
+
+        /**
+         * Retourne les arrêts dont un cercle des rayons donnés pourrait
+         * toucher la tuile dont le coin haut gauche est donné. Le résultat
+         * peut contenir des arrêts qui ne la touchent pas (voir reaches).
+         */
+        int[] stopsNear(int originX, int originY, int radiusX, int radiusY) {
+            int minColumn = Math.max(0, cell(originX - radiusX - 1.0));
+            int maxColumn = Math.min(m_maxCell, cell(originX + 256 + radiusX + 1.0));
+            int minRow = Math.max(0, cell(originY - radiusY - 1.0));
+            int maxRow = Math.min(m_maxCell, cell(originY + 256 + radiusY + 1.0));
+
+            int[] stops = new int[16];
+            int count = 0;
+            for (int row = minRow; row <= maxRow; row++) {
+                int cell = Arrays.binarySearch(m_cellKeys, key(minColumn, row));
+                if (cell < 0)
+                    cell = -cell - 1;
+                long maxKey = key(maxColumn, row);
+                for (; cell < m_cellKeys.length && m_cellKeys[cell] <= maxKey; cell++) {
+                    int begin = m_cellOffsets[cell];
+                    int end = m_cellOffsets[cell + 1];
+                    if (count + end - begin > stops.length)
+                        stops = Arrays.copyOf(stops, Math.max(2 * stops.length, count + end - begin));
+                    System.arraycopy(m_cellStops, begin, stops, count, end - begin);
+                    count += end - begin;
+                }
+            }
+            return Arrays.copyOf(stops, count);
+        }
+
+        /**
+         * Retourne vrai si l'ellipse des rayons donnés centrée sur l'arrêt
+         * donné peut toucher la tuile dont le coin haut gauche est donné.
+         */
+        boolean reaches(int stop, int originX, int originY, int radiusX,
+                int radiusY) {
+            return m_x[stop] + radiusX >= originX - 1
+                    && m_x[stop] - radiusX <= originX + 256 + 1
+                    && m_y[stop] + radiusY >= originY - 1
+                    && m_y[stop] - radiusY <= originY + 256 + 1;
+        }
+
+        private static int cell(double coordinate) {
+            return (int) Math.floor(coordinate / CELL_SIZE);
+        }
+
+        private static long key(int column, int row) {
+            return (long) row << 32 | column;
+        }
     }
 
 }
@@ -57,7 +57,7 @@ public class LineProvider implements TileProvider{
                 g.drawString(m_path.get(i).name(), x1, y1);
             }
         }
-        return new Tile(image, zoom, x, y);
+        return Tile.adopt(image, zoom, x, y);
     }
     
 }
@@ -65,7 +65,7 @@ public final class OSMTileProvider implements TileProvider {
             }
         }
 
-        return new Tile(image, zoom, x, y);
+        return Tile.adopt(image, zoom, x, y);
     }
 
 }
@@ -1,5 +1,8 @@
 /**
- * Classe représentant une tuile.
+ * Classe représentant une tuile. Une tuile est immuable : son image n'est
+ * jamais modifiée, et peut donc être dessinée telle quelle (voir draw) sans
+ * être copiée. Seuls les appelants qui veulent modifier l'image en demandent
+ * une copie (voir getTileImage).
  * 
  * @author Justinien Bouron (236608)
  * @author Nicolas Roussel (238333)
@@ -8,7 +11,14 @@
 package ch.epfl.isochrone.tiledmap;
 
 import java.awt.Graphics;
+import java.awt.Graphics2D;
 import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.DataBufferInt;
+import java.awt.image.Raster;
+import java.awt.image.SampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
 
 import static ch.epfl.isochrone.geo.PointOSM.maxXY;
 
@@ -40,6 +50,66 @@ public final class Tile {
      *             donné.
      */
     public Tile(BufferedImage image, int zoom, int posX, int posY) {
+        this(zoom, posX, posY, copy(image));
+    }
+
+    /**
+     * Construit une tuile à partir d'une image qui vient d'être dessinée et
+     * que l'appelant ne modifiera plus. Si l'image est de type
+     * TYPE_INT_ARGB, la tuile la garde telle quelle ; sinon elle est
+     * convertie en une copie de ce type.
+     *
+     * @param image
+     *            L'image de la tuile.
+     * @param zoom
+     *            Le niveau de zoom de la tuile.
+     * @param posX
+     *            La coordonée X de la tuile.
+     * @param posY
+     *            La coordonée Y de la tuile.
+     * @return La tuile.
+     * @throws IllegalArgumentException
+     *             Dans les mêmes cas que le constructeur.
+     */
+    static Tile adopt(BufferedImage image, int zoom, int posX, int posY) {
+        return new Tile(zoom, posX, posY, isPackedARGB(image) ? image
+                : copy(image));
+    }
+
+    /**
+     * Construit une tuile dont l'image utilise directement les pixels donnés,
+     * sans les copier. Le tableau ne doit plus être modifié ensuite.
+     *
+     * @param argb
+     *            Les pixels de l'image au format ARGB, ligne par ligne.
+     * @param width
+     *            La largeur de l'image.
+     * @param height
+     *            La hauteur de l'image.
+     * @param zoom
+     *            Le niveau de zoom de la tuile.
+     * @param posX
+     *            La coordonée X de la tuile.
+     * @param posY
+     *            La coordonée Y de la tuile.
+     * @return La tuile.
+     * @throws IllegalArgumentException
+     *             Dans les mêmes cas que le constructeur, ou si le nombre de
+     *             pixels ne correspond pas aux dimensions.
+     */
+    static Tile fromPixels(int[] argb, int width, int height, int zoom,
+            int posX, int posY) {
+        if (argb.length != width * height)
+            throw new IllegalArgumentException(
+                    "Error : Nombre de pixels invalide !");
+        WritableRaster raster = Raster.createPackedRaster(new DataBufferInt(
+                argb, argb.length), width, height, width, new int[] {
+                0x00FF0000, 0x0000FF00, 0x000000FF, 0xFF000000 }, null);
+        return new Tile(zoom, posX, posY, new BufferedImage(
+                ColorModel.getRGBdefault(), raster, false, null));
+    }
+
+    private Tile(int zoom, int posX, int posY, BufferedImage image) {
         if (zoom < 0)
             throw new IllegalArgumentException(
                     " Error : Zoom invalide car négatif !");
@@ -57,26 +127,90 @@ public final class Tile {
                             + maxXY + "]!");
         m_posX = posX;
         m_posY = posY;
-
-        BufferedImage copy = new BufferedImage(image.getWidth(),
-                image.getHeight(), BufferedImage.TYPE_INT_ARGB);
-        Graphics g = copy.getGraphics();
-        g.drawImage(image, 0, 0, null);
-        g.dispose();
-        m_image = copy;
+        m_image = image;
     }
 
     /**
      * Méthode permettant d'obtenir l'image de l'instance de Tile actuelle sous
-     * la forme d'une instance de la classe BufferedImage.
+     * la forme d'une instance de la classe BufferedImage. L'image est copiée,
+     * et peut donc être modifiée par l'appelant ; pour simplement afficher la
+     * tuile, draw évite cette copie.
      * 
      * @return Copie de l'instance de BufferedImage contenue dans cette tuile.
      */
     public BufferedImage getTileImage() {
-        BufferedImage copy = new BufferedImage(m_image.getWidth(),
-                m_image.getHeight(), BufferedImage.TYPE_INT_ARGB);
+        return copy(m_image);
+    }
+
+    /**
+     * Dessine l'image de la tuile dans le contexte graphique donné, sans la
+     * copier.
+     *
+     * @param g
+     *            Le contexte graphique.
+     * @param x
+     *            La coordonnée X du coin haut gauche de la tuile dans le
+     *            contexte.
+     * @param y
+     *            La coordonnée Y du coin haut gauche de la tuile dans le
+     *            contexte.
+     */
+    public void draw(Graphics2D g, int x, int y) {
+        g.drawImage(m_image, x, y, null);
+    }
+
+    /**
+     * Retourne les pixels de l'image de la tuile au format ARGB, ligne par
+     * ligne, sans les copier. Le tableau ne doit pas être modifié.
+     *
+     * @return Les pixels de l'image.
+     */
+    int[] pixels() {
+        // L'image est toujours de type TYPE_INT_ARGB, sans décalage ni
+        // marge entre ses lignes (voir isPackedARGB).
+        return ((DataBufferInt) m_image.getRaster().getDataBuffer()).getData();
+    }
+
+    /**
+     * Retourne la largeur de l'image de la tuile.
+     *
+     * @return La largeur en pixels.
+     */
+    int width() {
+        return m_image.getWidth();
+    }
+
+    /**
+     * Retourne la hauteur de l'image de la tuile.
+     *
+     * @return La hauteur en pixels.
+     */
+    int height() {
+        return m_image.getHeight();
+    }
+
+    // Vrai si l'image est de type TYPE_INT_ARGB et que ses pixels occupent
+    // tout son tableau, ligne après ligne (ce n'est pas une sous-image).
+    private static boolean isPackedARGB(BufferedImage image) {
+        if (image.getType() != BufferedImage.TYPE_INT_ARGB)
+            return false;
+        WritableRaster raster = image.getRaster();
+        SampleModel model = raster.getSampleModel();
+        return model instanceof SinglePixelPackedSampleModel
+                && ((SinglePixelPackedSampleModel) model).getScanlineStride() == image
+                        .getWidth()
+                && raster.getSampleModelTranslateX() == 0
+                && raster.getSampleModelTranslateY() == 0
+                && raster.getDataBuffer().getOffset() == 0
+                && raster.getDataBuffer().getSize() == image.getWidth()
+                        * image.getHeight();
+    }
+
+    private static BufferedImage copy(BufferedImage image) {
+        BufferedImage copy = new BufferedImage(image.getWidth(),
+                image.getHeight(), BufferedImage.TYPE_INT_ARGB);
         Graphics g = copy.getGraphics();
-        g.drawImage(m_image, 0, 0, null);
+        g.drawImage(image, 0, 0, null);
         g.dispose();
         return copy;
     }
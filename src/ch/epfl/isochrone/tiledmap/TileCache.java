@@ -1,38 +1,82 @@
 /**
- * Classe représentant un cache de Tile.
- * 
+ * Classe représentant un cache de Tile, utilisable par plusieurs threads à la
+ * fois. Sa taille est limitée par la mémoire occupée par les images des
+ * tuiles, les moins récemment utilisées étant retirées en premier.
+ *
+ * Le cache est partagé en SHARDS parties indépendantes, chacune protégée par
+ * son propre verrou et disposant d'une part égale de la mémoire : deux threads
+ * n'attendent l'un l'autre que s'ils accèdent à la même partie. L'ordre
+ * d'utilisation est tenu dans chaque partie, si bien qu'une tuile retirée est
+ * la moins récemment utilisée de sa partie.
+ *
  * @author Justinien Bouron (236608)
  * @author Nicolas Roussel (238333)
  */
 
 package ch.epfl.isochrone.tiledmap;
 
-import java.util.LinkedHashMap;
-import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static ch.epfl.isochrone.geo.PointOSM.maxXY;
 
 public final class TileCache {
 
-    private final static int MAX_SIZE = 100;
+    /**
+     * Mémoire occupée par défaut : celle de 100 tuiles de 256 × 256 pixels.
+     */
+    public static final long DEFAULT_MAX_BYTES = 100L * 256 * 256 * 4;
 
-    @SuppressWarnings("serial")
-    private LinkedHashMap<Long, Tile> m_cache = new LinkedHashMap<Long, Tile>() {
-        @Override
-        protected boolean removeEldestEntry(Map.Entry<Long, Tile> e) {
-            return size() > MAX_SIZE;
-        }
-    };
+    /**
+     * Plus grand niveau de zoom d'une tuile du cache : les coordonnées des
+     * tuiles doivent pouvoir être encodées dans la clé (voir key).
+     */
+    public static final int MAX_ZOOM = 20;
+
+    private static final int SHARDS = 16;
+
+    private final long m_maxBytes;
+    private final Shard[] m_shards;
+
+    private final AtomicLong m_hits;
+    private final AtomicLong m_misses;
+    private final AtomicLong m_evictions;
 
     /**
-     * Constructeur de la classe TileCache.
+     * Constructeur de la classe TileCache, dont la mémoire est limitée à
+     * DEFAULT_MAX_BYTES.
      */
     public TileCache() {
+        this(DEFAULT_MAX_BYTES);
     }
 
     /**
-     * Permet d'ajouter une Tuile au cache de tuile.
-     * 
+     * Construit un cache vide pouvant contenir des tuiles occupant au total le
+     * nombre d'octets donné.
+     *
+     * @param maxBytes
+     *            La mémoire maximale occupée par les images des tuiles.
+     * @throws IllegalArgumentException
+     *             Si la taille maximale est négative.
+     */
+    public TileCache(long maxBytes) {
+        if (maxBytes < 0) {
+            throw new IllegalArgumentException(
+                    "Error : Taille maximale du cache négative !");
+        }
+        m_maxBytes = maxBytes;
+        m_shards = new Shard[SHARDS];
+        for (int i = 0; i < SHARDS; i++)
+            m_shards[i] = new Shard(maxBytes / SHARDS);
+        m_hits = new AtomicLong();
+        m_misses = new AtomicLong();
+        m_evictions = new AtomicLong();
+    }
+
+    /**
+     * Permet d'ajouter une Tuile au cache de tuile, en remplaçant une
+     * éventuelle tuile de mêmes coordonnées. Une tuile plus grande que la
+     * part de mémoire d'une partie du cache n'y est pas gardée.
+     *
      * @param zoom
      *            Le zoom de la tuile.
      * @param x
@@ -42,19 +86,20 @@ public final class TileCache {
      * @param tile
      *            La Tuile elle-même.
      * @throws IllegalArgumentException
-     *             Lève l'exception si le zoom est négatif ou si les coordonnées
-     *             x ou y sont hors de leur intervalle possible pour le zoom
-     *             donné.
+     *             Lève l'exception si le zoom est négatif ou supérieur à
+     *             MAX_ZOOM, ou si les coordonnées x ou y sont hors de leur
+     *             intervalle possible pour le zoom donné.
      */
     public void put(int zoom, int x, int y, Tile tile) {
-        long pack = getPackedTriplet(zoom, x, y);
-        m_cache.put(pack, tile);
+        long key = key(zoom, x, y);
+        m_evictions.addAndGet(shard(key).put(key, tile,
+                4L * tile.width() * tile.height()));
     }
 
     /**
      * Permet de récupérer la tuile du cache correspondant aux coordonées et au
      * niveau de zoom donnés.
-     * 
+     *
      * @param zoom
      *            Le niveau de zoom de la tuile.
      * @param x
@@ -62,24 +107,122 @@ public final class TileCache {
      * @param y
      *            La coordonée Y de la tuile.
      * @throws IllegalArgumentException
-     *             Lève l'exception si le zoom est négatif ou si les coordonnées
-     *             x ou y sont hors de leur intervalle possible pour le zoom
-     *             donné.
+     *             Lève l'exception si le zoom est négatif ou supérieur à
+     *             MAX_ZOOM, ou si les coordonnées x ou y sont hors de leur
+     *             intervalle possible pour le zoom donné.
      * @return La tuile ci celle-ci est contenue dans le cache de tuile, NULL
      *         sinon.
      */
     public Tile get(int zoom, int x, int y) {
-        long pack = getPackedTriplet(zoom, x, y);
-        if (m_cache.containsKey(pack)) {
-            return m_cache.get(pack);
-        } else
-            return null;
+        long key = key(zoom, x, y);
+        Tile tile = shard(key).get(key);
+        if (tile != null)
+            m_hits.incrementAndGet();
+        else
+            m_misses.incrementAndGet();
+        return tile;
+    }
+
+    /**
+     * Vide le cache. Les statistiques ne sont pas remises à zéro.
+     */
+    public void clear() {
+        for (Shard i : m_shards)
+            i.clear();
+    }
+
+    /**
+     * Retourne le nombre de tuiles du cache.
+     *
+     * @return Le nombre de tuiles.
+     */
+    public int size() {
+        int size = 0;
+        for (Shard i : m_shards)
+            size += i.size();
+        return size;
     }
 
-    private static long getPackedTriplet(int zoom, int x, int y) {
+    /**
+     * Retourne la mémoire occupée par les images des tuiles du cache.
+     *
+     * @return Le nombre d'octets occupés.
+     */
+    public long bytes() {
+        long bytes = 0;
+        for (Shard i : m_shards)
+            bytes += i.bytes();
+        return bytes;
+    }
+
+    /**
+     * Retourne la mémoire maximale occupée par les images des tuiles.
+     *
+     * @return Le nombre maximal d'octets.
+     */
+    public long maxBytes() {
+        return m_maxBytes;
+    }
+
+    /**
+     * Retourne le nombre de tuiles trouvées dans le cache par get.
+     *
+     * @return Le nombre de succès.
+     */
+    public long hits() {
+        return m_hits.get();
+    }
+
+    /**
+     * Retourne le nombre de tuiles demandées à get absentes du cache.
+     *
+     * @return Le nombre d'échecs.
+     */
+    public long misses() {
+        return m_misses.get();
+    }
+
+    /**
+     * Retourne la proportion des appels à get ayant trouvé leur tuile.
+     *
+     * @return Le taux de succès, entre 0 et 1, ou 0 si get n'a pas été
+     *         appelée.
+     */
+    public double hitRate() {
+        long hits = hits();
+        long total = hits + misses();
+        return total == 0 ? 0.0 : (double) hits / total;
+    }
+
+    /**
+     * Retourne le nombre de tuiles retirées du cache pour libérer de la
+     * mémoire.
+     *
+     * @return Le nombre de retraits.
+     */
+    public long evictions() {
+        return m_evictions.get();
+    }
+
+    private Shard shard(long key) {
+        // Multiplication de Fibonacci : les bits de poids fort du produit
+        // dépendent de tous ceux de la clé.
+        return m_shards[(int) ((key * 0x9E3779B97F4A7C15L) >>> 60)];
+    }
+
+    /**
+     * Encode le niveau de zoom et les coordonnées d'une tuile dans une clé
+     * unique : le zoom occupe les 6 bits de poids fort, puis x et y 29 bits
+     * chacun, ce qui suffit jusqu'au niveau MAX_ZOOM.
+     */
+    private static long key(int zoom, int x, int y) {
         if (zoom < 0)
             throw new IllegalArgumentException(
                     " Error : Zoom invalide car négatif !");
+        if (zoom > MAX_ZOOM)
+            throw new IllegalArgumentException(
+                    "Error : Zoom invalide, doit être au plus " + MAX_ZOOM
+                            + " !");
         int maxXY = maxXY(zoom);
 
         if (!(0 <= x && x <= maxXY))
@@ -91,7 +234,155 @@ public final class TileCache {
             throw new IllegalArgumentException(
                     "Error : Coordonée Y, invalide, doit être dans l'intervalle [0;"
                             + maxXY + "]!");
-        
-        return (long) (x * Math.pow(10, 9) + y * 100 + zoom);
+
+        return (long) zoom << 58 | (long) x << 29 | y;
+    }
+
+    /**
+     * Partie du cache : une table de hachage dont les entrées forment aussi
+     * une liste doublement chaînée, de la plus récemment utilisée à la moins
+     * récemment utilisée. Toujours accédée en tenant le verrou de la partie.
+     */
+    private static final class Shard {
+
+        private final long m_maxBytes;
+        private Entry[] m_buckets;
+        private int m_size;
+        private long m_bytes;
+        // Sentinelle de la liste : m_head.m_after est la plus récemment
+        // utilisée, m_head.m_before la moins récemment utilisée.
+        private final Entry m_head;
+
+        Shard(long maxBytes) {
+            m_maxBytes = maxBytes;
+            m_buckets = new Entry[16];
+            m_head = new Entry(0, null, 0);
+            m_head.m_before = m_head;
+            m_head.m_after = m_head;
+        }
+
+        synchronized Tile get(long key) {
+            Entry entry = find(key);
+            if (entry == null)
+                return null;
+            unlink(entry);
+            linkFirst(entry);
+            return entry.m_tile;
+        }
+
+        /**
+         * Ajoute la tuile et retourne le nombre de tuiles retirées pour lui
+         * faire de la place.
+         */
+        synchronized int put(long key, Tile tile, long bytes) {
+            remove(key);
+            if (bytes > m_maxBytes)
+                return 0;
+
+            int evictions = 0;
+            while (m_bytes + bytes > m_maxBytes) {
+                remove(m_head.m_before.m_key);
+                evictions++;
+            }
+
+            Entry entry = new Entry(key, tile, bytes);
+            int bucket = bucket(key, m_buckets.length);
+            entry.m_next = m_buckets[bucket];
+            m_buckets[bucket] = entry;
+            linkFirst(entry);
+            m_size++;
+            m_bytes += bytes;
+            if (m_size > m_buckets.length - m_buckets.length / 4)
+                grow();
+            return evictions;
+        }
+
+        synchronized void clear() {
+            m_buckets = new Entry[16];
+            m_head.m_before = m_head;
+            m_head.m_after = m_head;
+            m_size = 0;
+            m_bytes = 0;
+        }
+
+        synchronized int size() {
+            return m_size;
+        }
+
+        synchronized long bytes() {
+            return m_bytes;
+        }
+
+        private Entry find(long key) {
+            Entry entry = m_buckets[bucket(key, m_buckets.length)];
+            while (entry != null && entry.m_key != key)
+                entry = entry.m_next;
+            return entry;
+        }
+
+        private void remove(long key) {
+            int bucket = bucket(key, m_buckets.length);
+            Entry previous = null;
+            for (Entry i = m_buckets[bucket]; i != null; i = i.m_next) {
+                if (i.m_key == key) {
+                    if (previous == null)
+                        m_buckets[bucket] = i.m_next;
+                    else
+                        previous.m_next = i.m_next;
+                    unlink(i);
+                    m_size--;
+                    m_bytes -= i.m_bytes;
+                    return;
+                }
+                previous = i;
+            }
+        }
+
+        private void grow() {
+            Entry[] buckets = new Entry[2 * m_buckets.length];
+            for (Entry i : m_buckets) {
+                while (i != null) {
+                    Entry next = i.m_next;
+                    int bucket = bucket(i.m_key, buckets.length);
+                    i.m_next = buckets[bucket];
+                    buckets[bucket] = i;
+                    i = next;
+                }
+            }
+            m_buckets = buckets;
+        }
+
+        private void linkFirst(Entry entry) {
+            entry.m_before = m_head;
+            entry.m_after = m_head.m_after;
+            m_head.m_after.m_before = entry;
+            m_head.m_after = entry;
+        }
+
+        private static void unlink(Entry entry) {
+            entry.m_before.m_after = entry.m_after;
+            entry.m_after.m_before = entry.m_before;
+        }
+
+        private static int bucket(long key, int length) {
+            long hash = key * 0x9E3779B97F4A7C15L;
+            return (int) (hash ^ (hash >>> 32)) & (length - 1);
+        }
+    }
+
+    private static final class Entry {
+
+        private final long m_key;
+        private final Tile m_tile;
+        private final long m_bytes;
+        private Entry m_next;
+        private Entry m_before;
+        private Entry m_after;
+
+        Entry(long key, Tile tile, long bytes) {
+            m_key = key;
+            m_tile = tile;
+            m_bytes = bytes;
+        }
     }
 }
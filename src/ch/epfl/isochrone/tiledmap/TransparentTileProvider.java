@@ -10,6 +10,8 @@ package ch.epfl.isochrone.tiledmap;
 public final class TransparentTileProvider extends FilteringTileProvider {
 
     private final double m_opacity;
+    // Canal alpha de l'opacité, déjà décalé à sa place.
+    private final int m_alpha;
 
     /**
      * Constructeur de la classe TransparentTileProvider.
@@ -27,6 +29,7 @@ public final class TransparentTileProvider extends FilteringTileProvider {
         if (!(0. <= opacity && opacity <= 1.))
             throw new IllegalArgumentException("Erreur : opacité invalide !");
         m_opacity = opacity;
+        m_alpha = (int) Math.round(m_opacity * 255) << 24;
     }
 
     /**
@@ -41,6 +44,24 @@ public final class TransparentTileProvider extends FilteringTileProvider {
      */
     @Override
     public int transformARGB(int argb) {
-        return ((argb << 8) >>> 8) | ((int) Math.round(m_opacity * 255) << 24);
+        return (argb & 0x00FFFFFF) | m_alpha;
+    }
+
+    /**
+     * Redéfinition de la méthode transformARGB(int[], int[]) de la classe
+     * FilteringTileProvider, qui remplace le canal alpha de chaque couleur
+     * par l'opacité donnée dans le constructeur de cette instance.
+     * 
+     * @param src
+     *            Les couleurs à transformer.
+     * @param dst
+     *            Le tableau recevant les couleurs transformées.
+     */
+    @Override
+    public void transformARGB(int[] src, int[] dst) {
+        int alpha = m_alpha;
+        for (int i = 0; i < src.length; i++) {
+            dst[i] = (src[i] & 0x00FFFFFF) | alpha;
+        }
     }
 }
@@ -0,0 +1,426 @@
+/**
+ * Classe calculant les chemins les plus courts d'un graphe par l'algorithme
+ * de balayage des connexions (Connection Scan Algorithm).
+ */
+
+package ch.epfl.isochrone.timetable;
+
+import java.util.Arrays;
+import java.util.Set;
+
+public final class ConnectionScan {
+
+    private final Graph m_graph;
+
+    // Connexions élémentaires (trajets en TL d'un arrêt à l'arrêt suivant)
+    // et identifiant de leur service, triées par heure de départ puis par
+    // heure d'arrivée.
+    private final int[] m_departureStops;
+    private final int[] m_arrivalStops;
+    private final int[] m_departureTimes;
+    private final int[] m_arrivalTimes;
+    private final int[] m_services;
+    // Services actifs (voir GraphEdge.isActive), ou null s'ils le sont tous.
+    private final long[] m_activeServices;
+
+    /**
+     * Construit le tableau des connexions du graphe passé en argument, qui
+     * sont les trajets lus dans stop_times.csv par
+     * TimeTableReader.readGraphForServices. Si le graphe est restreint à
+     * certains services (voir Graph.forServices), il ne contient que les
+     * trajets de ceux-ci.
+     *
+     * @param graph
+     *            Le graphe de l'horaire.
+     */
+    public ConnectionScan(Graph graph) {
+        m_graph = graph;
+
+        int count = graph.tripCount();
+        long[] order = new long[count];
+        int[] departureStops = new int[count];
+        int[] arrivalStops = new int[count];
+        int[] services = new int[count];
+        int c = 0;
+        for (int stop = 0; stop < graph.stopIndex().size(); stop++) {
+            for (int e = graph.edgesBegin(stop); e < graph.edgesEnd(stop); e++) {
+                for (int t = graph.edgeTripsBegin(e); t < graph.edgeTripsEnd(e); t++) {
+                    int packedTrip = graph.packedTrip(e, t);
+                    // Clé de tri : heure de départ (17 bits), heure d'arrivée
+                    // (17 bits) puis indice de la connexion (29 bits).
+                    order[c] = ((long) GraphEdge.unpackTripDepartureTime(packedTrip) << 46)
+                            | ((long) GraphEdge.unpackTripArrivalTime(packedTrip) << 29)
+                            | c;
+                    departureStops[c] = stop;
+                    arrivalStops[c] = graph.edgeDestination(e);
+                    services[c] = graph.tripService(e, t);
+                    c++;
+                }
+            }
+        }
+        Arrays.sort(order);
+
+        m_departureStops = new int[count];
+        m_arrivalStops = new int[count];
+        m_departureTimes = new int[count];
+        m_arrivalTimes = new int[count];
+        m_services = new int[count];
+        for (int i = 0; i < count; i++) {
+            int connection = (int) (order[i] & ((1 << 29) - 1));
+            m_departureStops[i] = departureStops[connection];
+            m_arrivalStops[i] = arrivalStops[connection];
+            m_services[i] = services[connection];
+            m_departureTimes[i] = (int) (order[i] >>> 46);
+            m_arrivalTimes[i] = (int) ((order[i] >>> 29) & ((1 << 17) - 1));
+        }
+        m_activeServices = null;
+    }
+
+    private ConnectionScan(ConnectionScan that, long[] activeServices) {
+        m_graph = that.m_graph;
+        m_departureStops = that.m_departureStops;
+        m_arrivalStops = that.m_arrivalStops;
+        m_departureTimes = that.m_departureTimes;
+        m_arrivalTimes = that.m_arrivalTimes;
+        m_services = that.m_services;
+        m_activeServices = activeServices;
+    }
+
+    /**
+     * Retourne une vue de ce tableau de connexions dans laquelle seules les
+     * connexions des services donnés sont empruntées. Contrairement à
+     * Graph.forServices, les connexions ne sont ni copiées ni triées à
+     * nouveau : seul l'ensemble des services actifs est calculé.
+     *
+     * @param services
+     *            Les services actifs.
+     * @return Le tableau des connexions restreint aux services donnés.
+     */
+    public ConnectionScan forServices(Set<Service> services) {
+        return new ConnectionScan(this, m_graph.activeServices(services));
+    }
+
+    /**
+     * Retourne le nombre de connexions.
+     *
+     * @return Le nombre de connexions élémentaires.
+     */
+    public int connectionCount() {
+        return m_departureTimes.length;
+    }
+
+    /**
+     * Méthode retournant l'arbre des chemins les plus courts pour un arrêt et
+     * une heure de départ donnés, identique à celui de Graph.fastestPaths. Les
+     * connexions sont parcourues dans l'ordre, à partir de la première qui
+     * part à l'heure de départ ou après (trouvée par recherche dichotomique).
+     *
+     * @param startingStop
+     *            L'arrêt de départ.
+     * @param departureTime
+     *            L'heure de départ.
+     * @return Instance de la classe FastestPathTree représentant l'arborescence
+     *         des chemins les plus courts.
+     * @throws IllegalArgumentException
+     *             Si l'heure de départ est négative ou si le graphe ne
+     *             continent pas l'arrêt de départ.
+     */
+    public FastestPathTree fastestPaths(Stop startingStop, int departureTime) {
+        return fastestPaths(startingStop, departureTime,
+                SecondsPastMidnight.INFINITE);
+    }
+
+    /**
+     * Méthode retournant l'arbre des chemins les plus courts pour un arrêt et
+     * une heure de départ donnés, limité aux trajets ne durant pas plus que la
+     * durée donnée (voir Graph.fastestPaths). Le balayage s'arrête à la
+     * première connexion partant après l'heure limite.
+     *
+     * @param startingStop
+     *            L'arrêt de départ.
+     * @param departureTime
+     *            L'heure de départ.
+     * @param maxDuration
+     *            La durée maximale des trajets, ou SecondsPastMidnight.INFINITE
+     *            pour ne pas limiter la recherche.
+     * @return Instance de la classe FastestPathTree représentant l'arborescence
+     *         des chemins les plus courts.
+     * @throws IllegalArgumentException
+     *             Si l'heure de départ ou la durée maximale est négative, ou si
+     *             le graphe ne continent pas l'arrêt de départ.
+     */
+    public FastestPathTree fastestPaths(Stop startingStop, int departureTime,
+            int maxDuration) {
+        if (maxDuration < 0) {
+            throw new IllegalArgumentException(
+                    "Error : Durée maximale négative !");
+        }
+        if (departureTime < 0) {
+            throw new IllegalArgumentException(
+                    "Error : Heure de départ négative !");
+        }
+        StopIndex stopIndex = m_graph.stopIndex();
+        int start = stopIndex.id(startingStop);
+        if (start == -1) {
+            throw new IllegalArgumentException(
+                    "Error : Le graphe ne contient pas l'arrêt de départ !");
+        }
+
+        SearchWorkspace workspace = SearchWorkspace.acquire(stopIndex.size());
+        try {
+            StopSet improved = workspace.marked();
+            workspace.setArrivalTime(start, departureTime, -1);
+            improved.add(start);
+            m_graph.walkFrom(workspace, improved);
+
+            int latestArrivalTime = Graph.latestArrivalTime(departureTime,
+                    maxDuration);
+            scan(workspace, improved, null, firstConnection(departureTime),
+                    latestArrivalTime);
+
+            return workspace.toTree(stopIndex, start, latestArrivalTime);
+        } finally {
+            workspace.release();
+        }
+    }
+
+    /**
+     * Calcule le profil des chemins les plus courts depuis un arrêt pour
+     * toutes les heures de départ de la plage donnée.
+     *
+     * Seules les heures de départ auxquelles l'heure d'arrivée au plus tôt
+     * d'un arrêt peut changer sont considérées : la fin de la plage, et
+     * chaque départ d'une connexion diminué du temps de marche depuis l'arrêt
+     * de départ jusqu'à celle-ci. Elles sont traitées de la plus tardive à la
+     * plus matinale, en conservant les heures d'arrivée d'un balayage à
+     * l'autre : un chemin partant plus tard reste valable en partant plus
+     * tôt, et seuls les arrêts améliorés ajoutent une entrée à leur profil.
+     *
+     * @param startingStop
+     *            L'arrêt de départ.
+     * @param windowStart
+     *            La première heure de départ de la plage.
+     * @param windowEnd
+     *            La dernière heure de départ de la plage.
+     * @return Le profil des chemins les plus courts.
+     * @throws IllegalArgumentException
+     *             Si la plage est vide ou commence à une heure négative, ou si
+     *             le graphe ne contient pas l'arrêt de départ.
+     */
+    public FastestPathProfile profile(Stop startingStop, int windowStart,
+            int windowEnd) {
+        return profile(startingStop, windowStart, windowEnd,
+                SecondsPastMidnight.INFINITE);
+    }
+
+    /**
+     * Calcule le profil des chemins les plus courts depuis un arrêt pour
+     * toutes les heures de départ de la plage donnée, limité aux trajets ne
+     * durant pas plus que la durée donnée : pour chaque heure de départ, le
+     * balayage s'arrête à la première connexion partant après l'heure limite,
+     * et les arbres obtenus du profil ne contiennent que les arrêts atteints
+     * avant celle-ci.
+     *
+     * @param startingStop
+     *            L'arrêt de départ.
+     * @param windowStart
+     *            La première heure de départ de la plage.
+     * @param windowEnd
+     *            La dernière heure de départ de la plage.
+     * @param maxDuration
+     *            La durée maximale des trajets, ou SecondsPastMidnight.INFINITE
+     *            pour ne pas limiter la recherche.
+     * @return Le profil des chemins les plus courts.
+     * @throws IllegalArgumentException
+     *             Si la plage est vide ou commence à une heure négative, si la
+     *             durée maximale est négative ou si le graphe ne contient pas
+     *             l'arrêt de départ.
+     */
+    public FastestPathProfile profile(Stop startingStop, int windowStart,
+            int windowEnd, int maxDuration) {
+        if (maxDuration < 0) {
+            throw new IllegalArgumentException(
+                    "Error : Durée maximale négative !");
+        }
+        if (windowStart < 0 || windowEnd < windowStart) {
+            throw new IllegalArgumentException(
+                    "Error : Plage d'heures de départ invalide !");
+        }
+        StopIndex stopIndex = m_graph.stopIndex();
+        int start = stopIndex.id(startingStop);
+        if (start == -1) {
+            throw new IllegalArgumentException(
+                    "Error : Le graphe ne contient pas l'arrêt de départ !");
+        }
+        int stopCount = stopIndex.size();
+
+        // Temps de marche depuis l'arrêt de départ, sans TL.
+        int[] walkingTimes = new int[stopCount];
+        int[] walkingPredecessors = new int[stopCount];
+        SearchWorkspace workspace = SearchWorkspace.acquire(stopCount);
+        try {
+            workspace.setArrivalTime(start, 0, -1);
+            workspace.marked().add(start);
+            m_graph.walkFrom(workspace, workspace.marked());
+            for (int i = 0; i < stopCount; i++) {
+                walkingTimes[i] = workspace.arrivalTime(i);
+                walkingPredecessors[i] = workspace.predecessor(i);
+            }
+        } finally {
+            workspace.release();
+        }
+
+        // Heures de départ candidates, de la plus tardive à la plus matinale.
+        int[] candidates = new int[m_departureTimes.length + 1];
+        int candidateCount = 0;
+        candidates[candidateCount++] = windowEnd;
+        for (int i = firstConnection(windowStart); i < m_departureTimes.length; i++) {
+            int walkingTime = walkingTimes[m_departureStops[i]];
+            if (walkingTime != SecondsPastMidnight.INFINITE
+                    && GraphEdge.isActive(m_activeServices, m_services[i])) {
+                int departureTime = m_departureTimes[i] - walkingTime;
+                if (windowStart <= departureTime && departureTime < windowEnd) {
+                    candidates[candidateCount++] = departureTime;
+                }
+            }
+        }
+        Arrays.sort(candidates, 0, candidateCount);
+
+        int entryCount = 0;
+        int[] entryStops = new int[16];
+        int[] entryDepartures = new int[16];
+        int[] entryArrivals = new int[16];
+        int[] entryPredecessors = new int[16];
+
+        workspace = SearchWorkspace.acquire(stopCount);
+        try {
+            StopSet improved = workspace.marked();
+            StopSet recorded = workspace.nextMarked();
+            for (int c = candidateCount - 1; c >= 0; c--) {
+                int departureTime = candidates[c];
+                if (c < candidateCount - 1 && candidates[c + 1] == departureTime)
+                    continue;
+
+                // Les trajets à pied depuis l'arrêt de départ ne sont pas
+                // enregistrés : ils sont couverts par walkingTimes.
+                workspace.setArrivalTime(start, departureTime, -1);
+                improved.clear();
+                improved.add(start);
+                m_graph.walkFrom(workspace, improved);
+
+                recorded.clear();
+                int latestArrivalTime = Graph.latestArrivalTime(departureTime,
+                        maxDuration);
+                scan(workspace, improved, recorded,
+                        firstConnection(departureTime), latestArrivalTime);
+
+                for (int j = 0; j < recorded.size(); j++) {
+                    if (entryCount == entryStops.length) {
+                        entryStops = Arrays.copyOf(entryStops, 2 * entryCount);
+                        entryDepartures = Arrays.copyOf(entryDepartures,
+                                2 * entryCount);
+                        entryArrivals = Arrays.copyOf(entryArrivals,
+                                2 * entryCount);
+                        entryPredecessors = Arrays.copyOf(entryPredecessors,
+                                2 * entryCount);
+                    }
+                    int stop = recorded.get(j);
+                    entryStops[entryCount] = stop;
+                    entryDepartures[entryCount] = departureTime;
+                    entryArrivals[entryCount] = workspace.arrivalTime(stop);
+                    entryPredecessors[entryCount] = workspace.predecessor(stop);
+                    entryCount++;
+                }
+            }
+        } finally {
+            workspace.release();
+        }
+
+        // Regroupement des entrées par arrêt, en conservant l'ordre des
+        // heures de départ décroissantes.
+        int[] offsets = new int[stopCount + 1];
+        for (int i = 0; i < entryCount; i++) {
+            offsets[entryStops[i] + 1]++;
+        }
+        for (int i = 0; i < stopCount; i++) {
+            offsets[i + 1] += offsets[i];
+        }
+        int[] next = Arrays.copyOf(offsets, stopCount);
+        int[] departureTimes = new int[entryCount];
+        int[] arrivalTimes = new int[entryCount];
+        int[] predecessors = new int[entryCount];
+        for (int i = 0; i < entryCount; i++) {
+            int position = next[entryStops[i]]++;
+            departureTimes[position] = entryDepartures[i];
+            arrivalTimes[position] = entryArrivals[i];
+            predecessors[position] = entryPredecessors[i];
+        }
+
+        return new FastestPathProfile(stopIndex, start, windowStart,
+                windowEnd, maxDuration, walkingTimes, walkingPredecessors, offsets,
+                departureTimes, arrivalTimes, predecessors);
+    }
+
+    /**
+     * Balaye les connexions à partir de la connexion first jusqu'à la
+     * dernière partant à l'heure limite, en améliorant les heures d'arrivée
+     * de workspace. Les arrêts améliorés sont ajoutés à recorded s'il n'est
+     * pas null.
+     *
+     * Une connexion de durée nulle atteint un arrêt à l'heure même où
+     * partent les connexions de son groupe (celles de même heure de départ),
+     * dont certaines ont pu être balayées avant elle : le groupe est alors
+     * balayé à nouveau, jusqu'à ce qu'aucune connexion de durée nulle
+     * n'améliore plus d'arrêt.
+     */
+    private void scan(SearchWorkspace workspace, StopSet improved,
+            StopSet recorded, int first, int latestArrivalTime) {
+        int i = first;
+        while (i < m_departureTimes.length
+                && m_departureTimes[i] <= latestArrivalTime) {
+            int groupStart = i;
+            int groupTime = m_departureTimes[i];
+            boolean rescan;
+            do {
+                rescan = false;
+                for (i = groupStart; i < m_departureTimes.length
+                        && m_departureTimes[i] == groupTime; i++) {
+                    int destination = m_arrivalStops[i];
+                    if (workspace.arrivalTime(m_departureStops[i]) <= groupTime
+                            && m_arrivalTimes[i] < workspace.arrivalTime(destination)
+                            && GraphEdge.isActive(m_activeServices, m_services[i])) {
+                        workspace.setArrivalTime(destination,
+                                m_arrivalTimes[i], m_departureStops[i]);
+                        improved.clear();
+                        improved.add(destination);
+                        m_graph.walkFrom(workspace, improved);
+                        if (recorded != null) {
+                            for (int j = 0; j < improved.size(); j++) {
+                                recorded.add(improved.get(j));
+                            }
+                        }
+                        if (m_arrivalTimes[i] == groupTime)
+                            rescan = true;
+                    }
+                }
+            } while (rescan);
+        }
+    }
+
+    /**
+     * Retourne l'indice de la première connexion partant à l'heure donnée ou
+     * après.
+     */
+    private int firstConnection(int departureTime) {
+        int low = 0;
+        int high = m_departureTimes.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (m_departureTimes[middle] < departureTime)
+                low = middle + 1;
+            else
+                high = middle;
+        }
+        return low;
+    }
+}
@@ -0,0 +1,458 @@
+/**
+ * Classe permettant la lecture d'un fichier CSV ligne par ligne et champ par
+ * champ, directement depuis un tampon d'octets réutilisé : les entiers, les
+ * nombres décimaux, les dates et les heures sont décodés sans créer de
+ * String, et les noms peuvent être cherchés dans une table de noms (voir
+ * NameTable) sans être copiés.
+ *
+ * Un champ peut être entouré de guillemets, auquel cas il peut contenir le
+ * séparateur, et un guillemet y est doublé. Un champ entre guillemets ne peut
+ * toutefois pas contenir de fin de ligne. Une marque d'ordre des octets UTF-8
+ * au début du flot est ignorée.
+ */
+
+package ch.epfl.isochrone.timetable;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+final class CsvTokenizer {
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    // Puissances de dix représentables exactement par un double.
+    private static final double[] POWERS_OF_TEN = new double[23];
+    static {
+        POWERS_OF_TEN[0] = 1.0;
+        for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10.0;
+        }
+    }
+
+    // Source des octets : un flot, ou un tampon (par exemple une partie d'un
+    // fichier projeté en mémoire) si m_in est nul.
+    private final InputStream m_in;
+    private final ByteBuffer m_source;
+    private final byte m_separator;
+    private byte[] m_buffer;
+    // Les octets lus occupent [0; m_limit[ du tampon.
+    private int m_limit;
+    private boolean m_endOfStream;
+    private boolean m_started;
+
+    // Ligne courante [m_lineStart; m_lineEnd[ (sans fin de ligne), position
+    // du prochain champ et début de la ligne suivante.
+    private int m_lineStart;
+    private int m_lineEnd;
+    private int m_position;
+    private int m_nextLine;
+
+    // Contenu [m_fieldStart; m_fieldEnd[ du dernier champ délimité, sans ses
+    // guillemets, et vrai s'il contient des guillemets doublés.
+    private int m_fieldStart;
+    private int m_fieldEnd;
+    private boolean m_fieldEscaped;
+
+    // Débuts des champs de la ligne courante, calculés à la demande par
+    // seekField ; m_fieldCount vaut -1 tant qu'ils ne l'ont pas été.
+    private int[] m_fieldStarts;
+    private int m_fieldCount;
+
+    /**
+     * Construit un lecteur du flot donné, dont les champs sont séparés par le
+     * caractère donné.
+     *
+     * @param in
+     *            Le flot à lire, encodé en UTF-8.
+     * @param separator
+     *            Le séparateur des champs, un caractère ASCII.
+     */
+    CsvTokenizer(InputStream in, char separator) {
+        this(in, null, separator);
+    }
+
+    /**
+     * Construit un lecteur des octets restants du tampon donné, dont les
+     * champs sont séparés par le caractère donné. La position du tampon
+     * avance au fil de la lecture.
+     *
+     * @param source
+     *            Le tampon à lire, encodé en UTF-8.
+     * @param separator
+     *            Le séparateur des champs, un caractère ASCII.
+     */
+    CsvTokenizer(ByteBuffer source, char separator) {
+        this(null, source, separator);
+    }
+
+    private CsvTokenizer(InputStream in, ByteBuffer source, char separator) {
+        m_in = in;
+        m_source = source;
+        m_separator = (byte) separator;
+        m_buffer = new byte[BUFFER_SIZE];
+        m_limit = 0;
+        m_endOfStream = false;
+        m_started = false;
+        m_lineStart = 0;
+        m_lineEnd = 0;
+        m_position = 0;
+        m_nextLine = 0;
+        m_fieldStarts = new int[16];
+        m_fieldCount = -1;
+    }
+
+    /**
+     * Passe à la ligne suivante, en ignorant les champs non lus de la ligne
+     * courante. Les lignes vides sont ignorées.
+     *
+     * @return Vrai s'il y a une ligne suivante, faux à la fin du flot.
+     * @throws IOException
+     *             Si la lecture du flot échoue.
+     */
+    boolean nextLine() throws IOException {
+        if (!m_started) {
+            m_started = true;
+            while (m_limit < 3 && !m_endOfStream)
+                fill(0);
+            if (m_limit >= 3 && m_buffer[0] == (byte) 0xEF
+                    && m_buffer[1] == (byte) 0xBB && m_buffer[2] == (byte) 0xBF)
+                m_nextLine = 3;
+        }
+
+        while (true) {
+            int start = m_nextLine;
+            int end = indexOfNewLine(start);
+            while (end == -1 && !m_endOfStream) {
+                // La ligne n'est pas entière dans le tampon : on déplace son
+                // début au début du tampon et on lit la suite.
+                int scanned = m_limit - start;
+                fill(start);
+                start = 0;
+                end = indexOfNewLine(scanned);
+            }
+            if (end == -1) {
+                if (start == m_limit)
+                    return false;
+                end = m_limit;
+            }
+
+            m_lineStart = start;
+            m_nextLine = end < m_limit ? end + 1 : end;
+            m_lineEnd = end;
+            if (m_lineEnd > m_lineStart && m_buffer[m_lineEnd - 1] == '\r')
+                m_lineEnd--;
+            m_position = m_lineStart;
+            m_fieldCount = -1;
+            if (m_lineEnd > m_lineStart)
+                return true;
+        }
+    }
+
+    /**
+     * Retourne vrai s'il reste au moins un champ à lire dans la ligne
+     * courante.
+     *
+     * @return Vrai s'il reste un champ, faux sinon.
+     */
+    boolean hasField() {
+        return m_position <= m_lineEnd;
+    }
+
+    /**
+     * Retourne vrai si le prochain champ de la ligne courante est vide ou
+     * absent, sans le lire.
+     *
+     * @return Vrai si le prochain champ est vide.
+     */
+    boolean isFieldEmpty() {
+        int position = m_position;
+        nextField();
+        m_position = position;
+        return trimmedStart() == trimmedEnd();
+    }
+
+    /**
+     * Place la lecture au début du champ d'indice donné de la ligne courante
+     * (le premier ayant l'indice 0). Si la ligne a moins de champs, les
+     * champs lus ensuite sont vides.
+     *
+     * @param index
+     *            L'indice du champ.
+     */
+    void seekField(int index) {
+        if (m_fieldCount == -1) {
+            m_position = m_lineStart;
+            m_fieldCount = 0;
+            while (hasField()) {
+                if (m_fieldCount == m_fieldStarts.length)
+                    m_fieldStarts = Arrays.copyOf(m_fieldStarts,
+                            2 * m_fieldStarts.length);
+                m_fieldStarts[m_fieldCount++] = m_position;
+                nextField();
+            }
+        }
+        m_position = index < m_fieldCount ? m_fieldStarts[index]
+                : m_lineEnd + 1;
+    }
+
+    /**
+     * Ignore le prochain champ de la ligne courante.
+     */
+    void skipField() {
+        nextField();
+    }
+
+    /**
+     * Lit le prochain champ de la ligne courante comme un entier positif ou
+     * négatif en base 10. Les espaces qui l'entourent sont ignorés.
+     *
+     * @return La valeur du champ.
+     * @throws NumberFormatException
+     *             Si le champ n'est pas un entier.
+     */
+    int intField() {
+        nextField();
+        int i = trimmedStart();
+        int end = trimmedEnd();
+        boolean negative = i < end && m_buffer[i] == '-';
+        if (negative)
+            i++;
+        return negative ? -digits(i, end) : digits(i, end);
+    }
+
+    /**
+     * Lit le prochain champ de la ligne courante comme un nombre décimal. Le
+     * résultat est le même que celui de Double.parseDouble.
+     *
+     * @return La valeur du champ.
+     * @throws NumberFormatException
+     *             Si le champ n'est pas un nombre.
+     */
+    double doubleField() {
+        nextField();
+        int start = trimmedStart();
+        int end = trimmedEnd();
+        int i = start;
+        boolean negative = i < end && m_buffer[i] == '-';
+        if (negative)
+            i++;
+        long mantissa = 0;
+        int decimals = 0;
+        boolean point = false;
+        boolean exact = i < end;
+        for (; i < end && exact; i++) {
+            if (m_buffer[i] == '.' && !point) {
+                point = true;
+            } else {
+                int digit = m_buffer[i] - '0';
+                if (digit < 0 || digit > 9 || mantissa >= 1L << 49) {
+                    exact = false;
+                } else {
+                    mantissa = mantissa * 10 + digit;
+                    if (point)
+                        decimals++;
+                }
+            }
+        }
+
+        if (exact && decimals < POWERS_OF_TEN.length) {
+            // La mantisse et la puissance de dix étant exactes, la division
+            // est arrondie correctement, comme par Double.parseDouble.
+            double value = mantissa / POWERS_OF_TEN[decimals];
+            return negative ? -value : value;
+        } else {
+            return Double.parseDouble(new String(m_buffer, start, end - start,
+                    StandardCharsets.US_ASCII));
+        }
+    }
+
+    /**
+     * Lit le prochain champ de la ligne courante comme une date au format
+     * AAAAMMJJ.
+     *
+     * @return La date.
+     * @throws NumberFormatException
+     *             Si le champ n'est pas une date de ce format.
+     */
+    Date dateField() {
+        nextField();
+        int start = trimmedStart();
+        if (trimmedEnd() - start != 8)
+            throw invalidField();
+        int value = digits(start, start + 8);
+        return new Date(value % 100, (value / 100) % 100, value / 10000);
+    }
+
+    /**
+     * Lit le prochain champ de la ligne courante comme une heure au format
+     * H:MM:SS, les heures pouvant dépasser 24 pour les trajets se terminant
+     * après minuit.
+     *
+     * @return Le nombre de secondes après minuit, ou -1 si le champ est vide.
+     * @throws NumberFormatException
+     *             Si le champ n'est pas une heure de ce format.
+     */
+    int timeField() {
+        nextField();
+        int start = trimmedStart();
+        int end = trimmedEnd();
+        if (start == end)
+            return -1;
+        if (end - start < 7 || m_buffer[end - 3] != ':'
+                || m_buffer[end - 6] != ':')
+            throw invalidField();
+        int minutes = digits(end - 5, end - 3);
+        int seconds = digits(end - 2, end);
+        if (minutes > 59 || seconds > 59)
+            throw invalidField();
+        return (digits(start, end - 6) * 60 + minutes) * 60 + seconds;
+    }
+
+    /**
+     * Lit le prochain champ de la ligne courante comme une chaîne de
+     * caractères. Une String est créée, cette méthode est donc réservée aux
+     * champs qui ne sont lus qu'une fois, comme les noms dans les fichiers
+     * qui les définissent.
+     *
+     * @return Le champ.
+     */
+    String stringField() {
+        nextField();
+        String value = new String(m_buffer, m_fieldStart, m_fieldEnd
+                - m_fieldStart, StandardCharsets.UTF_8);
+        return m_fieldEscaped ? value.replace("\"\"", "\"") : value;
+    }
+
+    /**
+     * Cherche le prochain champ de la ligne courante dans la table de noms
+     * donnée, sans le copier. Un nom contenant des guillemets doublés est
+     * cherché tel qu'il est écrit.
+     *
+     * @param names
+     *            La table des noms.
+     * @return La valeur associée au nom, ou null s'il n'est pas dans la
+     *         table.
+     */
+    <V> V nameField(NameTable<V> names) {
+        nextField();
+        return names.get(m_buffer, m_fieldStart, m_fieldEnd);
+    }
+
+    /**
+     * Ferme le flot lu. Un tampon n'a pas à être fermé.
+     *
+     * @throws IOException
+     *             Si la fermeture échoue.
+     */
+    void close() throws IOException {
+        if (m_in != null)
+            m_in.close();
+    }
+
+    /**
+     * Délimite le prochain champ de la ligne courante et place la lecture
+     * après son séparateur. Au-delà du dernier champ, le champ est vide.
+     */
+    private void nextField() {
+        int i = Math.min(m_position, m_lineEnd);
+        m_fieldEscaped = false;
+        if (i < m_lineEnd && m_buffer[i] == '"') {
+            m_fieldStart = ++i;
+            while (i < m_lineEnd) {
+                if (m_buffer[i] == '"') {
+                    if (i + 1 < m_lineEnd && m_buffer[i + 1] == '"') {
+                        m_fieldEscaped = true;
+                        i += 2;
+                        continue;
+                    }
+                    break;
+                }
+                i++;
+            }
+            m_fieldEnd = i;
+            while (i < m_lineEnd && m_buffer[i] != m_separator)
+                i++;
+        } else {
+            m_fieldStart = i;
+            while (i < m_lineEnd && m_buffer[i] != m_separator)
+                i++;
+            m_fieldEnd = i;
+        }
+        m_position = i + 1;
+    }
+
+    private int trimmedStart() {
+        int i = m_fieldStart;
+        while (i < m_fieldEnd && m_buffer[i] == ' ')
+            i++;
+        return i;
+    }
+
+    private int trimmedEnd() {
+        int i = m_fieldEnd;
+        while (i > m_fieldStart && m_buffer[i - 1] == ' ')
+            i--;
+        return i;
+    }
+
+    /**
+     * Décode les chiffres [begin; end[ du tampon.
+     */
+    private int digits(int begin, int end) {
+        if (begin == end)
+            throw invalidField();
+        int value = 0;
+        for (int i = begin; i < end; i++) {
+            int digit = m_buffer[i] - '0';
+            if (digit < 0 || digit > 9
+                    || value > (Integer.MAX_VALUE - digit) / 10)
+                throw invalidField();
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    private NumberFormatException invalidField() {
+        return new NumberFormatException("Erreur : Champ invalide : "
+                + new String(m_buffer, m_fieldStart, m_fieldEnd - m_fieldStart,
+                        StandardCharsets.UTF_8));
+    }
+
+    private int indexOfNewLine(int from) {
+        for (int i = from; i < m_limit; i++) {
+            if (m_buffer[i] == '\n')
+                return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Déplace les octets [keep; m_limit[ au début du tampon, en l'agrandissant
+     * s'il est plein, puis le complète avec les octets suivants de la source.
+     */
+    private void fill(int keep) throws IOException {
+        int kept = m_limit - keep;
+        if (kept == m_buffer.length) {
+            m_buffer = Arrays.copyOf(m_buffer, 2 * m_buffer.length);
+        } else {
+            System.arraycopy(m_buffer, keep, m_buffer, 0, kept);
+        }
+        m_limit = kept;
+        int read;
+        if (m_in != null) {
+            read = m_in.read(m_buffer, m_limit, m_buffer.length - m_limit);
+        } else if (m_source.hasRemaining()) {
+            read = Math.min(m_source.remaining(), m_buffer.length - m_limit);
+            m_source.get(m_buffer, m_limit, read);
+        } else {
+            read = -1;
+        }
+        if (read == -1)
+            m_endOfStream = true;
+        else
+            m_limit += read;
+    }
+}
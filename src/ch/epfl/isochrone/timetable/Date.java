@@ -227,11 +227,12 @@ public final class Date implements Comparable<Date> {
 
     /**
      * Appelle la méthode dateToFixed() et revoit la valeur retournée par cette
-     * dernière.
+     * dernière. Deux dates consécutives ont des valeurs consécutives, qui
+     * peuvent donc servir d'indices de jours.
      * 
      * @return La valeur retournée par la méthode dateToFixed().
      */
-    private int fixed() {
+    int fixed() {
         return dateToFixed(m_day, m_month, m_year);
     }
 
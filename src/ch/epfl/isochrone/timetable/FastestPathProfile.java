@@ -0,0 +1,206 @@
+/**
+ * Classe représentant le profil des chemins les plus courts depuis un arrêt,
+ * pour toutes les heures de départ d'une plage horaire donnée.
+ */
+
+package ch.epfl.isochrone.timetable;
+
+public final class FastestPathProfile {
+
+    private final StopIndex m_stopIndex;
+    private final int m_startingStop;
+    private final int m_windowStart;
+    private final int m_windowEnd;
+    private final int m_maxDuration;
+
+    // Temps de marche depuis l'arrêt de départ sans prendre de TL, et
+    // prédécesseur correspondant.
+    private final int[] m_walkingTimes;
+    private final int[] m_walkingPredecessors;
+
+    // Profils de Pareto des arrêts : les entrées de l'arrêt i occupent les
+    // indices [m_offsets[i]; m_offsets[i + 1][ et sont triées par heure de
+    // départ décroissante, leurs heures d'arrivée étant elles aussi
+    // décroissantes.
+    private final int[] m_offsets;
+    private final int[] m_departureTimes;
+    private final int[] m_arrivalTimes;
+    private final int[] m_predecessors;
+
+    /**
+     * Construit un profil à partir de tableaux indexés par identifiant
+     * d'arrêt. Les tableaux ne sont pas copiés.
+     */
+    FastestPathProfile(StopIndex stopIndex, int startingStop,
+            int windowStart, int windowEnd, int maxDuration, int[] walkingTimes,
+            int[] walkingPredecessors, int[] offsets, int[] departureTimes,
+            int[] arrivalTimes, int[] predecessors) {
+        m_stopIndex = stopIndex;
+        m_startingStop = startingStop;
+        m_windowStart = windowStart;
+        m_windowEnd = windowEnd;
+        m_maxDuration = maxDuration;
+        m_walkingTimes = walkingTimes;
+        m_walkingPredecessors = walkingPredecessors;
+        m_offsets = offsets;
+        m_departureTimes = departureTimes;
+        m_arrivalTimes = arrivalTimes;
+        m_predecessors = predecessors;
+    }
+
+    /**
+     * Retourne l'arrêt de départ du profil.
+     *
+     * @return L'arrêt de départ.
+     */
+    public Stop startingStop() {
+        return m_stopIndex.stop(m_startingStop);
+    }
+
+    /**
+     * Retourne le début de la plage des heures de départ du profil.
+     *
+     * @return La première heure de départ couverte.
+     */
+    public int windowStart() {
+        return m_windowStart;
+    }
+
+    /**
+     * Retourne la fin de la plage des heures de départ du profil.
+     *
+     * @return La dernière heure de départ couverte.
+     */
+    public int windowEnd() {
+        return m_windowEnd;
+    }
+
+    /**
+     * Retourne la durée maximale des trajets du profil.
+     *
+     * @return La durée maximale, ou SecondsPastMidnight.INFINITE si elle
+     *         n'est pas limitée.
+     */
+    public int maxDuration() {
+        return m_maxDuration;
+    }
+
+    /**
+     * Retourne vrai si l'heure de départ donnée est dans la plage du profil.
+     *
+     * @param departureTime
+     *            L'heure de départ.
+     * @return Vrai si le profil couvre cette heure de départ, faux sinon.
+     */
+    public boolean covers(int departureTime) {
+        return m_windowStart <= departureTime && departureTime <= m_windowEnd;
+    }
+
+    /**
+     * Retourne l'heure d'arrivée au plus tôt à l'arrêt donné en partant de
+     * l'arrêt de départ à l'heure donnée, infinie si elle dépasse la durée
+     * maximale du profil.
+     *
+     * @param stop
+     *            L'arrêt d'arrivée.
+     * @param departureTime
+     *            L'heure de départ, comprise dans la plage du profil.
+     * @return L'heure d'arrivée au plus tôt, ou infini.
+     * @throws IllegalArgumentException
+     *             Si l'heure de départ n'est pas dans la plage du profil.
+     */
+    public int arrivalTime(Stop stop, int departureTime) {
+        checkDepartureTime(departureTime);
+        int id = m_stopIndex.id(stop);
+        if (id == -1)
+            return SecondsPastMidnight.INFINITE;
+        int entry = entryFor(id, departureTime);
+        int arrivalTime = entry == -1 ? SecondsPastMidnight.INFINITE
+                : m_arrivalTimes[entry];
+        if (m_walkingTimes[id] != SecondsPastMidnight.INFINITE)
+            arrivalTime = Math.min(arrivalTime, departureTime
+                    + m_walkingTimes[id]);
+        if (arrivalTime > Graph.latestArrivalTime(departureTime, m_maxDuration))
+            return SecondsPastMidnight.INFINITE;
+        return arrivalTime;
+    }
+
+    /**
+     * Retourne l'arbre des chemins les plus courts pour l'heure de départ
+     * donnée, avec les mêmes heures d'arrivée que celui que retournerait
+     * Graph.fastestPaths.
+     *
+     * @param departureTime
+     *            L'heure de départ, comprise dans la plage du profil.
+     * @return L'arbre des chemins les plus courts.
+     * @throws IllegalArgumentException
+     *             Si l'heure de départ n'est pas dans la plage du profil.
+     */
+    public FastestPathTree fastestPaths(int departureTime) {
+        checkDepartureTime(departureTime);
+        int stopCount = m_stopIndex.size();
+        int[] arrivalTimes = new int[stopCount];
+        int[] predecessors = new int[stopCount];
+        for (int i = 0; i < stopCount; i++) {
+            int entry = entryFor(i, departureTime);
+            arrivalTimes[i] = SecondsPastMidnight.INFINITE;
+            predecessors[i] = -1;
+            if (entry != -1) {
+                arrivalTimes[i] = m_arrivalTimes[entry];
+                predecessors[i] = m_predecessors[entry];
+            }
+            if (m_walkingTimes[i] != SecondsPastMidnight.INFINITE
+                    && departureTime + m_walkingTimes[i] <= arrivalTimes[i]) {
+                arrivalTimes[i] = departureTime + m_walkingTimes[i];
+                predecessors[i] = m_walkingPredecessors[i];
+            }
+        }
+        int latestArrivalTime = Graph.latestArrivalTime(departureTime,
+                m_maxDuration);
+        for (int i = 0; i < stopCount; i++) {
+            if (arrivalTimes[i] > latestArrivalTime) {
+                arrivalTimes[i] = SecondsPastMidnight.INFINITE;
+                predecessors[i] = -1;
+            }
+        }
+        arrivalTimes[m_startingStop] = departureTime;
+        predecessors[m_startingStop] = -1;
+        return new FastestPathTree(m_stopIndex, m_startingStop, arrivalTimes,
+                predecessors);
+    }
+
+    /**
+     * Retourne le nombre total d'entrées des profils des arrêts.
+     *
+     * @return Le nombre d'entrées (heure de départ, heure d'arrivée).
+     */
+    public int entryCount() {
+        return m_departureTimes.length;
+    }
+
+    private void checkDepartureTime(int departureTime) {
+        if (!covers(departureTime)) {
+            throw new IllegalArgumentException(
+                    "Error : Heure de départ hors de la plage du profil !");
+        }
+    }
+
+    /**
+     * Retourne l'indice de l'entrée du profil de l'arrêt donné ayant la plus
+     * petite heure de départ supérieure ou égale à celle donnée, ou -1.
+     */
+    private int entryFor(int stop, int departureTime) {
+        // Les heures de départ étant décroissantes, on cherche la dernière
+        // entrée dont l'heure de départ est supérieure ou égale.
+        int low = m_offsets[stop];
+        int high = m_offsets[stop + 1];
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (m_departureTimes[middle] >= departureTime)
+                low = middle + 1;
+            else
+                high = middle;
+        }
+        return low == m_offsets[stop] ? -1 : low - 1;
+    }
+}
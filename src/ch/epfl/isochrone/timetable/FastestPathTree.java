@@ -7,6 +7,7 @@
 
 package ch.epfl.isochrone.timetable;
 
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Map;
 import java.util.HashMap;
@@ -14,14 +15,16 @@ import java.util.List;
 import java.util.ArrayList;
 import java.util.Set;
 
-import static java.util.Collections.unmodifiableSet;
-
 
 public final class FastestPathTree {
 
-    private final Stop m_startingStop;
-    private final Map<Stop, Integer> m_arrivalTime;
-    private final Map<Stop, Stop> m_predecessor;
+    // Heures d'arrivée et prédécesseurs indexés par identifiant d'arrêt. Un
+    // prédécesseur vaut -1 pour l'arrêt de départ et pour les arrêts non
+    // atteints, dont le chemin part alors directement de l'arrêt de départ.
+    private final StopIndex m_stopIndex;
+    private final int m_startingStop;
+    private final int[] m_arrivalTimes;
+    private final int[] m_predecessors;
 
     /**
      * Constructeur de la classe qui construit l'arbre des chemins les plus
@@ -52,9 +55,47 @@ public final class FastestPathTree {
             }
         }
 
+        m_stopIndex = new StopIndex(arrivalTime.keySet());
+        m_startingStop = m_stopIndex.id(startingStop);
+        m_arrivalTimes = new int[m_stopIndex.size()];
+        m_predecessors = new int[m_stopIndex.size()];
+        Arrays.fill(m_predecessors, -1);
+
+        for (Map.Entry<Stop, Integer> i : arrivalTime.entrySet()) {
+            m_arrivalTimes[m_stopIndex.id(i.getKey())] = i.getValue();
+        }
+        for (Map.Entry<Stop, Stop> i : predecessor.entrySet()) {
+            int stop = m_stopIndex.id(i.getKey());
+            int predecessorStop = m_stopIndex.id(i.getValue());
+            if (stop != -1 && predecessorStop == -1) {
+                throw new IllegalArgumentException(
+                        "Erreur : Clés des maps invalides !");
+            }
+            if (stop != -1 && stop != m_startingStop) {
+                m_predecessors[stop] = predecessorStop;
+            }
+        }
+    }
+
+    /**
+     * Construit un arbre à partir de tableaux indexés par identifiant
+     * d'arrêt. Les tableaux ne sont pas copiés.
+     * 
+     * @param stopIndex
+     *            L'index des arrêts.
+     * @param startingStop
+     *            L'identifiant de l'arrêt de départ.
+     * @param arrivalTimes
+     *            Les heures d'arrivée, infinies pour les arrêts non atteints.
+     * @param predecessors
+     *            Les identifiants des prédécesseurs, ou -1.
+     */
+    FastestPathTree(StopIndex stopIndex, int startingStop,
+            int[] arrivalTimes, int[] predecessors) {
+        m_stopIndex = stopIndex;
         m_startingStop = startingStop;
-        m_arrivalTime = new HashMap<>(arrivalTime);
-        m_predecessor = new HashMap<>(predecessor);
+        m_arrivalTimes = arrivalTimes;
+        m_predecessors = predecessors;
     }
 
     /**
@@ -63,7 +104,7 @@ public final class FastestPathTree {
      * @return L'arrêt de départ du chemin le plus court.
      */
     public Stop startingStop() {
-        return m_startingStop;
+        return m_stopIndex.stop(m_startingStop);
     }
 
     /**
@@ -72,7 +113,7 @@ public final class FastestPathTree {
      * @return L'heure de départ pour faire le chemin le plus court.
      */
     public int startingTime() {
-        return m_arrivalTime.get(m_startingStop);
+        return m_arrivalTimes[m_startingStop];
     }
 
     /**
@@ -83,7 +124,7 @@ public final class FastestPathTree {
      *         chemin le plus court.
      */
     public Set<Stop> stops() {
-        return unmodifiableSet(m_arrivalTime.keySet());
+        return m_stopIndex.stops();
     }
 
     /**
@@ -98,10 +139,11 @@ public final class FastestPathTree {
      * @return L'heure d'arrivée à l'arrêt en emprutant le chemin le plus court.
      */
     public int arrivalTime(Stop stop) {
-        if (!m_arrivalTime.containsKey(stop))
+        int id = m_stopIndex.id(stop);
+        if (id == -1)
             return SecondsPastMidnight.INFINITE;
         else
-            return m_arrivalTime.get(stop);
+            return m_arrivalTimes[id];
     }
 
     /**
@@ -118,32 +160,56 @@ public final class FastestPathTree {
      *         chemin le plus court.
      */
     public List<Stop> pathTo(Stop stop) {
-        if (!m_arrivalTime.containsKey(stop)) {
+        int id = m_stopIndex.id(stop);
+        if (id == -1) {
             throw new IllegalArgumentException(
                     "Error : Cet arrêt n'a pas de chemin le plus court associé !");
         }
 
         ArrayList<Stop> path = new ArrayList<>();
         path.add(stop);
-        boolean done = false;
-        if (stop == m_startingStop) {
-            done = true;
-        }
-
-        Stop tmp = stop;
-        Stop predecessorTmp = null;
-        while (!done) {
-            predecessorTmp = m_predecessor.get(tmp);
-            path.add(predecessorTmp);
-            tmp = predecessorTmp;
-            if (tmp == m_startingStop) {
-                done = true;
+        while (id != m_startingStop) {
+            id = m_predecessors[id];
+            if (id == -1) {
+                id = m_startingStop;
             }
+            path.add(m_stopIndex.stop(id));
         }
         Collections.reverse(path);
         return path;
     }
 
+    /**
+     * Retourne l'index des arrêts de cet arbre.
+     * 
+     * @return L'index des arrêts.
+     */
+    StopIndex stopIndex() {
+        return m_stopIndex;
+    }
+
+    /**
+     * Retourne l'heure d'arrivée à l'arrêt ayant l'identifiant donné.
+     * 
+     * @param stop
+     *            L'identifiant de l'arrêt.
+     * @return L'heure d'arrivée, infinie si l'arrêt n'est pas atteint.
+     */
+    int arrivalTime(int stop) {
+        return m_arrivalTimes[stop];
+    }
+
+    /**
+     * Retourne une estimation de la mémoire occupée par cet arbre, sans
+     * compter l'index des arrêts qui est partagé avec le graphe.
+     *
+     * @return Le nombre approximatif d'octets occupés.
+     */
+    long footprint() {
+        // En-têtes de l'objet et des deux tableaux, puis leurs éléments.
+        return 24 + 2 * 16 + 8L * m_arrivalTimes.length;
+    }
+
     /**
      * Bâtisseur de FastestPathTree, facilite l'instanciation de celle-ci.
      * 
@@ -230,7 +296,9 @@ public final class FastestPathTree {
         }
 
         /**
-         * Construit le FastestPathTree auquel se rattache ce bâtisseur.
+         * Construit le FastestPathTree auquel se rattache ce bâtisseur. Les
+         * tables du bâtisseur sont converties en tableaux indexés par
+         * identifiant d'arrêt.
          * 
          * @return L'instance de FastestPathTree auquel se rattache ce
          *         bâtisseur.
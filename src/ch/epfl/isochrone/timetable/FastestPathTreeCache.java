@@ -0,0 +1,253 @@
+/**
+ * Classe représentant un cache des arbres des chemins les plus courts, indexés
+ * par arrêt de départ, date et heure de départ. Sa taille est limitée par la
+ * mémoire occupée par les arbres, les moins récemment utilisés étant retirés
+ * en premier. Plusieurs threads demandant en même temps le même arbre
+ * partagent un seul calcul.
+ */
+
+package ch.epfl.isochrone.timetable;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+public final class FastestPathTreeCache {
+
+    private final long m_maxBytes;
+
+    // Entrées dans l'ordre d'accès, de la moins récemment utilisée à la plus
+    // récemment utilisée. Toujours accédée en tenant le verrou de this.
+    private final LinkedHashMap<Key, Entry> m_entries;
+    private long m_bytes;
+
+    private final AtomicLong m_hits;
+    private final AtomicLong m_misses;
+    private final AtomicLong m_evictions;
+
+    /**
+     * Construit un cache vide pouvant contenir des arbres occupant au total
+     * le nombre d'octets donné.
+     *
+     * @param maxBytes
+     *            La mémoire maximale occupée par les arbres du cache.
+     * @throws IllegalArgumentException
+     *             Si la taille maximale est négative.
+     */
+    public FastestPathTreeCache(long maxBytes) {
+        if (maxBytes < 0) {
+            throw new IllegalArgumentException(
+                    "Error : Taille maximale du cache négative !");
+        }
+        m_maxBytes = maxBytes;
+        m_entries = new LinkedHashMap<>(16, 0.75f, true);
+        m_bytes = 0;
+        m_hits = new AtomicLong();
+        m_misses = new AtomicLong();
+        m_evictions = new AtomicLong();
+    }
+
+    /**
+     * Retourne l'arbre associé à l'arrêt, la date et l'heure de départ donnés.
+     * S'il n'est pas dans le cache, il est calculé par le thread appelant au
+     * moyen de computation ; les autres threads demandant le même arbre
+     * pendant ce temps attendent ce calcul au lieu de le refaire.
+     *
+     * @param startingStop
+     *            L'arrêt de départ.
+     * @param date
+     *            La date des services de l'horaire.
+     * @param departureTime
+     *            L'heure de départ.
+     * @param computation
+     *            Le calcul de l'arbre s'il n'est pas dans le cache.
+     * @return L'arbre des chemins les plus courts.
+     * @throws IllegalStateException
+     *             Si le calcul lève une exception vérifiée ou si le thread est
+     *             interrompu en attendant le calcul d'un autre thread. Les
+     *             exceptions non vérifiées du calcul sont relancées telles
+     *             quelles, et l'arbre n'est alors pas gardé dans le cache.
+     */
+    public FastestPathTree get(Stop startingStop, Date date,
+            int departureTime, Callable<FastestPathTree> computation) {
+        Key key = new Key(startingStop, date, departureTime);
+        Entry entry;
+        boolean owner = false;
+        synchronized (this) {
+            entry = m_entries.get(key);
+            if (entry == null) {
+                entry = new Entry(new FutureTask<>(computation));
+                m_entries.put(key, entry);
+                owner = true;
+            }
+        }
+
+        if (owner) {
+            m_misses.incrementAndGet();
+            entry.m_task.run();
+            admit(key, entry);
+        } else {
+            m_hits.incrementAndGet();
+        }
+
+        try {
+            return entry.m_task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(
+                    "Error : Attente du calcul interrompue !", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            if (cause instanceof Error)
+                throw (Error) cause;
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    /**
+     * Vide le cache. Les compteurs ne sont pas remis à zéro.
+     */
+    public synchronized void clear() {
+        m_entries.clear();
+        m_bytes = 0;
+    }
+
+    /**
+     * Retourne le nombre d'arbres du cache.
+     *
+     * @return Le nombre d'arbres, y compris ceux en cours de calcul.
+     */
+    public synchronized int size() {
+        return m_entries.size();
+    }
+
+    /**
+     * Retourne la mémoire occupée par les arbres du cache.
+     *
+     * @return Le nombre approximatif d'octets occupés.
+     */
+    public synchronized long bytes() {
+        return m_bytes;
+    }
+
+    /**
+     * Retourne la mémoire maximale occupée par les arbres du cache.
+     *
+     * @return Le nombre maximal d'octets.
+     */
+    public long maxBytes() {
+        return m_maxBytes;
+    }
+
+    /**
+     * Retourne le nombre de demandes servies par le cache, y compris celles
+     * qui ont attendu un calcul en cours.
+     *
+     * @return Le nombre de succès.
+     */
+    public long hits() {
+        return m_hits.get();
+    }
+
+    /**
+     * Retourne le nombre de demandes ayant nécessité un calcul.
+     *
+     * @return Le nombre d'échecs.
+     */
+    public long misses() {
+        return m_misses.get();
+    }
+
+    /**
+     * Retourne le nombre d'arbres retirés du cache pour respecter sa taille
+     * maximale.
+     *
+     * @return Le nombre d'arbres retirés.
+     */
+    public long evictions() {
+        return m_evictions.get();
+    }
+
+    /**
+     * Comptabilise l'arbre calculé pour l'entrée donnée, puis retire les
+     * arbres les moins récemment utilisés tant que la taille maximale est
+     * dépassée. Une entrée dont le calcul a échoué est retirée.
+     */
+    private void admit(Key key, Entry entry) {
+        FastestPathTree tree;
+        try {
+            tree = entry.m_task.get();
+        } catch (InterruptedException | ExecutionException e) {
+            tree = null;
+        }
+
+        synchronized (this) {
+            // L'entrée a pu être retirée par clear() pendant le calcul.
+            if (m_entries.get(key) != entry)
+                return;
+            if (tree == null) {
+                m_entries.remove(key);
+                return;
+            }
+            entry.m_bytes = tree.footprint();
+            m_bytes += entry.m_bytes;
+
+            Iterator<Map.Entry<Key, Entry>> i = m_entries.entrySet().iterator();
+            while (m_bytes > m_maxBytes && i.hasNext()) {
+                Entry eldest = i.next().getValue();
+                // Les arbres en cours de calcul ne sont pas encore
+                // comptabilisés et restent dans le cache.
+                if (eldest.m_task.isDone()) {
+                    i.remove();
+                    m_bytes -= eldest.m_bytes;
+                    m_evictions.incrementAndGet();
+                }
+            }
+        }
+    }
+
+    private static final class Entry {
+
+        private final FutureTask<FastestPathTree> m_task;
+        private long m_bytes;
+
+        Entry(FutureTask<FastestPathTree> task) {
+            m_task = task;
+            m_bytes = 0;
+        }
+    }
+
+    private static final class Key {
+
+        private final Stop m_stop;
+        private final Date m_date;
+        private final int m_departureTime;
+
+        Key(Stop stop, Date date, int departureTime) {
+            m_stop = stop;
+            m_date = date;
+            m_departureTime = departureTime;
+        }
+
+        @Override
+        public boolean equals(Object that) {
+            if (!(that instanceof Key))
+                return false;
+            Key key = (Key) that;
+            return m_stop == key.m_stop && m_date.equals(key.m_date)
+                    && m_departureTime == key.m_departureTime;
+        }
+
+        @Override
+        public int hashCode() {
+            return (31 * System.identityHashCode(m_stop) + m_date.hashCode())
+                    * 31 + m_departureTime;
+        }
+    }
+}
@@ -13,41 +13,204 @@ import java.util.Map;
 import java.util.HashMap;
 import java.util.List;
 import java.util.ArrayList;
-
-import static java.util.Collections.unmodifiableSet;
-import static java.util.Collections.unmodifiableMap;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 
 public final class Graph {
 
-    private final Set<Stop> m_stops;
-    private final Map<Stop, List<GraphEdge>> m_outgoingEdges;
-    
-    private Graph(Set<Stop> stops, Map<Stop, List<GraphEdge>> outgoingEdges) {
-        assert validateBuilderSet(stops, outgoingEdges);
-        m_stops = stops;
-        m_outgoingEdges = outgoingEdges;
+    /**
+     * Nombre de tableaux de la représentation compacte (voir compiledArrays).
+     */
+    static final int COMPILED_ARRAYS = 9;
+
+    // Représentation compacte (CSR) : les arcs sortant de l'arrêt i occupent
+    // les indices [m_edgeOffsets[i]; m_edgeOffsets[i + 1][ des tableaux
+    // d'arcs, et les trajets de l'arc e occupent les indices
+    // [m_tripOffsets[e]; m_tripOffsets[e + 1][ de m_trips et de
+    // m_tripServices.
+    private final StopIndex m_stopIndex;
+    private final int[] m_edgeOffsets;
+    private final int[] m_edgeDestinations;
+    private final int[] m_edgeWalkingTimes;
+    private final int[] m_tripOffsets;
+    private final int[] m_trips;
+    private final int[] m_tripServices;
+
+    // Trajets dominés de chaque arc (voir GraphEdge.dominatedTrips), rangés
+    // de la même manière que m_trips. Ils ne sont jamais empruntés, mais
+    // doivent redevenir empruntables si le trajet qui les domine est retardé
+    // ou supprimé (voir withPatchedTrips).
+    private final int[] m_dominatedOffsets;
+    private final int[] m_dominatedTrips;
+    private final int[] m_dominatedServices;
+
+    // Services des trajets, indexés par leur identifiant. L'identifiant 0
+    // (service null) désigne les trajets toujours actifs.
+    private final List<Service> m_services;
+    // Services actifs (voir GraphEdge.isActive), ou null s'ils le sont tous.
+    // Dans le premier cas, m_trips ne contient que les trajets actifs qui ne
+    // sont dominés par aucun autre (voir GraphEdge.undominatedActiveTrips),
+    // les autres étant rangés avec les trajets dominés.
+    private final long[] m_activeServices;
+
+    // Trajets des arcs modifiés par des mises à jour (voir
+    // withPatchedTrips), par blocs de PATCH_BLOCK arcs, ou null si aucun arc
+    // n'est modifié. Un arc dont l'entrée est nulle garde ses trajets de
+    // m_trips. Les blocs sont partagés entre versions et jamais modifiés.
+    private static final int PATCH_BLOCK = 1024;
+    private final EdgeTrips[][] m_patches;
+    private final int m_tripCount;
+
+    private Graph(StopIndex stopIndex, int[] edgeOffsets,
+            int[] edgeDestinations, int[] edgeWalkingTimes, int[] tripOffsets,
+            int[] trips, int[] tripServices, int[] dominatedOffsets,
+            int[] dominatedTrips, int[] dominatedServices,
+            List<Service> services, long[] activeServices,
+            EdgeTrips[][] patches, int tripCount) {
+        assert edgeOffsets.length == stopIndex.size() + 1;
+        assert tripOffsets.length == edgeDestinations.length + 1;
+        assert tripServices.length == trips.length;
+        assert dominatedOffsets.length == edgeDestinations.length + 1;
+        assert dominatedServices.length == dominatedTrips.length;
+        m_stopIndex = stopIndex;
+        m_edgeOffsets = edgeOffsets;
+        m_edgeDestinations = edgeDestinations;
+        m_edgeWalkingTimes = edgeWalkingTimes;
+        m_tripOffsets = tripOffsets;
+        m_trips = trips;
+        m_tripServices = tripServices;
+        m_dominatedOffsets = dominatedOffsets;
+        m_dominatedTrips = dominatedTrips;
+        m_dominatedServices = dominatedServices;
+        m_services = services;
+        m_activeServices = activeServices;
+        m_patches = patches;
+        m_tripCount = tripCount;
     }
 
-    private boolean validateBuilderSet(Set<Stop> stops,
-            Map<Stop, List<GraphEdge>> outgoingEdges) {
-        for(Stop i : outgoingEdges.keySet()){
-            if(!stops.contains(i))
-                return false;
+    /**
+     * Construit un graphe dont tous les services sont actifs à partir de sa
+     * représentation compacte, par exemple lue dans un instantané (voir
+     * TimeTableSnapshot). Les tableaux ne sont pas copiés.
+     * 
+     * @param stopIndex
+     *            L'index des arrêts.
+     * @param arrays
+     *            Les tableaux de la représentation compacte, dans l'ordre de
+     *            compiledArrays().
+     * @param services
+     *            Les services des trajets, le premier étant null.
+     * @return Le graphe.
+     * @throws IllegalArgumentException
+     *             Si les tableaux sont incohérents.
+     */
+    static Graph fromCompiledArrays(StopIndex stopIndex, int[][] arrays,
+            List<Service> services) {
+        if (arrays.length != COMPILED_ARRAYS
+                || arrays[0].length != stopIndex.size() + 1
+                || arrays[3].length != arrays[1].length + 1
+                || arrays[1].length != arrays[2].length
+                || arrays[5].length != arrays[4].length
+                || arrays[6].length != arrays[1].length + 1
+                || arrays[8].length != arrays[7].length
+                || services.isEmpty() || services.get(0) != null) {
+            throw new IllegalArgumentException(
+                    "Error : Représentation compacte du graphe invalide !");
         }
-        for(List<GraphEdge> i : outgoingEdges.values()){
-            for(GraphEdge j : i){
-                if(!stops.contains(j.destination()))
-                    return false;
+        return new Graph(stopIndex, arrays[0], arrays[1], arrays[2],
+                arrays[3], arrays[4], arrays[5], arrays[6], arrays[7],
+                arrays[8], Collections.unmodifiableList(new ArrayList<>(
+                        services)), null, null, arrays[4].length);
+    }
+
+    /**
+     * Retourne une version de ce graphe dans laquelle seuls les trajets des
+     * services donnés sont empruntés. Elle partage les arcs de ce graphe,
+     * mais ses trajets sont compactés : chaque arc ne garde que les trajets
+     * actifs qui ne sont dominés par aucun autre, de sorte qu'une recherche
+     * n'y parcourt plus les trajets des autres services. Ce calcul prend un
+     * temps proportionnel au nombre de trajets, et n'est donc à faire
+     * qu'une fois par date. Les trajets ajoutés sans service restent
+     * toujours actifs.
+     * 
+     * @param services
+     *            Les services actifs, par exemple
+     *            TimeTable.servicesForDate(date).
+     * @return Le graphe restreint aux services donnés.
+     */
+    public Graph forServices(Set<Service> services) {
+        long[] activeServices = activeServices(services);
+        int edgeCount = m_edgeDestinations.length;
+        long[][] undominated = new long[edgeCount][];
+        long[][] dominated = new long[edgeCount][];
+        int tripCount = 0;
+        int dominatedCount = 0;
+        for (int e = 0; e < edgeCount; e++) {
+            long[] serviceTrips = edgeServiceTrips(e);
+            undominated[e] = GraphEdge.undominatedActiveTrips(serviceTrips,
+                    activeServices);
+            dominated[e] = GraphEdge.dominatedTrips(serviceTrips,
+                    undominated[e]);
+            tripCount += undominated[e].length;
+            dominatedCount += dominated[e].length;
+        }
+
+        int[] tripOffsets = new int[edgeCount + 1];
+        int[] trips = new int[tripCount];
+        int[] tripServices = new int[tripCount];
+        int[] dominatedOffsets = new int[edgeCount + 1];
+        int[] dominatedTrips = new int[dominatedCount];
+        int[] dominatedServices = new int[dominatedCount];
+        int t = 0;
+        int d = 0;
+        for (int e = 0; e < edgeCount; e++) {
+            tripOffsets[e] = t;
+            for (long i : undominated[e]) {
+                trips[t] = (int) (i >>> 32);
+                tripServices[t] = (int) i;
+                t++;
+            }
+            dominatedOffsets[e] = d;
+            for (long i : dominated[e]) {
+                dominatedTrips[d] = (int) (i >>> 32);
+                dominatedServices[d] = (int) i;
+                d++;
             }
         }
+        tripOffsets[edgeCount] = t;
+        dominatedOffsets[edgeCount] = d;
+
+        return new Graph(m_stopIndex, m_edgeOffsets, m_edgeDestinations,
+                m_edgeWalkingTimes, tripOffsets, trips, tripServices,
+                dominatedOffsets, dominatedTrips, dominatedServices,
+                m_services, activeServices, null, tripCount);
+    }
 
-        return true;
+    /**
+     * Retourne l'ensemble des services donnés, sous la forme d'un tableau de
+     * bits indexé par l'identifiant des services de ce graphe (voir
+     * GraphEdge.isActive). Le service 0 y est toujours actif.
+     * 
+     * @param services
+     *            Les services actifs.
+     * @return L'ensemble des services actifs.
+     */
+    long[] activeServices(Set<Service> services) {
+        long[] activeServices = new long[(m_services.size() + 63) >>> 6];
+        activeServices[0] = 1L;
+        for (int i = 1; i < m_services.size(); i++) {
+            if (services.contains(m_services.get(i)))
+                activeServices[i >>> 6] |= 1L << i;
+        }
+        return activeServices;
     }
 
     /**
      * Méthode retournant une instance de la classe FastestPathTree et
      * représentant l'arborescence des chemins les plus court pour un arrêt et
-     * une heure de départ donnés (Utilise l'algorithme de Dijkstra).
+     * une heure de départ donnés (Utilise l'algorithme de Dijkstra, avec un
+     * tas binaire indexé comme file de priorité).
      * 
      * @param startingStop
      *            L'arrêt de départ.
@@ -60,76 +223,484 @@ public final class Graph {
      *             continent pas l'arrêt de départ.
      */
     public FastestPathTree fastestPaths(Stop startingStop, int departureTime) {
+        return fastestPaths(startingStop, departureTime,
+                SecondsPastMidnight.INFINITE);
+    }
+
+    /**
+     * Méthode retournant l'arborescence des chemins les plus courts pour un
+     * arrêt et une heure de départ donnés, limitée aux trajets ne durant pas
+     * plus que la durée donnée. La recherche s'arrête dès que le prochain
+     * arrêt à visiter est atteint après la limite, et les arrêts atteints
+     * après celle-ci ont une heure d'arrivée infinie dans l'arbre retourné.
+     * 
+     * @param startingStop
+     *            L'arrêt de départ.
+     * @param departureTime
+     *            L'heure de départ.
+     * @param maxDuration
+     *            La durée maximale des trajets, ou SecondsPastMidnight.INFINITE
+     *            pour ne pas limiter la recherche.
+     * @return Instance de la classe FastestPathTree représentant l'arborescence
+     *         décrite plus haut.
+     * @throws IllegalArgumentException
+     *             Si l'heure de départ ou la durée maximale est négative, ou si
+     *             le graphe ne continent pas l'arrêt de départ.
+     */
+    public FastestPathTree fastestPaths(Stop startingStop, int departureTime,
+            int maxDuration) {
         if (departureTime < 0) {
             throw new IllegalArgumentException(
                     "Error : Heure de départ négative !");
         }
-        if (!(m_stops.contains(startingStop))) {
+        if (maxDuration < 0) {
+            throw new IllegalArgumentException(
+                    "Error : Durée maximale négative !");
+        }
+        if (m_stopIndex.id(startingStop) == -1) {
             throw new IllegalArgumentException(
                     "Error : Le graphe ne contient pas l'arrêt de départ !");
         }
 
-        FastestPathTree.Builder pathBuilder = new FastestPathTree.Builder(
-                startingStop, departureTime);
+        SearchWorkspace workspace = SearchWorkspace.acquire(m_stopIndex.size());
+        try {
+            int start = m_stopIndex.id(startingStop);
+            workspace.setArrivalTime(start, departureTime, -1);
 
-        for (Stop i : m_stops) {// On met toutes les heures d'arrivées à
-            // Infinite
-            if (i != startingStop) {
-                pathBuilder.setArrivalTime(i, SecondsPastMidnight.INFINITE,
-                        startingStop);
+            // File de priorité des arrêts à visiter, indexée par leur
+            // identifiant. Seuls les arrêts déjà atteints y sont insérés, les
+            // autres restent à l'heure d'arrivée infinie de l'espace de
+            // travail.
+            IndexedMinHeap toVisit = workspace.heap();
+            toVisit.insertOrDecrease(start, departureTime);
+            int latestArrivalTime = latestArrivalTime(departureTime,
+                    maxDuration);
+
+            while (!toVisit.isEmpty()
+                    && toVisit.minKey() != SecondsPastMidnight.INFINITE
+                    && toVisit.minKey() <= latestArrivalTime) {
+                int visitTime = toVisit.minKey();
+                int stopToVisit = toVisit.pollMin();
+
+                for (int e = m_edgeOffsets[stopToVisit]; e < m_edgeOffsets[stopToVisit + 1]; e++) {
+                    // Un arrêt déjà visité a une heure d'arrivée inférieure ou
+                    // égale à visitTime, il n'est donc jamais amélioré.
+                    int arrivalTime = edgeArrivalTime(e, visitTime);
+                    int destination = m_edgeDestinations[e];
+                    if (arrivalTime < workspace.arrivalTime(destination)) {
+                        workspace.setArrivalTime(destination, arrivalTime,
+                                stopToVisit);
+                        toVisit.insertOrDecrease(destination, arrivalTime);
+                    }
+                }
             }
+
+            return workspace.toTree(m_stopIndex, start, latestArrivalTime);
+        } finally {
+            workspace.release();
         }
+    }
 
-        HashSet<Stop> V = new HashSet<>(m_stops);
+    /**
+     * Retourne l'heure d'arrivée limite d'une recherche partant à l'heure
+     * donnée et limitée à la durée donnée.
+     * 
+     * @param departureTime
+     *            L'heure de départ.
+     * @param maxDuration
+     *            La durée maximale, ou SecondsPastMidnight.INFINITE.
+     * @return L'heure d'arrivée limite, ou SecondsPastMidnight.INFINITE si la
+     *         recherche n'est pas limitée.
+     */
+    static int latestArrivalTime(int departureTime, int maxDuration) {
+        if (maxDuration >= SecondsPastMidnight.INFINITE)
+            return SecondsPastMidnight.INFINITE;
+        else
+            return Math.min(departureTime + maxDuration,
+                    SecondsPastMidnight.INFINITE);
+    }
 
-        int minArrival = SecondsPastMidnight.INFINITE;
-        Stop stopToVisit = null;
+    /**
+     * Calcule les durées des trajets les plus courts depuis un arrêt vers les
+     * arrêts de destination donnés, et les écrit dans le tableau donné. La
+     * recherche (Dijkstra) s'arrête dès que toutes les destinations sont
+     * visitées.
+     *
+     * @param start
+     *            L'identifiant de l'arrêt de départ.
+     * @param departureTime
+     *            L'heure de départ.
+     * @param destinations
+     *            Les identifiants des arrêts de destination.
+     * @param travelTimes
+     *            Le tableau dans lequel écrire les durées.
+     * @param offset
+     *            L'indice de la durée vers la première destination.
+     */
+    void travelTimes(int start, int departureTime, int[] destinations,
+            int[] travelTimes, int offset) {
+        SearchWorkspace workspace = SearchWorkspace.acquire(m_stopIndex.size());
+        try {
+            StopSet remaining = workspace.marked();
+            for (int d : destinations) {
+                remaining.add(d);
+            }
+            int visited = 0;
 
-        while (!V.isEmpty()) {
-            minArrival = SecondsPastMidnight.INFINITE;
-            stopToVisit = null;
-            for (Stop i : V) {// recherche de l'arrêt à visiter
-                if (pathBuilder.arrivalTime(i) <= minArrival) {
-                    minArrival = pathBuilder.arrivalTime(i);
-                    stopToVisit = i;
+            workspace.setArrivalTime(start, departureTime, -1);
+            IndexedMinHeap toVisit = workspace.heap();
+            toVisit.insertOrDecrease(start, departureTime);
+            while (!toVisit.isEmpty() && visited < remaining.size()) {
+                int visitTime = toVisit.minKey();
+                int stopToVisit = toVisit.pollMin();
+                if (remaining.contains(stopToVisit))
+                    visited++;
+
+                for (int e = m_edgeOffsets[stopToVisit]; e < m_edgeOffsets[stopToVisit + 1]; e++) {
+                    int arrivalTime = edgeArrivalTime(e, visitTime);
+                    int destination = m_edgeDestinations[e];
+                    if (arrivalTime < workspace.arrivalTime(destination)) {
+                        workspace.setArrivalTime(destination, arrivalTime,
+                                stopToVisit);
+                        toVisit.insertOrDecrease(destination, arrivalTime);
+                    }
                 }
             }
 
-            V.remove(stopToVisit);
-
-            if (pathBuilder.arrivalTime(stopToVisit) == SecondsPastMidnight.INFINITE) {// Si
-                // il
-                // n'y
-                // a
-                // plus
-                // de
-                // voisins
-                // à
-                // visiter
-                break;
+            for (int i = 0; i < destinations.length; i++) {
+                int arrivalTime = workspace.arrivalTime(destinations[i]);
+                if (arrivalTime == SecondsPastMidnight.INFINITE)
+                    travelTimes[offset + i] = SecondsPastMidnight.INFINITE;
+                else
+                    travelTimes[offset + i] = arrivalTime - departureTime;
             }
-            
-            if(m_outgoingEdges.get(stopToVisit) != null){
-                for (GraphEdge j : m_outgoingEdges.get(stopToVisit)) {// On
-                    // considére
-                    // les voisins
-                    // de l'arrêt
-                    // qu'on
-                    // visite
-                    if (j.earliestArrivalTime(pathBuilder.arrivalTime(stopToVisit)) < pathBuilder
-                            .arrivalTime(j.destination())
-                            && V.contains(j.destination())) {
-    
-                        pathBuilder.setArrivalTime(j.destination(), j
-                                .earliestArrivalTime(pathBuilder
-                                        .arrivalTime(stopToVisit)), stopToVisit);
-                    }
-                }
+        } finally {
+            workspace.release();
+        }
+    }
+
+    /**
+     * Retourne l'index des arrêts de ce graphe.
+     * 
+     * @return L'index des arrêts.
+     */
+    StopIndex stopIndex() {
+        return m_stopIndex;
+    }
+
+    /**
+     * Retourne l'indice du premier arc sortant de l'arrêt donné.
+     * 
+     * @param stop
+     *            L'identifiant de l'arrêt.
+     * @return L'indice du premier arc sortant.
+     */
+    int edgesBegin(int stop) {
+        return m_edgeOffsets[stop];
+    }
+
+    /**
+     * Retourne l'indice suivant celui du dernier arc sortant de l'arrêt donné.
+     * 
+     * @param stop
+     *            L'identifiant de l'arrêt.
+     * @return L'indice suivant le dernier arc sortant.
+     */
+    int edgesEnd(int stop) {
+        return m_edgeOffsets[stop + 1];
+    }
+
+    /**
+     * Retourne l'identifiant de l'arrêt d'arrivée de l'arc donné.
+     * 
+     * @param edge
+     *            L'indice de l'arc.
+     * @return L'identifiant de la destination de l'arc.
+     */
+    int edgeDestination(int edge) {
+        return m_edgeDestinations[edge];
+    }
+
+    /**
+     * Retourne l'heure d'arrivée au plus tôt en empruntant l'arc donné, à
+     * pied ou en TL.
+     * 
+     * @param edge
+     *            L'indice de l'arc.
+     * @param departureTime
+     *            L'heure de départ.
+     * @return La première heure d'arrivée possible, ou infini.
+     */
+    int edgeArrivalTime(int edge, int departureTime) {
+        int walkingTime = m_edgeWalkingTimes[edge];
+        EdgeTrips patch = patch(edge);
+        if (patch != null) {
+            return GraphEdge.earliestArrivalTime(patch.m_trips, 0,
+                    patch.m_trips.length, m_activeServices != null,
+                    walkingTime, departureTime);
+        }
+        return GraphEdge.earliestArrivalTime(m_trips, m_tripOffsets[edge],
+                m_tripOffsets[edge + 1], m_activeServices != null,
+                walkingTime, departureTime);
+    }
+
+    /**
+     * Retourne l'indice du premier trajet en TL de l'arc donné.
+     * 
+     * @param edge
+     *            L'indice de l'arc.
+     * @return L'indice du premier trajet de l'arc (voir packedTrip).
+     */
+    int edgeTripsBegin(int edge) {
+        return patch(edge) != null ? 0 : m_tripOffsets[edge];
+    }
+
+    /**
+     * Retourne l'indice suivant celui du dernier trajet en TL de l'arc donné.
+     * 
+     * @param edge
+     *            L'indice de l'arc.
+     * @return L'indice suivant le dernier trajet de l'arc.
+     */
+    int edgeTripsEnd(int edge) {
+        EdgeTrips patch = patch(edge);
+        return patch != null ? patch.m_trips.length : m_tripOffsets[edge + 1];
+    }
+
+    /**
+     * Retourne le trajet de l'arc donné ayant l'indice donné, sous sa forme
+     * encodée.
+     * 
+     * @param edge
+     *            L'indice de l'arc.
+     * @param trip
+     *            L'indice du trajet, compris entre edgeTripsBegin(edge) et
+     *            edgeTripsEnd(edge).
+     * @return Le trajet encodé (voir GraphEdge.packTrip).
+     */
+    int packedTrip(int edge, int trip) {
+        EdgeTrips patch = patch(edge);
+        return patch != null ? patch.m_trips[trip] : m_trips[trip];
+    }
+
+    /**
+     * Retourne l'identifiant du service du trajet de l'arc donné ayant
+     * l'indice donné.
+     * 
+     * @param edge
+     *            L'indice de l'arc.
+     * @param trip
+     *            L'indice du trajet.
+     * @return L'identifiant du service, 0 si le trajet est toujours actif.
+     */
+    int tripService(int edge, int trip) {
+        EdgeTrips patch = patch(edge);
+        return patch != null ? patch.m_services[trip] : m_tripServices[trip];
+    }
+
+    /**
+     * Retourne l'indice de l'arc allant d'un arrêt à un autre.
+     * 
+     * @param fromStop
+     *            L'identifiant de l'arrêt de départ.
+     * @param toStop
+     *            L'identifiant de l'arrêt d'arrivée.
+     * @return L'indice de l'arc, ou -1 s'il n'existe pas.
+     */
+    int edge(int fromStop, int toStop) {
+        // Les arcs sortant d'un arrêt sont triés par arrêt d'arrivée.
+        int index = Arrays.binarySearch(m_edgeDestinations,
+                m_edgeOffsets[fromStop], m_edgeOffsets[fromStop + 1], toStop);
+        return index < 0 ? -1 : index;
+    }
+
+    /**
+     * Retourne tous les trajets en TL de l'arc donné associés à leur service
+     * (voir GraphEdge.serviceTrip), y compris ceux qui sont dominés et ne
+     * sont donc pas empruntés.
+     * 
+     * @param edge
+     *            L'indice de l'arc.
+     * @return Un nouveau tableau des trajets de l'arc.
+     */
+    long[] edgeServiceTrips(int edge) {
+        EdgeTrips patch = patch(edge);
+        int begin = edgeTripsBegin(edge);
+        int count = edgeTripsEnd(edge) - begin;
+        int dominatedCount = patch != null ? patch.m_dominated.length
+                : m_dominatedOffsets[edge + 1] - m_dominatedOffsets[edge];
+        long[] trips = new long[count + dominatedCount];
+        for (int i = 0; i < count; i++) {
+            trips[i] = GraphEdge.serviceTrip(tripService(edge, begin + i),
+                    packedTrip(edge, begin + i));
+        }
+        for (int i = 0; i < dominatedCount; i++) {
+            if (patch != null) {
+                long trip = patch.m_dominated[i];
+                trips[count + i] = GraphEdge.serviceTrip((int) trip,
+                        (int) (trip >>> 32));
+            } else {
+                int trip = m_dominatedOffsets[edge] + i;
+                trips[count + i] = GraphEdge.serviceTrip(
+                        m_dominatedServices[trip], m_dominatedTrips[trip]);
             }
+        }
+        return trips;
+    }
 
+    /**
+     * Retourne une nouvelle version de ce graphe dans laquelle les trajets en
+     * TL des arcs donnés sont remplacés. Ce graphe n'est pas modifié : la
+     * nouvelle version partage ses tableaux, ainsi que les blocs d'arcs
+     * modifiés qui ne sont pas touchés ; seuls les blocs contenant un arc
+     * donné sont copiés. Les services actifs sont ceux de ce graphe.
+     * 
+     * @param edgeTrips
+     *            Les nouveaux trajets associés à leur service (voir
+     *            GraphEdge.serviceTrip), par indice d'arc. Les trajets
+     *            dominés ne sont pas empruntés, mais restent disponibles pour
+     *            les versions suivantes (voir edgeServiceTrips).
+     * @return La nouvelle version du graphe.
+     */
+    Graph withPatchedTrips(Map<Integer, long[]> edgeTrips) {
+        int blockCount = (m_edgeDestinations.length + PATCH_BLOCK - 1)
+                / PATCH_BLOCK;
+        EdgeTrips[][] patches = m_patches == null ? new EdgeTrips[blockCount][]
+                : m_patches.clone();
+        boolean[] copied = new boolean[blockCount];
+        int tripCount = m_tripCount;
+
+        for (Map.Entry<Integer, long[]> i : edgeTrips.entrySet()) {
+            int edge = i.getKey();
+            int block = edge / PATCH_BLOCK;
+            if (!copied[block]) {
+                patches[block] = patches[block] == null ? new EdgeTrips[PATCH_BLOCK]
+                        : patches[block].clone();
+                copied[block] = true;
+            }
+            tripCount -= edgeTripsEnd(edge) - edgeTripsBegin(edge);
+            EdgeTrips trips = new EdgeTrips(i.getValue(), m_activeServices);
+            patches[block][edge % PATCH_BLOCK] = trips;
+            tripCount += trips.m_trips.length;
         }
 
-        return pathBuilder.build();
+        return new Graph(m_stopIndex, m_edgeOffsets, m_edgeDestinations,
+                m_edgeWalkingTimes, m_tripOffsets, m_trips, m_tripServices,
+                m_dominatedOffsets, m_dominatedTrips, m_dominatedServices,
+                m_services, m_activeServices, patches, tripCount);
+    }
+
+    /**
+     * Retourne les tableaux de la représentation compacte du graphe : indices
+     * des arcs, destinations et temps de marche des arcs, indices des
+     * trajets, trajets et services des trajets, puis indices, trajets et
+     * services des trajets dominés. Les tableaux ne sont pas copiés.
+     * 
+     * @return Les COMPILED_ARRAYS tableaux.
+     * @throws IllegalStateException
+     *             Si des trajets du graphe ont été remplacés (voir
+     *             withPatchedTrips) ou s'il est restreint à certains services
+     *             (voir forServices).
+     */
+    int[][] compiledArrays() {
+        if (m_patches != null) {
+            throw new IllegalStateException(
+                    "Error : Graphe modifié par des mises à jour !");
+        }
+        if (m_activeServices != null) {
+            throw new IllegalStateException(
+                    "Error : Graphe restreint à certains services !");
+        }
+        return new int[][] { m_edgeOffsets, m_edgeDestinations,
+                m_edgeWalkingTimes, m_tripOffsets, m_trips, m_tripServices,
+                m_dominatedOffsets, m_dominatedTrips, m_dominatedServices };
+    }
+
+    /**
+     * Retourne les services des trajets, indexés par leur identifiant.
+     * 
+     * @return La liste des services, le premier étant null.
+     */
+    List<Service> services() {
+        return m_services;
+    }
+
+    /**
+     * Retourne le nombre total de trajets en TL du graphe.
+     * 
+     * @return Le nombre de trajets.
+     */
+    int tripCount() {
+        return m_tripCount;
+    }
+
+    private EdgeTrips patch(int edge) {
+        if (m_patches == null)
+            return null;
+        EdgeTrips[] block = m_patches[edge / PATCH_BLOCK];
+        return block == null ? null : block[edge % PATCH_BLOCK];
+    }
+
+    /**
+     * Trajets non dominés d'un arc modifié, triés par heure de départ (voir
+     * GraphEdge.undominatedTrips, ou GraphEdge.undominatedActiveTrips si
+     * seuls certains services sont actifs), et leur service, ainsi que ses
+     * autres trajets (voir GraphEdge.dominatedTrips).
+     */
+    private static final class EdgeTrips {
+
+        private final int[] m_trips;
+        private final int[] m_services;
+        private final long[] m_dominated;
+
+        EdgeTrips(long[] serviceTrips, long[] activeServices) {
+            long[] undominatedTrips = activeServices == null ? GraphEdge
+                    .undominatedTrips(serviceTrips) : GraphEdge
+                    .undominatedActiveTrips(serviceTrips, activeServices);
+            m_trips = new int[undominatedTrips.length];
+            m_services = new int[undominatedTrips.length];
+            for (int i = 0; i < undominatedTrips.length; i++) {
+                m_trips[i] = (int) (undominatedTrips[i] >>> 32);
+                m_services[i] = (int) undominatedTrips[i];
+            }
+            m_dominated = GraphEdge.dominatedTrips(serviceTrips,
+                    undominatedTrips);
+        }
+    }
+
+    /**
+     * Applique les trajets à pied depuis les arrêts de l'ensemble donné, dans
+     * l'espace de travail donné, en enchaînant les trajets à pied successifs
+     * dans l'ordre des heures d'arrivée (Dijkstra restreint aux arcs à pied).
+     * 
+     * @param workspace
+     *            L'espace de travail de la recherche.
+     * @param improved
+     *            Les arrêts depuis lesquels marcher. Les arrêts améliorés à
+     *            pied y sont ajoutés.
+     */
+    void walkFrom(SearchWorkspace workspace, StopSet improved) {
+        IndexedMinHeap toVisit = workspace.heap();
+        for (int i = 0; i < improved.size(); i++) {
+            toVisit.insertOrDecrease(improved.get(i),
+                    workspace.arrivalTime(improved.get(i)));
+        }
+
+        while (!toVisit.isEmpty()) {
+            int time = toVisit.minKey();
+            int stop = toVisit.pollMin();
+            for (int e = m_edgeOffsets[stop]; e < m_edgeOffsets[stop + 1]; e++) {
+                int walkingTime = m_edgeWalkingTimes[e];
+                int destination = m_edgeDestinations[e];
+                if (walkingTime != -1
+                        && time + walkingTime < workspace.arrivalTime(destination)) {
+                    workspace.setArrivalTime(destination, time + walkingTime,
+                            stop);
+                    toVisit.insertOrDecrease(destination, time + walkingTime);
+                    improved.add(destination);
+                }
+            }
+        }
     }
 
     /**
@@ -141,8 +712,13 @@ public final class Graph {
      */
     public static final class Builder {
 
+        // Rayon de la Terre utilisé par PointWGS84.distanceTo, en mètres.
+        private static final double EARTH_RADIUS = 6378137;
+
         private final Set<Stop> m_builderStops;
         private final Map<Stop, Map<Stop, GraphEdge.Builder>> m_builderGraphBuilders;
+        private final List<Service> m_builderServices;
+        private final Map<Service, Integer> m_builderServiceIds;
 
         /**
          * Construit le bâtisseur de Graph grâce aux arrêts qui lui sont passés
@@ -154,6 +730,9 @@ public final class Graph {
             m_builderStops = new HashSet<>(stops);
             //m_builderOutgoingEdges = new HashMap<>();
             m_builderGraphBuilders = new HashMap<>();
+            m_builderServices = new ArrayList<>();
+            m_builderServices.add(null);
+            m_builderServiceIds = new HashMap<>();
 
         }
 
@@ -199,6 +778,55 @@ public final class Graph {
             return this;
         }
 
+        /**
+         * Ajoute un trajet en TL d'un service donné au Graph. Le trajet n'est
+         * emprunté que si son service est actif (voir Graph.forServices).
+         * 
+         * @param fromStop
+         *            L'arrêt de départ.
+         * @param toStop
+         *            L'arrêt d'arrivée.
+         * @param departureTime
+         *            L'heure de départ.
+         * @param arrivalTime
+         *            L'heure d'arrivée.
+         * @param service
+         *            Le service du trajet.
+         * @return Cette instance du bâtisseur après y avoir ajouté l'arc.
+         * @throws IllegalArgumentException
+         *             Dans les mêmes cas que addTripEdge sans service.
+         */
+        public Builder addTripEdge(Stop fromStop, Stop toStop,
+                int departureTime, int arrivalTime, Service service) {
+            if (service == null) {
+                return addTripEdge(fromStop, toStop, departureTime,
+                        arrivalTime);
+            }
+            if (!m_builderStops.contains(fromStop)
+                    || !m_builderStops.contains(toStop)) {
+                throw new IllegalArgumentException(
+                        "Error: Les arrêts ne se trouvent pas dans cette instance de Builder !");
+            }
+            if (departureTime < 0 || arrivalTime < 0) {
+                throw new IllegalArgumentException(
+                        "Error: Heure(s) négative(s) !");
+            }
+            if (departureTime > arrivalTime) {
+                throw new IllegalArgumentException(
+                        "Error: Heure d'arrivée antérieure à l'heure d'arrivée !");
+            }
+
+            Integer serviceId = m_builderServiceIds.get(service);
+            if (serviceId == null) {
+                serviceId = m_builderServices.size();
+                m_builderServices.add(service);
+                m_builderServiceIds.put(service, serviceId);
+            }
+            this.getBuilder(fromStop, toStop).addTrip(departureTime,
+                    arrivalTime, serviceId);
+            return this;
+        }
+
         /**
          * Ajoute tout les arcs (marche à pied) au Graph pour tout les arrêts de
          * ce bâtisseur, en lui passant en argument le temps maximum de marche
@@ -229,43 +857,194 @@ public final class Graph {
             double distanceTo = 0.0;
             ArrayList<Stop> stopList = new ArrayList<>(m_builderStops);
 
+            // Répartition des arrêts dans une grille dont les cellules sont
+            // plus grandes que la distance maximale de marche : deux arrêts
+            // assez proches sont dans la même cellule ou dans des cellules
+            // voisines. Les distances étant arrondies, une marge d'un mètre
+            // est ajoutée. La largeur des cellules en longitude est celle de
+            // la latitude la plus éloignée de l'équateur que peut atteindre
+            // un chemin de cette longueur.
+            double cellDistance = maxDistance + 1;
+            double cellHeight = cellDistance / EARTH_RADIUS;
+            double maxLatitude = 0.0;
+            for (Stop i : stopList) {
+                maxLatitude = Math.max(maxLatitude,
+                        Math.abs(i.position().latitude()));
+            }
+            maxLatitude += cellHeight;
+            double cellWidth = maxLatitude < Math.PI / 2 ? cellHeight
+                    / Math.cos(maxLatitude) : Double.POSITIVE_INFINITY;
+
+            int[] cellX = new int[stopList.size()];
+            int[] cellY = new int[stopList.size()];
+            Map<Long, List<Integer>> cells = new HashMap<>();
             for (int i = 0; i < stopList.size(); i++) {
-                for (int j = i + 1; j < stopList.size(); j++) {
-                    distanceTo = Math.round(stopList.get(i).position()
-                            .distanceTo(stopList.get(j).position()));
-                    if (distanceTo <= maxDistance) {
-                        int walkTime = ((int) (Math.round(distanceTo / walkingSpeed)));
+                cellX[i] = (int) Math.floor(stopList.get(i).position()
+                        .longitude() / cellWidth);
+                cellY[i] = (int) Math.floor(stopList.get(i).position()
+                        .latitude() / cellHeight);
+                Long key = cellKey(cellX[i], cellY[i]);
+                List<Integer> cell = cells.get(key);
+                if (cell == null) {
+                    cell = new ArrayList<>();
+                    cells.put(key, cell);
+                }
+                cell.add(i);
+            }
 
-                        this.getBuilder(stopList.get(i), stopList.get(j))
-                        .setWalkingTime(walkTime);
+            for (int i = 0; i < stopList.size(); i++) {
+                for (int dx = -1; dx <= 1; dx++) {
+                    for (int dy = -1; dy <= 1; dy++) {
+                        List<Integer> cell = cells.get(cellKey(cellX[i] + dx,
+                                cellY[i] + dy));
+                        if (cell == null)
+                            continue;
+                        for (int j : cell) {
+                            // Chaque paire n'est considérée qu'une fois.
+                            if (j <= i)
+                                continue;
+                            distanceTo = Math.round(stopList.get(i).position()
+                                    .distanceTo(stopList.get(j).position()));
+                            if (distanceTo <= maxDistance) {
+                                int walkTime = ((int) (Math.round(distanceTo / walkingSpeed)));
+
+                                this.getBuilder(stopList.get(i), stopList.get(j))
+                                .setWalkingTime(walkTime);
 
-                        this.getBuilder(stopList.get(j), stopList.get(i))
-                        .setWalkingTime(walkTime);
+                                this.getBuilder(stopList.get(j), stopList.get(i))
+                                .setWalkingTime(walkTime);
+                            }
+                        }
                     }
                 }
             }
             return this;
         }
 
+        private static Long cellKey(int x, int y) {
+            return ((long) x << 32) | (y & 0xFFFFFFFFL);
+        }
+
         /**
-         * Construit le Graph auquel est associé ce builder.
+         * Construit le Graph auquel est associé ce builder. Les arrêts y
+         * reçoivent un identifiant entier et les arcs sont stockés dans des
+         * tableaux d'entiers contigus, triés par arrêt de départ.
          * 
          * @return L'instance de Graph auquel se rattache ce builder.
          */
         public Graph build() {
-            List<GraphEdge> arc = new ArrayList<GraphEdge>();
-            Map<Stop, GraphEdge.Builder> tmp;
-            Map<Stop, List<GraphEdge>> builderOutgoingEdges = new HashMap<>();
-            for (Stop i : m_builderGraphBuilders.keySet()) {
-                tmp = m_builderGraphBuilders.get(i);
-                for (Stop j : tmp.keySet()) {// construction des Builders
-                    arc.add(tmp.get(j).build());
+            return compile(m_builderStops, m_builderGraphBuilders,
+                    m_builderServices);
+        }
+
+        /**
+         * Construit le graphe inverse de celui auquel est associé ce builder,
+         * utilisé pour les recherches en heure d'arrivée. Chaque arc y est
+         * rattaché à son arrêt d'arrivée et pointe vers son arrêt de départ,
+         * et les heures des trajets sont mises en miroir (voir
+         * ReverseGraph.MIRROR_TIME) : les trajets d'un arc inverse sont donc
+         * triés par heure d'arrivée décroissante dans le graphe d'origine.
+         * 
+         * @return Le graphe inverse.
+         */
+        public ReverseGraph buildReverse() {
+            Map<Stop, Map<Stop, GraphEdge.Builder>> reversed = new HashMap<>();
+            for (Map.Entry<Stop, Map<Stop, GraphEdge.Builder>> i : m_builderGraphBuilders
+                    .entrySet()) {
+                for (Map.Entry<Stop, GraphEdge.Builder> j : i.getValue()
+                        .entrySet()) {
+                    Map<Stop, GraphEdge.Builder> incoming = reversed.get(j
+                            .getKey());
+                    if (incoming == null) {
+                        incoming = new HashMap<>();
+                        reversed.put(j.getKey(), incoming);
+                    }
+                    incoming.put(i.getKey(), j.getValue().mirror(i.getKey(),
+                            ReverseGraph.MIRROR_TIME));
                 }
-                builderOutgoingEdges.put(i, new ArrayList<>(arc));
-                arc.clear();
             }
+            return new ReverseGraph(compile(m_builderStops, reversed,
+                    m_builderServices));
+        }
+
+        private static Graph compile(Set<Stop> stops,
+                Map<Stop, Map<Stop, GraphEdge.Builder>> graphBuilders,
+                List<Service> services) {
+            StopIndex stopIndex = new StopIndex(stops);
+            int stopCount = stopIndex.size();
+
+            // Construction des arcs, triés par arrêt de départ puis par
+            // arrêt d'arrivée.
+            int[] edgeOffsets = new int[stopCount + 1];
+            List<GraphEdge> edges = new ArrayList<>();
+            int tripCount = 0;
+            int dominatedCount = 0;
+            for (int i = 0; i < stopCount; i++) {
+                edgeOffsets[i] = edges.size();
+                Map<Stop, GraphEdge.Builder> tmp = graphBuilders.get(stopIndex
+                        .stop(i));
+                if (tmp != null) {
+                    List<GraphEdge> outgoing = new ArrayList<>();
+                    for (GraphEdge.Builder j : tmp.values()) {
+                        outgoing.add(j.build());
+                    }
+                    Collections.sort(outgoing, destinationOrder(stopIndex));
+                    for (GraphEdge j : outgoing) {
+                        tripCount += j.packedTrips().length;
+                        dominatedCount += j.dominatedTrips().length;
+                    }
+                    edges.addAll(outgoing);
+                }
+            }
+            edgeOffsets[stopCount] = edges.size();
 
-            return new Graph(unmodifiableSet(m_builderStops), unmodifiableMap(builderOutgoingEdges));
+            int[] edgeDestinations = new int[edges.size()];
+            int[] edgeWalkingTimes = new int[edges.size()];
+            int[] tripOffsets = new int[edges.size() + 1];
+            int[] trips = new int[tripCount];
+            int[] tripServices = new int[tripCount];
+            int[] dominatedOffsets = new int[edges.size() + 1];
+            int[] dominatedTrips = new int[dominatedCount];
+            int[] dominatedServices = new int[dominatedCount];
+            int t = 0;
+            int d = 0;
+            for (int e = 0; e < edges.size(); e++) {
+                GraphEdge edge = edges.get(e);
+                edgeDestinations[e] = stopIndex.id(edge.destination());
+                edgeWalkingTimes[e] = edge.walkingTime();
+                tripOffsets[e] = t;
+                int[] packedTrips = edge.packedTrips();
+                System.arraycopy(packedTrips, 0, trips, t, packedTrips.length);
+                System.arraycopy(edge.tripServices(), 0, tripServices, t,
+                        packedTrips.length);
+                t += packedTrips.length;
+
+                dominatedOffsets[e] = d;
+                for (long i : edge.dominatedTrips()) {
+                    dominatedTrips[d] = (int) (i >>> 32);
+                    dominatedServices[d] = (int) i;
+                    d++;
+                }
+            }
+            tripOffsets[edges.size()] = t;
+            dominatedOffsets[edges.size()] = d;
+
+            // Tous les services sont actifs dans le graphe construit.
+            return new Graph(stopIndex, edgeOffsets, edgeDestinations,
+                    edgeWalkingTimes, tripOffsets, trips, tripServices,
+                    dominatedOffsets, dominatedTrips, dominatedServices,
+                    Collections.unmodifiableList(new ArrayList<>(services)),
+                    null, null, trips.length);
+        }
+
+        private static Comparator<GraphEdge> destinationOrder(
+                final StopIndex stopIndex) {
+            return new Comparator<GraphEdge>() {
+                public int compare(GraphEdge a, GraphEdge b) {
+                    return Integer.compare(stopIndex.id(a.destination()),
+                            stopIndex.id(b.destination()));
+                }
+            };
         }
 
         private GraphEdge.Builder getBuilder(Stop fromStop, Stop toStop) {
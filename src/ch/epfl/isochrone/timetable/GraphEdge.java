@@ -7,6 +7,7 @@
 
 package ch.epfl.isochrone.timetable;
 
+import java.util.Arrays;
 import java.util.Set;
 import java.util.HashSet;
 
@@ -14,7 +15,12 @@ final class GraphEdge {
 
     private final Stop m_destination;
     private final int m_walkingTime;
-    private final Set<Integer> m_packedTrips;
+    private final int[] m_packedTrips;
+    private final int[] m_tripServices;
+    // Trajets dominés (voir undominatedTrips), sous la même forme que ceux
+    // de undominatedTrips. Ils ne servent qu'aux mises à jour en temps réel
+    // (voir Graph.withPatchedTrips).
+    private final long[] m_dominatedTrips;
 
     /**
      * Construit une instance de la classe GraphEdge.
@@ -25,19 +31,235 @@ final class GraphEdge {
      *            Temps nécéssaire pour arriver a destination a pied. Vaut -1
      *            quand c'est impossible (trop loin).
      * @param packedTrips
-     *            Collection regroupant tous les trajets de cet arc.
+     *            Collection regroupant tous les trajets de cet arc. Seuls les
+     *            trajets non dominés sont conservés (voir
+     *            undominatedTrips).
      * @throws IllegalArgumentException
      *             Si le temps de marche est inférieur à -1.
      */
 
     public GraphEdge(Stop destination, int walkingTime, Set<Integer> packedTrips) {
+        this(destination, walkingTime, serviceTrips(packedTrips));
+    }
+
+    /**
+     * Construit une instance de la classe GraphEdge dont les trajets sont
+     * associés à un service (voir serviceTrip).
+     * 
+     * @param destination
+     *            Représente la destination de l'arc du graphe.
+     * @param walkingTime
+     *            Temps nécéssaire pour arriver a destination a pied, ou -1.
+     * @param serviceTrips
+     *            Les trajets de cet arc et leur service.
+     * @throws IllegalArgumentException
+     *             Si le temps de marche est inférieur à -1.
+     */
+    private GraphEdge(Stop destination, int walkingTime, long[] serviceTrips) {
         if (walkingTime < -1)
             throw new IllegalArgumentException(
                     "Erreur : temps de marche invalide.");
 
         m_destination = destination;
         m_walkingTime = walkingTime;
-        m_packedTrips = new HashSet<>(packedTrips);
+        long[] trips = undominatedTrips(serviceTrips);
+        m_packedTrips = new int[trips.length];
+        m_tripServices = new int[trips.length];
+        for (int i = 0; i < trips.length; i++) {
+            m_packedTrips[i] = (int) (trips[i] >>> 32);
+            m_tripServices[i] = (int) trips[i];
+        }
+        m_dominatedTrips = dominatedTrips(serviceTrips, trips);
+    }
+
+    private static long[] serviceTrips(Set<Integer> packedTrips) {
+        long[] serviceTrips = new long[packedTrips.size()];
+        int n = 0;
+        for (Integer i : packedTrips) {
+            serviceTrips[n++] = serviceTrip(0, i);
+        }
+        return serviceTrips;
+    }
+
+    /**
+     * Associe un trajet encodé à l'identifiant de son service dans un entier
+     * long, le service occupant les 32 bits de poids fort. L'identifiant 0
+     * désigne les trajets qui ne dépendent d'aucun service.
+     * 
+     * @param serviceId
+     *            L'identifiant du service.
+     * @param packedTrip
+     *            Le trajet sous sa forme encodée.
+     * @return Le trajet associé à son service.
+     */
+    static long serviceTrip(int serviceId, int packedTrip) {
+        return ((long) serviceId << 32) | packedTrip;
+    }
+
+    /**
+     * Retourne les trajets passés en argument, après avoir retiré ceux qui
+     * sont dominés par un trajet du même service. Un trajet est dominé par un
+     * autre si ce dernier part au plus tôt en même temps et arrive au plus
+     * tard en même temps. Un trajet ne peut être dominé par celui d'un autre
+     * service, qui ne circule pas forcément les mêmes jours.
+     * 
+     * Les trajets retournés ont le trajet encodé dans les 32 bits de poids
+     * fort et le service dans les autres ; ils sont donc triés par heure de
+     * départ, puis par durée, puis par service.
+     * 
+     * @param serviceTrips
+     *            Les trajets associés à leur service (voir serviceTrip).
+     * @return Le tableau trié des trajets non dominés.
+     */
+    static long[] undominatedTrips(long[] serviceTrips) {
+        long[] sorted = Arrays.copyOf(serviceTrips, serviceTrips.length);
+        // Le service étant dans les bits de poids fort, le tri regroupe les
+        // trajets par service, triés par heure de départ puis par durée.
+        Arrays.sort(sorted);
+        int[] trips = new int[sorted.length];
+        for (int i = 0; i < sorted.length; i++) {
+            trips[i] = (int) sorted[i];
+        }
+
+        long[] undominated = new long[sorted.length];
+        int n = 0;
+        int begin = 0;
+        while (begin < sorted.length) {
+            int service = (int) (sorted[begin] >>> 32);
+            int end = begin;
+            while (end < sorted.length && (int) (sorted[end] >>> 32) == service)
+                end++;
+            for (int i = undominated(trips, begin, end); i < end; i++) {
+                undominated[n++] = ((long) trips[i] << 32) | service;
+            }
+            begin = end;
+        }
+        Arrays.sort(undominated, 0, n);
+        return Arrays.copyOf(undominated, n);
+    }
+
+    /**
+     * Retourne les trajets passés en argument qui ne font pas partie des
+     * trajets non dominés donnés, sous la même forme et dans le même ordre
+     * que ceux-ci. Un trajet présent plusieurs fois n'est retiré qu'une fois.
+     * 
+     * @param serviceTrips
+     *            Les trajets associés à leur service (voir serviceTrip).
+     * @param undominatedTrips
+     *            Les trajets non dominés parmi ceux-ci (voir
+     *            undominatedTrips).
+     * @return Le tableau trié des trajets dominés.
+     */
+    static long[] dominatedTrips(long[] serviceTrips, long[] undominatedTrips) {
+        long[] sorted = new long[serviceTrips.length];
+        for (int i = 0; i < sorted.length; i++) {
+            // trajet dans les 32 bits de poids fort, service dans les autres
+            sorted[i] = (serviceTrips[i] << 32) | (serviceTrips[i] >>> 32);
+        }
+        Arrays.sort(sorted);
+
+        long[] dominated = new long[sorted.length];
+        int n = 0;
+        int j = 0;
+        for (long i : sorted) {
+            while (j < undominatedTrips.length && undominatedTrips[j] < i)
+                j++;
+            if (j < undominatedTrips.length && undominatedTrips[j] == i)
+                j++;
+            else
+                dominated[n++] = i;
+        }
+        return Arrays.copyOf(dominated, n);
+    }
+
+    /**
+     * Retourne les trajets passés en argument dont le service est actif,
+     * après avoir retiré ceux qui sont dominés par un autre trajet actif.
+     * Contrairement à undominatedTrips, un trajet peut être dominé par celui
+     * d'un autre service, puisque tous circulent le même jour : les heures de
+     * départ et d'arrivée des trajets retournés sont strictement croissantes.
+     *
+     * @param serviceTrips
+     *            Les trajets associés à leur service (voir serviceTrip).
+     * @param activeServices
+     *            L'ensemble des services actifs (voir isActive).
+     * @return Le tableau trié des trajets gardés, sous la même forme que
+     *         ceux retournés par undominatedTrips.
+     */
+    static long[] undominatedActiveTrips(long[] serviceTrips,
+            long[] activeServices) {
+        long[] sorted = new long[serviceTrips.length];
+        int n = 0;
+        for (long i : serviceTrips) {
+            if (isActive(activeServices, (int) (i >>> 32)))
+                sorted[n++] = (i << 32) | (i >>> 32);
+        }
+        Arrays.sort(sorted, 0, n);
+
+        // Même parcours que undominated, le service suivant le trajet.
+        int kept = n;
+        int minArrival = Integer.MAX_VALUE;
+        for (int i = n - 1; i >= 0; i--) {
+            int trip = (int) (sorted[i] >>> 32);
+            int arrival = unpackTripArrivalTime(trip);
+            if (arrival < minArrival) {
+                if (kept < n
+                        && unpackTripDepartureTime((int) (sorted[kept] >>> 32)) == unpackTripDepartureTime(trip)) {
+                    sorted[kept] = sorted[i];
+                } else {
+                    sorted[--kept] = sorted[i];
+                }
+                minArrival = arrival;
+            }
+        }
+        return Arrays.copyOfRange(sorted, kept, n);
+    }
+
+    /**
+     * Retourne le trajet encodé dont les heures sont symétriques de celles du
+     * trajet donné par rapport à l'heure miroir donnée : un trajet partant à
+     * d et arrivant à a devient un trajet partant à mirrorTime - a et
+     * arrivant à mirrorTime - d. La durée est conservée ; l'heure de départ
+     * peut dépasser 107999, ce que packTrip refuserait.
+     * 
+     * @param packedTrip
+     *            Le trajet sous sa forme encodée.
+     * @param mirrorTime
+     *            L'heure miroir, supérieure ou égale à l'heure d'arrivée du
+     *            trajet.
+     * @return Le trajet mis en miroir, sous sa forme encodée.
+     */
+    static int mirrorTrip(int packedTrip, int mirrorTime) {
+        return (mirrorTime - unpackTripArrivalTime(packedTrip)) * 10000
+                + unpackTripDuration(packedTrip);
+    }
+
+    /**
+     * Retire les trajets dominés de la plage [begin; end[ d'un tableau de
+     * trajets encodés triés, en regroupant les trajets gardés à la fin de la
+     * plage. Leurs heures de départ et d'arrivée sont strictement croissantes.
+     * 
+     * @return L'indice du premier trajet gardé.
+     */
+    private static int undominated(int[] sorted, int begin, int end) {
+        // Parcours depuis le dernier départ en ne gardant que les trajets qui
+        // arrivent strictement avant tous les trajets partant plus tard.
+        int kept = end;
+        int minArrival = Integer.MAX_VALUE;
+        for (int i = end - 1; i >= begin; i--) {
+            int arrival = unpackTripArrivalTime(sorted[i]);
+            if (arrival < minArrival) {
+                if (kept < end
+                        && unpackTripDepartureTime(sorted[kept]) == unpackTripDepartureTime(sorted[i])) {
+                    // Même départ qu'un trajet plus long déjà gardé.
+                    sorted[kept] = sorted[i];
+                } else {
+                    sorted[--kept] = sorted[i];
+                }
+                minArrival = arrival;
+            }
+        }
+        return kept;
     }
 
     /**
@@ -117,36 +339,122 @@ final class GraphEdge {
      * @return La première heure d'arrivée possible
      */
     public int earliestArrivalTime(int departureTime) {
+        return earliestArrivalTime(m_packedTrips, 0, m_packedTrips.length,
+                false, m_walkingTime, departureTime);
+    }
 
-        int lastDeparture = -1;
+    /**
+     * Retourne le temps de marche de cet arc.
+     * 
+     * @return Le temps de marche, ou -1 si l'arc ne peut pas être parcouru à
+     *         pied.
+     */
+    int walkingTime() {
+        return m_walkingTime;
+    }
 
-        for (Integer i : m_packedTrips) { // recherche de la dernière heure de départ en TL
-            if (unpackTripDepartureTime(i) > lastDeparture)
-                lastDeparture = unpackTripDepartureTime(i);
-        }
+    /**
+     * Retourne le tableau trié des trajets non dominés de cet arc. Le tableau
+     * n'est pas copié et ne doit donc pas être modifié.
+     * 
+     * @return Les trajets de cet arc sous leur forme encodée.
+     */
+    int[] packedTrips() {
+        return m_packedTrips;
+    }
 
-        if (departureTime > lastDeparture && m_walkingTime == -1)
-            return SecondsPastMidnight.INFINITE;
-        else {
-            int arrivalTimeWalk = departureTime + m_walkingTime;
-            int arrivalTimeTL = SecondsPastMidnight.INFINITE;
+    /**
+     * Retourne les identifiants des services des trajets de cet arc, dans le
+     * même ordre que packedTrips(). Le tableau n'est pas copié.
+     * 
+     * @return Les identifiants des services.
+     */
+    int[] tripServices() {
+        return m_tripServices;
+    }
 
-            for (Integer i : m_packedTrips) {// recherche de l'heure d'arrivée
-                if (unpackTripDepartureTime(i) >= departureTime
-                        && unpackTripArrivalTime(i) < arrivalTimeTL)
-                    arrivalTimeTL = unpackTripArrivalTime(i);
-            }
+    /**
+     * Retourne les trajets de cet arc dominés par un autre trajet du même
+     * service (voir dominatedTrips). Le tableau n'est pas copié.
+     * 
+     * @return Les trajets dominés, trajet encodé dans les 32 bits de poids
+     *         fort et service dans les autres.
+     */
+    long[] dominatedTrips() {
+        return m_dominatedTrips;
+    }
 
-            if (m_walkingTime == -1)
-                return arrivalTimeTL;
-            else {
-                if (arrivalTimeWalk <= arrivalTimeTL)
-                    return arrivalTimeWalk;
-                else
-                    return arrivalTimeTL;
-            }
+    /**
+     * Retourne vrai si le service donné est actif dans l'ensemble de services
+     * donné, représenté par un tableau de bits (le service i est actif si le
+     * bit i % 64 du mot i / 64 vaut 1). Un ensemble null contient tous les
+     * services.
+     * 
+     * @param activeServices
+     *            L'ensemble des services actifs, ou null.
+     * @param serviceId
+     *            L'identifiant du service.
+     * @return Vrai si le service est actif, faux sinon.
+     */
+    static boolean isActive(long[] activeServices, int serviceId) {
+        return activeServices == null
+                || (activeServices[serviceId >>> 6] & (1L << serviceId)) != 0;
+    }
+
+    /**
+     * Calcule l'heure d'arrivée au plus tôt pour un arc dont les trajets
+     * occupent la plage [begin; end[ d'un tableau de trajets triés par heure
+     * de départ (voir undominatedTrips).
+     * 
+     * @param packedTrips
+     *            Le tableau contenant les trajets de l'arc.
+     * @param begin
+     *            L'indice du premier trajet de l'arc.
+     * @param end
+     *            L'indice suivant celui du dernier trajet de l'arc.
+     * @param undominated
+     *            Vrai si aucun trajet de la plage n'en domine un autre, quel
+     *            que soit son service (voir undominatedActiveTrips) : le
+     *            premier départ suffit alors.
+     * @param walkingTime
+     *            Le temps de marche de l'arc, ou -1.
+     * @param departureTime
+     *            L'heure de départ.
+     * @return La première heure d'arrivée possible.
+     */
+    static int earliestArrivalTime(int[] packedTrips, int begin, int end,
+            boolean undominated, int walkingTime, int departureTime) {
+        int arrivalTimeWalk = walkingTime == -1 ? SecondsPastMidnight.INFINITE
+                : departureTime + walkingTime;
+
+        // Recherche dichotomique du premier départ en TL à partir de
+        // departureTime.
+        int low = begin;
+        int high = end;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (unpackTripDepartureTime(packedTrips[middle]) < departureTime)
+                low = middle + 1;
+            else
+                high = middle;
+        }
+        if (undominated) {
+            if (low == end)
+                return arrivalTimeWalk;
+            return Math.min(arrivalTimeWalk,
+                    unpackTripArrivalTime(packedTrips[low]));
         }
 
+        // Les trajets de services différents ne se dominant pas, on parcourt
+        // les départs suivants tant qu'ils peuvent encore arriver plus tôt,
+        // en TL comme à pied.
+        int arrivalTime = arrivalTimeWalk;
+        for (int i = low; i < end
+                && unpackTripDepartureTime(packedTrips[i]) < arrivalTime; i++) {
+            arrivalTime = Math.min(arrivalTime,
+                    unpackTripArrivalTime(packedTrips[i]));
+        }
+        return arrivalTime;
     }
 
     /**
@@ -159,7 +467,7 @@ final class GraphEdge {
 
         private int m_builderWalkingTime;
         private final Stop m_builderDestination;
-        private final Set<Integer> m_builderPackedTrips;
+        private final Set<Long> m_builderServiceTrips;
 
         /**
          * Constructeur du builder de la classe GraphEdge.
@@ -170,7 +478,7 @@ final class GraphEdge {
         public Builder(Stop destination) {
             m_builderDestination = destination;
             m_builderWalkingTime = -1;
-            m_builderPackedTrips = new HashSet<>();
+            m_builderServiceTrips = new HashSet<>();
         }
 
         /**
@@ -209,19 +517,70 @@ final class GraphEdge {
          *             méthode packTrip pour plus de détail.
          */
         public GraphEdge.Builder addTrip(int departureTime, int arrivalTime) {
-            m_builderPackedTrips.add(packTrip(departureTime, arrivalTime));
+            return addTrip(departureTime, arrivalTime, 0);
+        }
+
+        /**
+         * Permet d'ajouter un trajet d'un service donné a la future instance
+         * de GraphEdge.
+         * 
+         * @param departureTime
+         *            Représente l'heure de départ de ce trajet.
+         * @param arrivalTime
+         *            L'heure d'arrivée de ce trajet.
+         * @param serviceId
+         *            L'identifiant du service du trajet (voir serviceTrip).
+         * @return Le builder lui-même.
+         * @throws IllegalArgumentException
+         *             Si la méthode packTrip renvoit une exception.
+         */
+        GraphEdge.Builder addTrip(int departureTime, int arrivalTime,
+                int serviceId) {
+            m_builderServiceTrips.add(serviceTrip(serviceId,
+                    packTrip(departureTime, arrivalTime)));
             return this;
         }
 
+        /**
+         * Retourne un bâtisseur de l'arc inverse de celui-ci, dont les heures
+         * sont symétriques par rapport à l'heure miroir donnée : un trajet
+         * partant à d et arrivant à a devient un trajet partant à
+         * mirrorTime - a et arrivant à mirrorTime - d. Le temps de marche est
+         * conservé.
+         *
+         * @param destination
+         *            La destination de l'arc inverse, qui est l'origine de
+         *            celui-ci.
+         * @param mirrorTime
+         *            L'heure miroir, supérieure ou égale à toutes les heures
+         *            d'arrivée des trajets.
+         * @return Le bâtisseur de l'arc inverse.
+         */
+        GraphEdge.Builder mirror(Stop destination, int mirrorTime) {
+            GraphEdge.Builder mirrored = new GraphEdge.Builder(destination);
+            mirrored.m_builderWalkingTime = m_builderWalkingTime;
+            for (Long i : m_builderServiceTrips) {
+                mirrored.m_builderServiceTrips.add(serviceTrip(
+                        (int) (i >>> 32),
+                        mirrorTrip((int) i.longValue(), mirrorTime)));
+            }
+            return mirrored;
+        }
+
         /**
          * Permet la création de l'instance de la classe GraphEdge associée à ce
-         * builder.
+         * builder. Les trajets y sont figés dans un tableau trié.
          * 
          * @return L'instance elle-même.
          */
         public GraphEdge build() {
+            long[] serviceTrips = new long[m_builderServiceTrips.size()];
+            int n = 0;
+            for (Long i : m_builderServiceTrips) {
+                serviceTrips[n++] = i;
+            }
             return new GraphEdge(m_builderDestination, m_builderWalkingTime,
-                    m_builderPackedTrips);
+                    serviceTrips);
         }
     }
 
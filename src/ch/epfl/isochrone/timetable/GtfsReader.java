@@ -0,0 +1,602 @@
+/**
+ * Classe permettant la lecture d'un horaire et de son graphe directement
+ * depuis un flux GTFS standard (stops.txt, calendar.txt, calendar_dates.txt,
+ * trips.txt et stop_times.txt), contenu dans un répertoire ou dans une
+ * archive .zip lue sans être décompressée.
+ *
+ * Les trajets sont obtenus en joignant stop_times.txt aux voyages de
+ * trips.txt en une seule passe : les lignes d'un voyage étant consécutives
+ * dans stop_times.txt, seules celles du voyage courant sont gardées en
+ * mémoire, puis relient chacune de ses étapes à la suivante, ou forment une
+ * course de RaptorRouter.
+ */
+
+package ch.epfl.isochrone.timetable;
+
+import java.io.BufferedInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import static java.lang.Math.PI;
+
+import ch.epfl.isochrone.geo.PointWGS84;
+
+public final class GtfsReader {
+
+    // Plus grande heure de départ et plus grande durée d'un trajet
+    // représentables dans le graphe (voir GraphEdge.packTrip).
+    private static final int MAX_DEPARTURE_TIME = 107999;
+    private static final int MAX_TRIP_DURATION = 9999;
+
+    private final Path m_feed;
+    private final boolean m_zip;
+
+    // Identifiant GTFS des arrêts créés par readTimeTable.
+    private final Map<Stop, String> m_stopIds;
+
+    /**
+     * Construit un lecteur du flux GTFS donné.
+     *
+     * @param feed
+     *            Le répertoire contenant les fichiers du flux, ou l'archive
+     *            .zip les contenant.
+     * @throws IllegalArgumentException
+     *             Si le flux n'est ni un répertoire ni un fichier.
+     */
+    public GtfsReader(Path feed) {
+        if (!Files.isDirectory(feed) && !Files.isRegularFile(feed)) {
+            throw new IllegalArgumentException(
+                    "Error : Flux GTFS introuvable : " + feed + " !");
+        }
+        m_feed = feed;
+        m_zip = !Files.isDirectory(feed);
+        m_stopIds = new IdentityHashMap<>();
+    }
+
+    /**
+     * Méthode permettant la lecture des arrêts (stops.txt) et des services
+     * (calendar.txt et calendar_dates.txt) du flux. Les arrêts sont nommés
+     * d'après stop_name, et les services d'après service_id ; les stations
+     * regroupant plusieurs arrêts (location_type 1) et les entrées sont
+     * ignorées.
+     *
+     * @return Instance de la classe TimeTable possedant les services et les
+     *         arrêts du flux.
+     * @throws IOException
+     *             Si la lecture d'un fichier échoue, ou si un fichier ou une
+     *             colonne obligatoire est absent.
+     */
+    public TimeTable readTimeTable() throws IOException {
+        TimeTable.Builder timetable = new TimeTable.Builder();
+        for (Service i : readServices()) {
+            timetable.addService(i);
+        }
+        for (Stop i : readStops()) {
+            timetable.addStop(i);
+        }
+        return timetable.build();
+    }
+
+    /**
+     * Méthode permettant la création d'une instance de la classe Graph
+     * possèdant les trajets du flux appartenant à l'un des services donnés en
+     * argument, comme TimeTableReader.readGraphForServices.
+     *
+     * @param stops
+     *            Ensemble des arrêts du Graphe, lus par readTimeTable.
+     * @param services
+     *            Ensemble des services utilisés pour générer tous les trajets
+     *            du Graphe.
+     * @param walkingTime
+     *            Temps de marche maximum.
+     * @param walkingSpeed
+     *            Vitesse de marche durant les trajets a pied.
+     * @return Instance de la classe Graph auquel on a ajouté tous les trajets.
+     * @throws IOException
+     *             Si la lecture d'un fichier échoue, si un fichier ou une
+     *             colonne obligatoire est absent, ou si les lignes d'un voyage
+     *             ne sont pas consécutives dans stop_times.txt.
+     * @throws IllegalArgumentException
+     *             Si un des arrêts n'a pas été lu par ce lecteur.
+     */
+    public Graph readGraphForServices(Set<Stop> stops, Set<Service> services,
+            int walkingTime, double walkingSpeed) throws IOException {
+        return readGraphBuilder(stops, services, walkingTime, walkingSpeed)
+                .build();
+    }
+
+    /**
+     * Méthode permettant la création du graphe inverse (voir ReverseGraph)
+     * possèdant les trajets du flux appartenant à l'un des services donnés en
+     * argument, pour les recherches en heure d'arrivée.
+     *
+     * @param stops
+     *            Ensemble des arrêts du Graphe, lus par readTimeTable.
+     * @param services
+     *            Ensemble des services utilisés pour générer tous les trajets
+     *            du Graphe.
+     * @param walkingTime
+     *            Temps de marche maximum.
+     * @param walkingSpeed
+     *            Vitesse de marche durant les trajets a pied.
+     * @return Le graphe inverse auquel on a ajouté tous les trajets.
+     * @throws IOException
+     *             Voir readGraphForServices.
+     * @throws IllegalArgumentException
+     *             Si un des arrêts n'a pas été lu par ce lecteur.
+     */
+    public ReverseGraph readReverseGraphForServices(Set<Stop> stops,
+            Set<Service> services, int walkingTime, double walkingSpeed)
+            throws IOException {
+        return readGraphBuilder(stops, services, walkingTime, walkingSpeed)
+                .buildReverse();
+    }
+
+    /**
+     * Méthode permettant la création d'une instance de la classe RaptorRouter
+     * possèdant les voyages du flux appartenant à l'un des services donnés en
+     * argument, chacun formant une course de ses lignes.
+     *
+     * @param stops
+     *            Ensemble des arrêts de l'horaire, lus par readTimeTable.
+     * @param services
+     *            Ensemble des services dont les voyages sont lus.
+     * @param walkingTime
+     *            Temps de marche maximum.
+     * @param walkingSpeed
+     *            Vitesse de marche durant les trajets a pied.
+     * @return Instance de la classe RaptorRouter donnant les mêmes chemins
+     *         que le graphe lu par readGraphForServices.
+     * @throws IOException
+     *             Voir readGraphForServices.
+     * @throws IllegalArgumentException
+     *             Si un des arrêts n'a pas été lu par ce lecteur.
+     */
+    public RaptorRouter readRaptorRouter(Set<Stop> stops,
+            Set<Service> services, int walkingTime, double walkingSpeed)
+            throws IOException {
+        RaptorRouter.Builder routes = new RaptorRouter.Builder(stops);
+        readTrips(stops, services, null, routes);
+        return routes.addAllWalkEdges(walkingTime, walkingSpeed).build();
+    }
+
+    private Set<Stop> readStops() throws IOException {
+        CsvTokenizer reader = open("stops.txt");
+        int[] columns = header(reader, "stops.txt", 4, "stop_id", "stop_name",
+                "stop_lat", "stop_lon", "location_type");
+        Set<Stop> stops = new HashSet<>();
+        double latitude, longitude;
+        String id, name;
+
+        while (reader.nextLine()) {
+            if (columns[4] != -1) {
+                reader.seekField(columns[4]);
+                if (!reader.isFieldEmpty() && reader.intField() != 0)
+                    continue;
+            }
+            reader.seekField(columns[0]);
+            id = reader.stringField();
+            reader.seekField(columns[1]);
+            name = reader.stringField();
+            reader.seekField(columns[2]);
+            latitude = (reader.doubleField() / 180.0) * PI;
+            reader.seekField(columns[3]);
+            longitude = (reader.doubleField() / 180.0) * PI;
+
+            Stop stop = new Stop(name, new PointWGS84(longitude, latitude));
+            stops.add(stop);
+            m_stopIds.put(stop, id);
+        }
+        reader.close();
+        return stops;
+    }
+
+    private Set<Service> readServices() throws IOException {
+        // Les jours de circulation de chaque service sont d'abord rassemblés,
+        // car un service peut n'être défini que dans calendar_dates.txt et
+        // ses dates incluses peuvent sortir de sa plage de validité.
+        Map<String, Calendar> calendars = new HashMap<>();
+
+        CsvTokenizer reader = openOptional("calendar.txt");
+        boolean found = reader != null;
+        if (reader != null) {
+            int[] columns = header(reader, "calendar.txt", 10, "service_id",
+                    "monday", "tuesday", "wednesday", "thursday", "friday",
+                    "saturday", "sunday", "start_date", "end_date");
+            while (reader.nextLine()) {
+                reader.seekField(columns[0]);
+                Calendar calendar = calendar(calendars, reader.stringField());
+                for (int i = 0; i < 7; i++) {
+                    reader.seekField(columns[i + 1]);
+                    if (reader.intField() == 1)
+                        calendar.m_operatingDays.add(Date.DayOfWeek.values()[i]);
+                }
+                reader.seekField(columns[8]);
+                calendar.m_startingDate = reader.dateField();
+                reader.seekField(columns[9]);
+                calendar.m_endingDate = reader.dateField();
+            }
+            reader.close();
+        }
+
+        reader = openOptional("calendar_dates.txt");
+        found |= reader != null;
+        if (reader != null) {
+            int[] columns = header(reader, "calendar_dates.txt", 3,
+                    "service_id", "date", "exception_type");
+            while (reader.nextLine()) {
+                reader.seekField(columns[0]);
+                Calendar calendar = calendar(calendars, reader.stringField());
+                reader.seekField(columns[1]);
+                Date date = reader.dateField();
+                reader.seekField(columns[2]);
+                if (reader.intField() == 1) {
+                    calendar.m_includedDates.add(date);
+                    calendar.m_excludedDates.remove(date);
+                } else if (!calendar.m_includedDates.contains(date)) {
+                    calendar.m_excludedDates.add(date);
+                }
+            }
+            reader.close();
+        }
+
+        if (!found) {
+            throw new FileNotFoundException(
+                    "Error : Ni calendar.txt ni calendar_dates.txt dans le flux !");
+        }
+
+        Set<Service> services = new HashSet<>();
+        for (Map.Entry<String, Calendar> i : calendars.entrySet()) {
+            Service service = i.getValue().toService(i.getKey());
+            if (service != null)
+                services.add(service);
+        }
+        return services;
+    }
+
+    private Graph.Builder readGraphBuilder(Set<Stop> stops,
+            Set<Service> services, int walkingTime, double walkingSpeed)
+            throws IOException {
+        Graph.Builder graph = new Graph.Builder(stops);
+        readTrips(stops, services, graph, null);
+        graph.addAllWalkEdges(walkingTime, walkingSpeed);
+        return graph;
+    }
+
+    /**
+     * Lit les voyages des services donnés et les ajoute au graphe ou aux
+     * lignes donnés, l'un des deux étant null.
+     */
+    private void readTrips(Set<Stop> stops, Set<Service> services,
+            Graph.Builder graph, RaptorRouter.Builder routes)
+            throws IOException {
+        NameTable<Stop> stopsById = new NameTable<>();
+        for (Stop i : stops) {
+            String id = m_stopIds.get(i);
+            if (id == null) {
+                throw new IllegalArgumentException(
+                        "Error : L'arrêt " + i.name()
+                                + " n'a pas été lu par ce lecteur !");
+            }
+            stopsById.put(id, i);
+        }
+
+        NameTable<Service> servicesById = new NameTable<>();
+        for (Service i : services) {
+            servicesById.put(i.name(), i);
+        }
+
+        // voyages des services donnés
+        CsvTokenizer reader = open("trips.txt");
+        int[] columns = header(reader, "trips.txt", 2, "trip_id",
+                "service_id");
+        NameTable<Trip> trips = new NameTable<>();
+        while (reader.nextLine()) {
+            reader.seekField(columns[1]);
+            Service service = reader.nameField(servicesById);
+            if (service != null) {
+                reader.seekField(columns[0]);
+                trips.put(reader.stringField(), new Trip(service));
+            }
+        }
+        reader.close();
+
+        // jointure des étapes de chaque voyage, en une passe
+        reader = open("stop_times.txt");
+        columns = header(reader, "stop_times.txt", 5, "trip_id",
+                "arrival_time", "departure_time", "stop_id", "stop_sequence");
+        TripStops tripStops = new TripStops();
+        Trip current = null;
+        while (reader.nextLine()) {
+            reader.seekField(columns[0]);
+            Trip trip = reader.nameField(trips);
+            if (trip != current) {
+                if (current != null)
+                    tripStops.addTo(graph, routes, current.m_service);
+                tripStops.clear();
+                current = trip;
+                if (trip != null) {
+                    if (trip.m_read) {
+                        throw new IOException(
+                                "Error : Les lignes d'un voyage ne sont pas consécutives dans stop_times.txt !");
+                    }
+                    trip.m_read = true;
+                }
+            }
+            if (trip == null)
+                continue;
+
+            reader.seekField(columns[1]);
+            int arrivalTime = reader.timeField();
+            reader.seekField(columns[2]);
+            int departureTime = reader.timeField();
+            // les étapes sans heure (à interpoler) sont ignorées
+            if (arrivalTime == -1 && departureTime == -1)
+                continue;
+            reader.seekField(columns[3]);
+            Stop stop = reader.nameField(stopsById);
+            reader.seekField(columns[4]);
+            tripStops.add(reader.intField(), stop,
+                    arrivalTime == -1 ? departureTime : arrivalTime,
+                    departureTime == -1 ? arrivalTime : departureTime);
+        }
+        if (current != null)
+            tripStops.addTo(graph, routes, current.m_service);
+        reader.close();
+    }
+
+    /**
+     * Lit l'en-tête du fichier donné et retourne l'indice de chacune des
+     * colonnes données, ou -1 pour une colonne facultative absente. Les
+     * required premières colonnes sont obligatoires.
+     */
+    private static int[] header(CsvTokenizer reader, String file,
+            int required, String... names) throws IOException {
+        int[] columns = new int[names.length];
+        Arrays.fill(columns, -1);
+        if (reader.nextLine()) {
+            for (int i = 0; reader.hasField(); i++) {
+                String name = reader.stringField().trim();
+                for (int j = 0; j < names.length; j++) {
+                    if (names[j].equals(name) && columns[j] == -1)
+                        columns[j] = i;
+                }
+            }
+        }
+        for (int j = 0; j < required; j++) {
+            if (columns[j] == -1) {
+                throw new IOException("Error : Colonne " + names[j]
+                        + " absente de " + file + " !");
+            }
+        }
+        return columns;
+    }
+
+    private static Calendar calendar(Map<String, Calendar> calendars,
+            String serviceId) {
+        Calendar calendar = calendars.get(serviceId);
+        if (calendar == null) {
+            calendar = new Calendar();
+            calendars.put(serviceId, calendar);
+        }
+        return calendar;
+    }
+
+    private CsvTokenizer open(String file) throws IOException {
+        CsvTokenizer reader = openOptional(file);
+        if (reader == null) {
+            throw new FileNotFoundException("Error : Fichier " + file
+                    + " absent du flux " + m_feed + " !");
+        }
+        return reader;
+    }
+
+    /**
+     * Ouvre le fichier donné du flux, ou retourne null s'il est absent. Dans
+     * une archive, les entrées sont parcourues jusqu'à celle du fichier, qui
+     * peut se trouver dans un sous-répertoire.
+     */
+    private CsvTokenizer openOptional(String file) throws IOException {
+        InputStream in = openStream(file);
+        return in == null ? null : new CsvTokenizer(in, ',');
+    }
+
+    private InputStream openStream(String file) throws IOException {
+        if (!m_zip) {
+            Path path = m_feed.resolve(file);
+            return Files.isRegularFile(path) ? Files.newInputStream(path)
+                    : null;
+        }
+
+        ZipInputStream zip = new ZipInputStream(new BufferedInputStream(
+                Files.newInputStream(m_feed)), StandardCharsets.UTF_8);
+        ZipEntry entry;
+        while ((entry = zip.getNextEntry()) != null) {
+            String name = entry.getName();
+            if (!entry.isDirectory()
+                    && (name.equals(file) || name.endsWith("/" + file)))
+                return zip;
+        }
+        zip.close();
+        return null;
+    }
+
+    /**
+     * Jours de circulation d'un service, tels qu'écrits dans calendar.txt et
+     * calendar_dates.txt.
+     */
+    private static final class Calendar {
+
+        private Date m_startingDate;
+        private Date m_endingDate;
+        private final Set<Date.DayOfWeek> m_operatingDays;
+        private final Set<Date> m_includedDates;
+        private final Set<Date> m_excludedDates;
+
+        Calendar() {
+            m_startingDate = null;
+            m_endingDate = null;
+            m_operatingDays = new HashSet<>();
+            m_includedDates = new HashSet<>();
+            m_excludedDates = new HashSet<>();
+        }
+
+        /**
+         * Construit le service ayant ces jours de circulation. Sa plage de
+         * validité est étendue aux dates incluses qui en sortent, les jours
+         * ainsi ajoutés étant exclus. Retourne null si le service ne circule
+         * jamais.
+         */
+        Service toService(String name) {
+            Date first = m_startingDate;
+            Date last = m_endingDate;
+            for (Date i : m_includedDates) {
+                if (first == null || i.compareTo(first) < 0)
+                    first = i;
+                if (last == null || i.compareTo(last) > 0)
+                    last = i;
+            }
+            if (first == null)
+                return null;
+
+            Service.Builder service = new Service.Builder(name, first, last);
+            for (Date.DayOfWeek i : m_operatingDays) {
+                service.addOperatingDay(i);
+            }
+            for (Date i : m_includedDates) {
+                service.addIncludedDate(i);
+            }
+            for (Date i : m_excludedDates) {
+                if (i.compareTo(first) >= 0 && i.compareTo(last) <= 0)
+                    service.addExcludedDate(i);
+            }
+            for (Date i = first; i.compareTo(last) <= 0; i = i.relative(1)) {
+                boolean extended = m_startingDate == null
+                        || i.compareTo(m_startingDate) < 0
+                        || i.compareTo(m_endingDate) > 0;
+                if (extended && m_operatingDays.contains(i.dayOfWeek())
+                        && !m_includedDates.contains(i)
+                        && !m_excludedDates.contains(i))
+                    service.addExcludedDate(i);
+            }
+            return service.build();
+        }
+    }
+
+    /**
+     * Voyage d'un des services lus, et vrai si ses lignes de stop_times.txt
+     * ont déjà été lues.
+     */
+    private static final class Trip {
+
+        private final Service m_service;
+        private boolean m_read;
+
+        Trip(Service service) {
+            m_service = service;
+            m_read = false;
+        }
+    }
+
+    /**
+     * Étapes du voyage courant : numéro d'ordre, arrêt (null s'il n'est pas
+     * dans le graphe), heures d'arrivée et de départ. Les tableaux sont
+     * réutilisés d'un voyage à l'autre et ne grandissent que jusqu'à la
+     * taille du plus long voyage.
+     */
+    private static final class TripStops {
+
+        private int[] m_sequences;
+        private Stop[] m_stops;
+        private int[] m_arrivalTimes;
+        private int[] m_departureTimes;
+        private int m_size;
+
+        TripStops() {
+            m_sequences = new int[16];
+            m_stops = new Stop[16];
+            m_arrivalTimes = new int[16];
+            m_departureTimes = new int[16];
+            m_size = 0;
+        }
+
+        void clear() {
+            Arrays.fill(m_stops, 0, m_size, null);
+            m_size = 0;
+        }
+
+        void add(int sequence, Stop stop, int arrivalTime, int departureTime) {
+            if (m_size == m_sequences.length) {
+                m_sequences = Arrays.copyOf(m_sequences, 2 * m_size);
+                m_stops = Arrays.copyOf(m_stops, 2 * m_size);
+                m_arrivalTimes = Arrays.copyOf(m_arrivalTimes, 2 * m_size);
+                m_departureTimes = Arrays.copyOf(m_departureTimes, 2 * m_size);
+            }
+            // insertion à sa place dans l'ordre des numéros d'ordre, en
+            // général à la fin
+            int i = m_size++;
+            while (i > 0 && m_sequences[i - 1] > sequence) {
+                m_sequences[i] = m_sequences[i - 1];
+                m_stops[i] = m_stops[i - 1];
+                m_arrivalTimes[i] = m_arrivalTimes[i - 1];
+                m_departureTimes[i] = m_departureTimes[i - 1];
+                i--;
+            }
+            m_sequences[i] = sequence;
+            m_stops[i] = stop;
+            m_arrivalTimes[i] = arrivalTime;
+            m_departureTimes[i] = departureTime;
+        }
+
+        /**
+         * Ajoute au graphe un trajet entre chaque étape et la suivante, ou
+         * aux lignes une course par suite d'étapes ainsi reliées. Les
+         * trajets dont un arrêt n'est pas dans le graphe, ou dont les heures
+         * ne peuvent y être représentées, sont ignorés, et coupent la course
+         * en deux : graphe et lignes donnent ainsi les mêmes chemins.
+         */
+        void addTo(Graph.Builder graph, RaptorRouter.Builder routes,
+                Service service) {
+            int first = 0;
+            for (int i = 0; i < m_size; i++) {
+                if (i + 1 < m_size && isTrip(i)) {
+                    if (graph != null)
+                        graph.addTripEdge(m_stops[i], m_stops[i + 1],
+                                m_departureTimes[i], m_arrivalTimes[i + 1],
+                                service);
+                } else {
+                    if (routes != null && i > first)
+                        routes.addTrip(
+                                Arrays.copyOfRange(m_stops, first, i + 1),
+                                Arrays.copyOfRange(m_arrivalTimes, first,
+                                        i + 1), Arrays.copyOfRange(
+                                        m_departureTimes, first, i + 1));
+                    first = i + 1;
+                }
+            }
+        }
+
+        private boolean isTrip(int i) {
+            Stop from = m_stops[i];
+            Stop to = m_stops[i + 1];
+            int departureTime = m_departureTimes[i];
+            int arrivalTime = m_arrivalTimes[i + 1];
+            return from != null && to != null && from != to
+                    && departureTime <= MAX_DEPARTURE_TIME
+                    && arrivalTime >= departureTime
+                    && arrivalTime - departureTime <= MAX_TRIP_DURATION;
+        }
+    }
+}
@@ -0,0 +1,156 @@
+/**
+ * Classe représentant un tas binaire indexé (file de priorité avec diminution
+ * de clé) sur des identifiants entiers compris entre 0 et une capacité donnée.
+ */
+
+package ch.epfl.isochrone.timetable;
+
+import java.util.Arrays;
+
+final class IndexedMinHeap {
+
+    private final int[] m_heap;
+    private final int[] m_positions;
+    private final int[] m_keys;
+    private int m_size;
+
+    /**
+     * Construit un tas vide pouvant contenir les identifiants compris dans
+     * l'intervalle [0; capacity[.
+     *
+     * @param capacity
+     *            Le nombre d'identifiants différents que le tas peut contenir.
+     * @throws IllegalArgumentException
+     *             Si la capacité est négative.
+     */
+    public IndexedMinHeap(int capacity) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException(
+                    "Error : Capacité du tas négative !");
+        }
+
+        m_heap = new int[capacity];
+        m_positions = new int[capacity];
+        m_keys = new int[capacity];
+        Arrays.fill(m_positions, -1);
+        m_size = 0;
+    }
+
+    /**
+     * Retourne vrai si le tas ne contient aucun identifiant.
+     *
+     * @return Vrai si le tas est vide, faux sinon.
+     */
+    public boolean isEmpty() {
+        return m_size == 0;
+    }
+
+    /**
+     * Retourne la plus petite clé du tas.
+     *
+     * @return La clé du sommet du tas.
+     * @throws IllegalStateException
+     *             Si le tas est vide.
+     */
+    public int minKey() {
+        if (m_size == 0) {
+            throw new IllegalStateException("Error : Le tas est vide !");
+        }
+        return m_keys[m_heap[0]];
+    }
+
+    /**
+     * Insère l'identifiant avec la clé donnée s'il n'est pas dans le tas, ou
+     * diminue sa clé s'il y est déjà et que la nouvelle clé est plus petite.
+     *
+     * @param id
+     *            L'identifiant.
+     * @param key
+     *            La nouvelle clé de l'identifiant.
+     */
+    public void insertOrDecrease(int id, int key) {
+        int position = m_positions[id];
+        if (position == -1) {
+            position = m_size++;
+            m_heap[position] = id;
+            m_positions[id] = position;
+        } else if (key >= m_keys[id]) {
+            return;
+        }
+        m_keys[id] = key;
+        siftUp(position);
+    }
+
+    /**
+     * Retire du tas l'identifiant ayant la plus petite clé et le retourne.
+     *
+     * @return L'identifiant ayant la plus petite clé.
+     * @throws IllegalStateException
+     *             Si le tas est vide.
+     */
+    public int pollMin() {
+        if (m_size == 0) {
+            throw new IllegalStateException("Error : Le tas est vide !");
+        }
+
+        int min = m_heap[0];
+        m_positions[min] = -1;
+        m_size--;
+        if (m_size > 0) {
+            int last = m_heap[m_size];
+            m_heap[0] = last;
+            m_positions[last] = 0;
+            siftDown(0);
+        }
+        return min;
+    }
+
+    /**
+     * Vide le tas, en un temps proportionnel au nombre d'identifiants qu'il
+     * contient.
+     */
+    public void clear() {
+        for (int i = 0; i < m_size; i++) {
+            m_positions[m_heap[i]] = -1;
+        }
+        m_size = 0;
+    }
+
+    private void siftUp(int position) {
+        int id = m_heap[position];
+        int key = m_keys[id];
+        while (position > 0) {
+            int parentPosition = (position - 1) >>> 1;
+            int parent = m_heap[parentPosition];
+            if (m_keys[parent] <= key) {
+                break;
+            }
+            m_heap[position] = parent;
+            m_positions[parent] = position;
+            position = parentPosition;
+        }
+        m_heap[position] = id;
+        m_positions[id] = position;
+    }
+
+    private void siftDown(int position) {
+        int id = m_heap[position];
+        int key = m_keys[id];
+        int half = m_size >>> 1;
+        while (position < half) {
+            int child = 2 * position + 1;
+            int right = child + 1;
+            if (right < m_size && m_keys[m_heap[right]] < m_keys[m_heap[child]]) {
+                child = right;
+            }
+            if (key <= m_keys[m_heap[child]]) {
+                break;
+            }
+            m_heap[position] = m_heap[child];
+            m_positions[m_heap[position]] = position;
+            position = child;
+        }
+        m_heap[position] = id;
+        m_positions[id] = position;
+    }
+}
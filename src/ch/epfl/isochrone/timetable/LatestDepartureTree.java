@@ -0,0 +1,101 @@
+/**
+ * Classe représentant l'arborescence des heures de départ au plus tard de
+ * chaque arrêt pour atteindre un arrêt de destination avant une heure donnée.
+ */
+
+package ch.epfl.isochrone.timetable;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+public final class LatestDepartureTree {
+
+    /**
+     * Heure de départ des arrêts depuis lesquels il est impossible d'atteindre
+     * la destination à temps.
+     */
+    public static final int NEGATIVE_INFINITE = -SecondsPastMidnight.INFINITE;
+
+    private final FastestPathTree m_mirroredTree;
+    private final int m_mirrorTime;
+
+    /**
+     * Construit l'arbre à partir de l'arbre des chemins les plus courts du
+     * graphe inverse, dont les heures sont symétriques par rapport à l'heure
+     * miroir donnée.
+     *
+     * @param mirroredTree
+     *            L'arbre des chemins les plus courts depuis la destination
+     *            dans le graphe inverse.
+     * @param mirrorTime
+     *            L'heure miroir du graphe inverse.
+     */
+    LatestDepartureTree(FastestPathTree mirroredTree, int mirrorTime) {
+        m_mirroredTree = mirroredTree;
+        m_mirrorTime = mirrorTime;
+    }
+
+    /**
+     * Retourne l'arrêt de destination.
+     *
+     * @return L'arrêt de destination.
+     */
+    public Stop targetStop() {
+        return m_mirroredTree.startingStop();
+    }
+
+    /**
+     * Retourne l'heure d'arrivée au plus tard à la destination.
+     *
+     * @return L'heure d'arrivée.
+     */
+    public int arrivalTime() {
+        return m_mirrorTime - m_mirroredTree.startingTime();
+    }
+
+    /**
+     * Retourne l'ensemble des arrêts de l'arbre.
+     *
+     * @return Les arrêts de l'arbre.
+     */
+    public Set<Stop> stops() {
+        return m_mirroredTree.stops();
+    }
+
+    /**
+     * Retourne l'heure de départ au plus tard de l'arrêt donné pour atteindre
+     * la destination à temps.
+     *
+     * @param stop
+     *            L'arrêt de départ.
+     * @return L'heure de départ au plus tard, ou NEGATIVE_INFINITE si la
+     *         destination ne peut pas être atteinte à temps depuis cet arrêt
+     *         (ou en partant après minuit).
+     */
+    public int departureTime(Stop stop) {
+        int mirroredTime = m_mirroredTree.arrivalTime(stop);
+        if (mirroredTime == SecondsPastMidnight.INFINITE
+                || mirroredTime > m_mirrorTime)
+            return NEGATIVE_INFINITE;
+        else
+            return m_mirrorTime - mirroredTime;
+    }
+
+    /**
+     * Retourne la liste des arrêts du chemin partant de l'arrêt donné au plus
+     * tard et arrivant à la destination, tous deux compris.
+     *
+     * @param stop
+     *            L'arrêt de départ.
+     * @return La liste des arrêts du chemin, de l'arrêt de départ à la
+     *         destination.
+     * @throws IllegalArgumentException
+     *             Si l'arrêt n'est pas dans l'arbre.
+     */
+    public List<Stop> pathFrom(Stop stop) {
+        List<Stop> path = m_mirroredTree.pathTo(stop);
+        Collections.reverse(path);
+        return path;
+    }
+}
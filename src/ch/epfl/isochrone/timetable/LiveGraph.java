@@ -0,0 +1,276 @@
+/**
+ * Classe représentant un graphe horaire auquel des mises à jour en temps réel
+ * (retards et suppressions de trajets) sont appliquées sans le reconstruire.
+ *
+ * Chaque lot de mises à jour produit une nouvelle version du graphe (voir
+ * Graph.withPatchedTrips), dans laquelle seuls les trajets des arcs touchés
+ * sont copiés, puis la publie d'un coup. Une recherche en cours continue donc
+ * d'utiliser la version qu'elle a obtenue par graph(), qui n'est jamais
+ * modifiée, et ne voit jamais un lot à moitié appliqué.
+ *
+ * Une mise à jour est une ligne de la forme
+ * « service;départ;heure de départ;arrivée;heure d'arrivée;nouvelle heure de
+ * départ;nouvelle heure d'arrivée », les arrêts étant désignés par leur nom
+ * et les heures en secondes après minuit, comme dans stop_times.csv. Le
+ * service est vide pour un trajet toujours actif. Si les nouvelles heures
+ * sont vides, le trajet est supprimé.
+ *
+ * Les trajets dominés par un autre trajet de leur arc, qui ne sont jamais
+ * empruntés, restent connus du graphe : une mise à jour peut les retarder,
+ * et ils redeviennent empruntables si le trajet qui les domine est retardé ou
+ * supprimé. Une mise à jour qui ne correspond à aucun trajet du graphe est
+ * ignorée.
+ *
+ * Si un graphe inverse est donné (voir ReverseGraph), les mêmes mises à jour
+ * lui sont appliquées, et ses nouvelles versions sont publiées en même temps
+ * que celles du graphe : les recherches en heure d'arrivée en tiennent donc
+ * aussi compte. Un ConnectionScan, en revanche, doit être recréé à partir de
+ * la nouvelle version du graphe.
+ */
+
+package ch.epfl.isochrone.timetable;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+public final class LiveGraph {
+
+    private final AtomicReference<Version> m_version;
+
+    /**
+     * Construit un graphe en temps réel dont la première version est le
+     * graphe donné, sans graphe inverse.
+     *
+     * @param graph
+     *            Le graphe horaire initial.
+     */
+    public LiveGraph(Graph graph) {
+        this(graph, null);
+    }
+
+    /**
+     * Construit un graphe en temps réel dont la première version est formée
+     * du graphe et du graphe inverse donnés, construits à partir des mêmes
+     * trajets (voir Graph.Builder.buildReverse).
+     *
+     * @param graph
+     *            Le graphe horaire initial.
+     * @param reverseGraph
+     *            Le graphe inverse initial, ou null.
+     */
+    public LiveGraph(Graph graph, ReverseGraph reverseGraph) {
+        m_version = new AtomicReference<>(new Version(graph, reverseGraph));
+    }
+
+    /**
+     * Retourne la dernière version publiée du graphe. Elle n'est jamais
+     * modifiée par la suite.
+     *
+     * @return La version courante du graphe.
+     */
+    public Graph graph() {
+        return m_version.get().m_graph;
+    }
+
+    /**
+     * Retourne la dernière version publiée du graphe inverse. Elle n'est
+     * jamais modifiée par la suite.
+     *
+     * @return La version courante du graphe inverse, ou null si aucun graphe
+     *         inverse n'a été donné.
+     */
+    public ReverseGraph reverseGraph() {
+        return m_version.get().m_reverseGraph;
+    }
+
+    /**
+     * Applique les mises à jour du fichier donné (voir applyUpdates).
+     *
+     * @param file
+     *            Le fichier des mises à jour.
+     * @return Le nombre de mises à jour appliquées.
+     * @throws IOException
+     *             Si la lecture du fichier échoue.
+     */
+    public int applyUpdates(Path file) throws IOException {
+        try (InputStream in = Files.newInputStream(file)) {
+            return applyUpdates(in);
+        }
+    }
+
+    /**
+     * Applique le lot de mises à jour lu dans le flot donné, puis publie la
+     * nouvelle version du graphe. Les lots sont appliqués l'un après l'autre ;
+     * les recherches ne sont jamais bloquées. Si la lecture échoue, aucune
+     * mise à jour du lot n'est publiée.
+     *
+     * @param in
+     *            Le flot des mises à jour, encodé en UTF-8. Il n'est pas
+     *            fermé.
+     * @return Le nombre de mises à jour appliquées.
+     * @throws IOException
+     *             Si la lecture du flot échoue.
+     */
+    public synchronized int applyUpdates(InputStream in) throws IOException {
+        Version version = m_version.get();
+        Graph graph = version.m_graph;
+        Graph mirroredGraph = version.m_reverseGraph == null ? null
+                : version.m_reverseGraph.mirroredGraph();
+
+        StopIndex stopIndex = graph.stopIndex();
+        NameTable<Integer> stopIds = new NameTable<>();
+        for (int i = 0; i < stopIndex.size(); i++) {
+            stopIds.put(stopIndex.stop(i).name(), i);
+        }
+        List<Service> services = graph.services();
+        NameTable<Integer> serviceIds = new NameTable<>();
+        for (int i = 1; i < services.size(); i++) {
+            serviceIds.put(services.get(i).name(), i);
+        }
+
+        // Trajets des arcs touchés par le lot, modifiés au fur et à mesure.
+        Map<Integer, List<Long>> edgeTrips = new HashMap<>();
+        Map<Integer, List<Long>> mirroredEdgeTrips = new HashMap<>();
+        int applied = 0;
+
+        CsvTokenizer reader = new CsvTokenizer(new BufferedInputStream(in),
+                ';');
+        while (reader.nextLine()) {
+            int service;
+            int from;
+            int to;
+            long trip;
+            long newTrip;
+            try {
+                Integer id;
+                if (reader.isFieldEmpty()) {
+                    reader.skipField();
+                    id = 0;
+                } else {
+                    id = reader.nameField(serviceIds);
+                }
+                Integer fromId = reader.nameField(stopIds);
+                int departureTime = reader.intField();
+                Integer toId = reader.nameField(stopIds);
+                int arrivalTime = reader.intField();
+                if (id == null || fromId == null || toId == null)
+                    continue;
+                service = id;
+                from = fromId;
+                to = toId;
+                trip = GraphEdge.serviceTrip(service,
+                        GraphEdge.packTrip(departureTime, arrivalTime));
+                if (reader.isFieldEmpty()) {
+                    newTrip = -1;
+                } else {
+                    int newDepartureTime = reader.intField();
+                    int newArrivalTime = reader.intField();
+                    newTrip = GraphEdge.serviceTrip(service, GraphEdge
+                            .packTrip(newDepartureTime, newArrivalTime));
+                }
+            } catch (IllegalArgumentException e) {
+                // heure invalide (NumberFormatException incluse) : mise à
+                // jour ignorée
+                continue;
+            }
+
+            if (replaceTrip(graph, edgeTrips, from, to, trip, newTrip)) {
+                if (mirroredGraph != null) {
+                    // Dans le graphe inverse, l'arc va de l'arrivée au départ
+                    // et les heures sont mises en miroir.
+                    StopIndex mirroredIndex = mirroredGraph.stopIndex();
+                    replaceTrip(mirroredGraph, mirroredEdgeTrips,
+                            mirroredIndex.id(stopIndex.stop(to)),
+                            mirroredIndex.id(stopIndex.stop(from)),
+                            mirror(trip), newTrip == -1 ? -1
+                                    : mirror(newTrip));
+                }
+                applied++;
+            }
+        }
+
+        if (applied > 0) {
+            ReverseGraph reverseGraph = version.m_reverseGraph;
+            if (!mirroredEdgeTrips.isEmpty()) {
+                reverseGraph = new ReverseGraph(mirroredGraph
+                        .withPatchedTrips(toArrays(mirroredEdgeTrips)));
+            }
+            m_version.set(new Version(graph
+                    .withPatchedTrips(toArrays(edgeTrips)), reverseGraph));
+        }
+        return applied;
+    }
+
+    /**
+     * Remplace un trajet de l'arc allant d'un arrêt à un autre dans la liste
+     * des trajets modifiés de cet arc, initialisée avec tous les trajets de
+     * l'arc du graphe donné (voir Graph.edgeServiceTrips).
+     *
+     * @return Vrai si le trajet a été trouvé, faux sinon.
+     */
+    private static boolean replaceTrip(Graph graph,
+            Map<Integer, List<Long>> edgeTrips, int from, int to, long trip,
+            long newTrip) {
+        int edge = graph.edge(from, to);
+        if (edge == -1)
+            return false;
+        List<Long> trips = edgeTrips.get(edge);
+        if (trips == null) {
+            trips = new ArrayList<>();
+            for (long i : graph.edgeServiceTrips(edge)) {
+                trips.add(i);
+            }
+            edgeTrips.put(edge, trips);
+        }
+        if (!trips.remove(Long.valueOf(trip)))
+            return false;
+        if (newTrip != -1)
+            trips.add(newTrip);
+        return true;
+    }
+
+    /**
+     * Met en miroir les heures d'un trajet associé à son service (voir
+     * ReverseGraph.MIRROR_TIME).
+     */
+    private static long mirror(long serviceTrip) {
+        return GraphEdge.serviceTrip((int) (serviceTrip >>> 32), GraphEdge
+                .mirrorTrip((int) serviceTrip, ReverseGraph.MIRROR_TIME));
+    }
+
+    private static Map<Integer, long[]> toArrays(
+            Map<Integer, List<Long>> edgeTrips) {
+        Map<Integer, long[]> patches = new HashMap<>();
+        for (Map.Entry<Integer, List<Long>> i : edgeTrips.entrySet()) {
+            long[] trips = new long[i.getValue().size()];
+            int n = 0;
+            for (long j : i.getValue()) {
+                trips[n++] = j;
+            }
+            patches.put(i.getKey(), trips);
+        }
+        return patches;
+    }
+
+    /**
+     * Version publiée du graphe et du graphe inverse.
+     */
+    private static final class Version {
+
+        private final Graph m_graph;
+        private final ReverseGraph m_reverseGraph;
+
+        Version(Graph graph, ReverseGraph reverseGraph) {
+            m_graph = graph;
+            m_reverseGraph = reverseGraph;
+        }
+    }
+}
@@ -0,0 +1,129 @@
+/**
+ * Classe représentant une table associant des valeurs à des noms, dans
+ * laquelle un nom peut être cherché directement depuis ses octets encodés en
+ * UTF-8, sans créer de String. Chaque nom n'est ainsi encodé qu'une fois, à
+ * son ajout dans la table.
+ */
+
+package ch.epfl.isochrone.timetable;
+
+import java.nio.charset.StandardCharsets;
+
+final class NameTable<V> {
+
+    // Table à adressage ouvert dont la capacité est une puissance de deux ;
+    // une clé nulle marque une case libre.
+    private byte[][] m_keys;
+    private int[] m_hashes;
+    private Object[] m_values;
+    private int m_size;
+
+    /**
+     * Construit une table vide.
+     */
+    NameTable() {
+        m_keys = new byte[16][];
+        m_hashes = new int[16];
+        m_values = new Object[16];
+        m_size = 0;
+    }
+
+    /**
+     * Associe la valeur donnée au nom donné, en remplaçant une éventuelle
+     * valeur déjà associée à ce nom.
+     *
+     * @param name
+     *            Le nom.
+     * @param value
+     *            La valeur associée au nom.
+     */
+    void put(String name, V value) {
+        byte[] key = name.getBytes(StandardCharsets.UTF_8);
+        int hash = hash(key, 0, key.length);
+        int slot = slot(key, 0, key.length, hash);
+        if (m_keys[slot] == null) {
+            m_keys[slot] = key;
+            m_hashes[slot] = hash;
+            m_size++;
+        }
+        m_values[slot] = value;
+        if (2 * m_size > m_keys.length)
+            grow();
+    }
+
+    /**
+     * Retourne la valeur associée au nom encodé par les octets [from; to[ du
+     * tableau donné.
+     *
+     * @param bytes
+     *            Le tableau contenant le nom encodé en UTF-8.
+     * @param from
+     *            L'indice du premier octet du nom.
+     * @param to
+     *            L'indice suivant le dernier octet du nom.
+     * @return La valeur associée au nom, ou null s'il n'est pas dans la table.
+     */
+    @SuppressWarnings("unchecked")
+    V get(byte[] bytes, int from, int to) {
+        return (V) m_values[slot(bytes, from, to, hash(bytes, from, to))];
+    }
+
+    /**
+     * Retourne le nombre de noms de la table.
+     *
+     * @return Le nombre de noms.
+     */
+    int size() {
+        return m_size;
+    }
+
+    /**
+     * Retourne la case contenant le nom donné, ou la case libre où l'ajouter.
+     */
+    private int slot(byte[] bytes, int from, int to, int hash) {
+        int mask = m_keys.length - 1;
+        int slot = hash & mask;
+        while (m_keys[slot] != null
+                && (m_hashes[slot] != hash || !equals(m_keys[slot], bytes,
+                        from, to))) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void grow() {
+        byte[][] keys = m_keys;
+        int[] hashes = m_hashes;
+        Object[] values = m_values;
+        m_keys = new byte[2 * keys.length][];
+        m_hashes = new int[2 * keys.length];
+        m_values = new Object[2 * keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != null) {
+                int slot = slot(keys[i], 0, keys[i].length, hashes[i]);
+                m_keys[slot] = keys[i];
+                m_hashes[slot] = hashes[i];
+                m_values[slot] = values[i];
+            }
+        }
+    }
+
+    private static int hash(byte[] bytes, int from, int to) {
+        int hash = 0;
+        for (int i = from; i < to; i++)
+            hash = 31 * hash + bytes[i];
+        // Mélange des bits de poids fort dans ceux de poids faible, seuls
+        // utilisés pour choisir la case.
+        return hash ^ (hash >>> 16);
+    }
+
+    private static boolean equals(byte[] key, byte[] bytes, int from, int to) {
+        if (key.length != to - from)
+            return false;
+        for (int i = 0; i < key.length; i++) {
+            if (key[i] != bytes[from + i])
+                return false;
+        }
+        return true;
+    }
+}
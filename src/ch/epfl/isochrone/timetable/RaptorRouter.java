@@ -0,0 +1,462 @@
+/**
+ * Classe calculant les chemins les plus courts par tours successifs, selon
+ * l'algorithme RAPTOR, sur les lignes et les courses d'un horaire plutôt
+ * que sur les arcs d'un graphe.
+ *
+ * Les courses ayant la même suite d'arrêts forment une ligne, découpée de
+ * sorte qu'aucune de ses courses n'en dépasse une autre : triées par heure
+ * de départ, elles passent alors dans le même ordre à chaque arrêt. Les
+ * arrêts, les heures et les lignes passant par chaque arrêt sont rangés
+ * dans des tableaux contigus, parcourus dans l'ordre à chaque tour.
+ */
+
+package ch.epfl.isochrone.timetable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+public final class RaptorRouter {
+
+    // Graphe des seuls trajets à pied, qui fixe aussi les identifiants des
+    // arrêts.
+    private final Graph m_footpaths;
+
+    // Arrêts de la ligne r : m_routeStops[m_routeStopOffsets[r] ..
+    // m_routeStopOffsets[r + 1]].
+    private final int[] m_routeStopOffsets;
+    private final int[] m_routeStops;
+
+    // Heures de la course t (de 0 à m_routeTripCounts[r]) de la ligne r à
+    // son arrêt p : indice m_routeTimeOffsets[r] + t * (nombre d'arrêts) + p.
+    private final int[] m_routeTimeOffsets;
+    private final int[] m_routeTripCounts;
+    private final int[] m_arrivalTimes;
+    private final int[] m_departureTimes;
+
+    // Lignes passant par l'arrêt s, et position de celui-ci sur chacune :
+    // indices m_stopRouteOffsets[s] .. m_stopRouteOffsets[s + 1].
+    private final int[] m_stopRouteOffsets;
+    private final int[] m_stopRoutes;
+    private final int[] m_stopRoutePositions;
+
+    private RaptorRouter(Graph footpaths, int[] routeStopOffsets,
+            int[] routeStops, int[] routeTimeOffsets, int[] routeTripCounts,
+            int[] arrivalTimes, int[] departureTimes, int[] stopRouteOffsets,
+            int[] stopRoutes, int[] stopRoutePositions) {
+        m_footpaths = footpaths;
+        m_routeStopOffsets = routeStopOffsets;
+        m_routeStops = routeStops;
+        m_routeTimeOffsets = routeTimeOffsets;
+        m_routeTripCounts = routeTripCounts;
+        m_arrivalTimes = arrivalTimes;
+        m_departureTimes = departureTimes;
+        m_stopRouteOffsets = stopRouteOffsets;
+        m_stopRoutes = stopRoutes;
+        m_stopRoutePositions = stopRoutePositions;
+    }
+
+    /**
+     * Retourne le nombre de lignes.
+     *
+     * @return Le nombre de lignes, après découpage des lignes dont une course
+     *         en dépasse une autre.
+     */
+    public int routeCount() {
+        return m_routeTripCounts.length;
+    }
+
+    /**
+     * Méthode retournant l'arbre des chemins les plus courts pour un arrêt et
+     * une heure de départ donnés, identique à celui de Graph.fastestPaths sur
+     * le graphe des mêmes courses.
+     *
+     * @param startingStop
+     *            L'arrêt de départ.
+     * @param departureTime
+     *            L'heure de départ.
+     * @return Instance de la classe FastestPathTree représentant l'arborescence
+     *         des chemins les plus courts.
+     * @throws IllegalArgumentException
+     *             Si l'heure de départ est négative ou si l'horaire ne
+     *             contient pas l'arrêt de départ.
+     */
+    public FastestPathTree fastestPaths(Stop startingStop, int departureTime) {
+        return fastestPaths(startingStop, departureTime,
+                SecondsPastMidnight.INFINITE);
+    }
+
+    /**
+     * Méthode retournant l'arbre des chemins les plus courts pour un arrêt et
+     * une heure de départ donnés, limité aux trajets ne durant pas plus que la
+     * durée donnée (voir Graph.fastestPaths).
+     *
+     * Chaque tour parcourt, depuis leur premier arrêt amélioré au tour
+     * précédent, les lignes passant par ces arrêts : on monte dans la
+     * première course qu'on peut y prendre, et on en change dès qu'un arrêt
+     * suivant permet d'en prendre une plus matinale. Les trajets à pied
+     * partent ensuite des arrêts améliorés durant le tour, et la recherche
+     * s'arrête lorsqu'un tour n'améliore plus aucun arrêt.
+     *
+     * @param startingStop
+     *            L'arrêt de départ.
+     * @param departureTime
+     *            L'heure de départ.
+     * @param maxDuration
+     *            La durée maximale des trajets, ou SecondsPastMidnight.INFINITE
+     *            pour ne pas limiter la recherche.
+     * @return Instance de la classe FastestPathTree représentant l'arborescence
+     *         des chemins les plus courts.
+     * @throws IllegalArgumentException
+     *             Si l'heure de départ ou la durée maximale est négative, ou si
+     *             l'horaire ne contient pas l'arrêt de départ.
+     */
+    public FastestPathTree fastestPaths(Stop startingStop, int departureTime,
+            int maxDuration) {
+        if (maxDuration < 0) {
+            throw new IllegalArgumentException(
+                    "Error : Durée maximale négative !");
+        }
+        if (departureTime < 0) {
+            throw new IllegalArgumentException(
+                    "Error : Heure de départ négative !");
+        }
+        StopIndex stopIndex = m_footpaths.stopIndex();
+        int start = stopIndex.id(startingStop);
+        if (start == -1) {
+            throw new IllegalArgumentException(
+                    "Error : L'horaire ne contient pas l'arrêt de départ !");
+        }
+        int latestArrivalTime = Graph.latestArrivalTime(departureTime,
+                maxDuration);
+
+        // Premier arrêt à parcourir de chaque ligne du tour, ou -1.
+        int[] firstPositions = new int[routeCount()];
+        Arrays.fill(firstPositions, -1);
+        int[] queue = new int[routeCount()];
+
+        SearchWorkspace workspace = SearchWorkspace.acquire(stopIndex.size());
+        try {
+            StopSet marked = workspace.marked();
+            StopSet nextMarked = workspace.nextMarked();
+
+            workspace.setArrivalTime(start, departureTime, -1);
+            marked.add(start);
+            m_footpaths.walkFrom(workspace, marked);
+
+            while (marked.size() > 0) {
+                int queued = 0;
+                for (int i = 0; i < marked.size(); i++) {
+                    int stop = marked.get(i);
+                    for (int j = m_stopRouteOffsets[stop]; j < m_stopRouteOffsets[stop + 1]; j++) {
+                        int route = m_stopRoutes[j];
+                        int position = m_stopRoutePositions[j];
+                        if (firstPositions[route] == -1)
+                            queue[queued++] = route;
+                        if (firstPositions[route] == -1
+                                || position < firstPositions[route])
+                            firstPositions[route] = position;
+                    }
+                }
+
+                for (int i = 0; i < queued; i++) {
+                    int route = queue[i];
+                    scanRoute(workspace, nextMarked, route,
+                            firstPositions[route], latestArrivalTime);
+                    firstPositions[route] = -1;
+                }
+
+                // Trajets à pied depuis les arrêts améliorés durant ce tour.
+                m_footpaths.walkFrom(workspace, nextMarked);
+
+                StopSet tmp = marked;
+                marked = nextMarked;
+                nextMarked = tmp;
+                nextMarked.clear();
+            }
+
+            return workspace.toTree(stopIndex, start, latestArrivalTime);
+        } finally {
+            workspace.release();
+        }
+    }
+
+    /**
+     * Parcourt la ligne donnée depuis l'arrêt à la position donnée, en
+     * améliorant les arrêts atteints par la course courante. Le prédécesseur
+     * d'un arrêt amélioré est l'arrêt précédent de la ligne.
+     */
+    private void scanRoute(SearchWorkspace workspace, StopSet improved,
+            int route, int firstPosition, int latestArrivalTime) {
+        int stopsBegin = m_routeStopOffsets[route];
+        int stopCount = m_routeStopOffsets[route + 1] - stopsBegin;
+        int timesBegin = m_routeTimeOffsets[route];
+        // Indice des heures de la course courante à l'arrêt 0, ou -1.
+        int trip = -1;
+        int tripCount = m_routeTripCounts[route];
+
+        for (int p = firstPosition; p < stopCount; p++) {
+            int stop = m_routeStops[stopsBegin + p];
+            if (trip != -1) {
+                int arrivalTime = m_arrivalTimes[trip + p];
+                if (arrivalTime <= latestArrivalTime
+                        && arrivalTime < workspace.arrivalTime(stop)) {
+                    workspace.setArrivalTime(stop, arrivalTime,
+                            m_routeStops[stopsBegin + p - 1]);
+                    improved.add(stop);
+                }
+            }
+
+            // Recherche dichotomique de la première course qu'on peut
+            // prendre à cet arrêt, parmi celles précédant la course courante.
+            int time = workspace.arrivalTime(stop);
+            int low = 0;
+            int high = trip == -1 ? tripCount : (trip - timesBegin)
+                    / stopCount;
+            if (high == 0 || time > latestArrivalTime
+                    || m_departureTimes[timesBegin + (high - 1) * stopCount + p] < time)
+                continue;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (m_departureTimes[timesBegin + middle * stopCount + p] < time)
+                    low = middle + 1;
+                else
+                    high = middle;
+            }
+            trip = timesBegin + low * stopCount;
+        }
+    }
+
+    /**
+     * Bâtisseur de RaptorRouter, qui regroupe les courses ajoutées en lignes.
+     */
+    public static final class Builder {
+
+        private final Set<Stop> m_stops;
+        private final Graph.Builder m_footpaths;
+        private final List<Trip> m_trips;
+
+        /**
+         * Construit un bâtisseur pour les arrêts donnés.
+         *
+         * @param stops
+         *            Ensemble des arrêts de l'horaire.
+         */
+        public Builder(Set<Stop> stops) {
+            m_stops = stops;
+            m_footpaths = new Graph.Builder(stops);
+            m_trips = new ArrayList<>();
+        }
+
+        /**
+         * Ajoute une course, passant dans l'ordre par les arrêts donnés aux
+         * heures données.
+         *
+         * @param stops
+         *            Les arrêts de la course, au moins deux.
+         * @param arrivalTimes
+         *            L'heure d'arrivée de la course à chacun des arrêts.
+         * @param departureTimes
+         *            L'heure de départ de la course de chacun des arrêts.
+         * @return Le bâtisseur lui-même.
+         * @throws IllegalArgumentException
+         *             Si la course a moins de deux arrêts, si les tableaux
+         *             n'ont pas la même taille, si un arrêt n'est pas dans
+         *             l'horaire, si une heure est négative ou si la course
+         *             arrive à un arrêt avant d'être partie du précédent.
+         */
+        public Builder addTrip(Stop[] stops, int[] arrivalTimes,
+                int[] departureTimes) {
+            if (stops.length < 2 || arrivalTimes.length != stops.length
+                    || departureTimes.length != stops.length) {
+                throw new IllegalArgumentException(
+                        "Error : Course de moins de deux arrêts ou tableaux de tailles différentes !");
+            }
+            for (int i = 0; i < stops.length; i++) {
+                if (!m_stops.contains(stops[i])) {
+                    throw new IllegalArgumentException(
+                            "Error : Arrêt de la course absent de l'horaire !");
+                }
+                if (arrivalTimes[i] < 0 || departureTimes[i] < 0) {
+                    throw new IllegalArgumentException(
+                            "Error : Heure de la course négative !");
+                }
+                if (i > 0 && arrivalTimes[i] < departureTimes[i - 1]) {
+                    throw new IllegalArgumentException(
+                            "Error : La course arrive avant d'être partie de l'arrêt précédent !");
+                }
+            }
+            m_trips.add(new Trip(stops.clone(), arrivalTimes.clone(),
+                    departureTimes.clone()));
+            return this;
+        }
+
+        /**
+         * Ajoute les trajets à pied entre arrêts, comme
+         * Graph.Builder.addAllWalkEdges.
+         *
+         * @param maxWalkingTime
+         *            Temps de marche maximum.
+         * @param walkingSpeed
+         *            Vitesse de marche.
+         * @return Le bâtisseur lui-même.
+         * @throws IllegalArgumentException
+         *             Si le temps de marche est négatif ou si la vitesse est
+         *             négative ou nulle.
+         */
+        public Builder addAllWalkEdges(int maxWalkingTime, double walkingSpeed) {
+            m_footpaths.addAllWalkEdges(maxWalkingTime, walkingSpeed);
+            return this;
+        }
+
+        /**
+         * Construit le calculateur d'itinéraires. Les courses de même suite
+         * d'arrêts sont triées par heure de départ, puis chacune rejoint la
+         * première ligne de cette suite dont la dernière course ne la
+         * dépasse à aucun arrêt, ou une nouvelle ligne.
+         *
+         * @return Une nouvelle instance de RaptorRouter.
+         */
+        public RaptorRouter build() {
+            Graph footpaths = m_footpaths.build();
+            StopIndex stopIndex = footpaths.stopIndex();
+
+            Map<List<Integer>, List<Trip>> patterns = new LinkedHashMap<>();
+            for (Trip i : m_trips) {
+                List<Integer> pattern = new ArrayList<>(i.m_stops.length);
+                for (Stop j : i.m_stops) {
+                    pattern.add(stopIndex.id(j));
+                }
+                List<Trip> trips = patterns.get(pattern);
+                if (trips == null) {
+                    trips = new ArrayList<>();
+                    patterns.put(pattern, trips);
+                }
+                trips.add(i);
+            }
+
+            List<int[]> routeStops = new ArrayList<>();
+            List<List<Trip>> routes = new ArrayList<>();
+            int stopCount = 0;
+            int timeCount = 0;
+            for (Map.Entry<List<Integer>, List<Trip>> i : patterns.entrySet()) {
+                int[] stops = new int[i.getKey().size()];
+                for (int j = 0; j < stops.length; j++) {
+                    stops[j] = i.getKey().get(j);
+                }
+                List<Trip> trips = i.getValue();
+                Collections.sort(trips, new Comparator<Trip>() {
+                    @Override
+                    public int compare(Trip o1, Trip o2) {
+                        return Integer.compare(o1.m_departureTimes[0],
+                                o2.m_departureTimes[0]);
+                    }
+                });
+
+                int first = routes.size();
+                for (Trip j : trips) {
+                    int route = first;
+                    while (route < routes.size()
+                            && !precedes(last(routes.get(route)), j))
+                        route++;
+                    if (route == routes.size()) {
+                        routes.add(new ArrayList<Trip>());
+                        routeStops.add(stops);
+                        stopCount += stops.length;
+                    }
+                    routes.get(route).add(j);
+                    timeCount += stops.length;
+                }
+            }
+
+            int routeCount = routes.size();
+            int[] routeStopOffsets = new int[routeCount + 1];
+            int[] routeStopsArray = new int[stopCount];
+            int[] routeTimeOffsets = new int[routeCount];
+            int[] routeTripCounts = new int[routeCount];
+            int[] arrivalTimes = new int[timeCount];
+            int[] departureTimes = new int[timeCount];
+            int[] stopRouteOffsets = new int[stopIndex.size() + 1];
+
+            int time = 0;
+            for (int r = 0; r < routeCount; r++) {
+                int[] stops = routeStops.get(r);
+                System.arraycopy(stops, 0, routeStopsArray,
+                        routeStopOffsets[r], stops.length);
+                routeStopOffsets[r + 1] = routeStopOffsets[r] + stops.length;
+                for (int i : stops) {
+                    stopRouteOffsets[i + 1]++;
+                }
+
+                routeTimeOffsets[r] = time;
+                routeTripCounts[r] = routes.get(r).size();
+                for (Trip i : routes.get(r)) {
+                    System.arraycopy(i.m_arrivalTimes, 0, arrivalTimes, time,
+                            stops.length);
+                    System.arraycopy(i.m_departureTimes, 0, departureTimes,
+                            time, stops.length);
+                    time += stops.length;
+                }
+            }
+
+            for (int i = 0; i < stopIndex.size(); i++) {
+                stopRouteOffsets[i + 1] += stopRouteOffsets[i];
+            }
+            int[] stopRoutes = new int[stopCount];
+            int[] stopRoutePositions = new int[stopCount];
+            int[] next = Arrays.copyOf(stopRouteOffsets, stopIndex.size());
+            for (int r = 0; r < routeCount; r++) {
+                for (int p = 0; p < routeStopOffsets[r + 1]
+                        - routeStopOffsets[r]; p++) {
+                    int stop = routeStopsArray[routeStopOffsets[r] + p];
+                    stopRoutes[next[stop]] = r;
+                    stopRoutePositions[next[stop]] = p;
+                    next[stop]++;
+                }
+            }
+
+            return new RaptorRouter(footpaths, routeStopOffsets,
+                    routeStopsArray, routeTimeOffsets, routeTripCounts,
+                    arrivalTimes, departureTimes, stopRouteOffsets,
+                    stopRoutes, stopRoutePositions);
+        }
+
+        private static Trip last(List<Trip> trips) {
+            return trips.get(trips.size() - 1);
+        }
+
+        /**
+         * Retourne vrai si la course first n'arrive ni ne part après la
+         * course second à aucun de leurs arrêts.
+         */
+        private static boolean precedes(Trip first, Trip second) {
+            for (int i = 0; i < first.m_stops.length; i++) {
+                if (first.m_arrivalTimes[i] > second.m_arrivalTimes[i]
+                        || first.m_departureTimes[i] > second.m_departureTimes[i])
+                    return false;
+            }
+            return true;
+        }
+
+        /**
+         * Course ajoutée au bâtisseur : ses arrêts et ses heures.
+         */
+        private static final class Trip {
+
+            private final Stop[] m_stops;
+            private final int[] m_arrivalTimes;
+            private final int[] m_departureTimes;
+
+            Trip(Stop[] stops, int[] arrivalTimes, int[] departureTimes) {
+                m_stops = stops;
+                m_arrivalTimes = arrivalTimes;
+                m_departureTimes = departureTimes;
+            }
+        }
+    }
+}
@@ -0,0 +1,86 @@
+/**
+ * Classe représentant le graphe inverse de l'horaire, qui permet de calculer
+ * en une seule recherche l'heure de départ au plus tard de chaque arrêt pour
+ * atteindre un arrêt donné avant une heure donnée.
+ */
+
+package ch.epfl.isochrone.timetable;
+
+import java.util.Set;
+
+public final class ReverseGraph {
+
+    /**
+     * Heure miroir des trajets du graphe inverse : un trajet partant à d et
+     * arrivant à a y part à MIRROR_TIME - a et arrive à MIRROR_TIME - d. Elle
+     * vaut la plus grande heure d'arrivée que peut avoir un trajet, de sorte
+     * que les heures mises en miroir restent positives.
+     */
+    static final int MIRROR_TIME = 107999 + 9999;
+
+    private final Graph m_mirroredGraph;
+
+    /**
+     * Construit le graphe inverse à partir du graphe des arcs inversés, dont
+     * les heures sont mises en miroir (voir Graph.Builder.buildReverse).
+     *
+     * @param mirroredGraph
+     *            Le graphe des arcs inversés.
+     */
+    ReverseGraph(Graph mirroredGraph) {
+        m_mirroredGraph = mirroredGraph;
+    }
+
+    /**
+     * Retourne le graphe des arcs inversés, dont les heures sont mises en
+     * miroir.
+     *
+     * @return Le graphe des arcs inversés.
+     */
+    Graph mirroredGraph() {
+        return m_mirroredGraph;
+    }
+
+    /**
+     * Retourne une vue de ce graphe dans laquelle seuls les trajets des
+     * services donnés sont empruntés (voir Graph.forServices).
+     *
+     * @param services
+     *            Les services actifs.
+     * @return Le graphe inverse restreint aux services donnés.
+     */
+    public ReverseGraph forServices(Set<Service> services) {
+        return new ReverseGraph(m_mirroredGraph.forServices(services));
+    }
+
+    /**
+     * Méthode retournant l'arbre des heures de départ au plus tard de chaque
+     * arrêt pour atteindre l'arrêt de destination au plus tard à l'heure
+     * donnée. Une seule recherche de chemins les plus courts est faite, sur
+     * les heures mises en miroir : l'heure d'arrivée au plus tôt d'un arrêt
+     * dans le graphe inverse est le miroir de son heure de départ au plus
+     * tard dans le graphe d'origine.
+     *
+     * @param targetStop
+     *            L'arrêt de destination.
+     * @param arrivalTime
+     *            L'heure d'arrivée au plus tard à la destination.
+     * @return L'arbre des heures de départ au plus tard.
+     * @throws IllegalArgumentException
+     *             Si l'heure d'arrivée est négative ou trop grande, ou si le
+     *             graphe ne contient pas l'arrêt de destination.
+     */
+    public LatestDepartureTree latestDepartures(Stop targetStop,
+            int arrivalTime) {
+        if (arrivalTime < 0 || arrivalTime > MIRROR_TIME) {
+            throw new IllegalArgumentException(
+                    "Error : Heure d'arrivée invalide !");
+        }
+        if (m_mirroredGraph.stopIndex().id(targetStop) == -1) {
+            throw new IllegalArgumentException(
+                    "Error : Le graphe ne contient pas l'arrêt de destination !");
+        }
+        return new LatestDepartureTree(m_mirroredGraph.fastestPaths(
+                targetStop, MIRROR_TIME - arrivalTime), MIRROR_TIME);
+    }
+}
@@ -0,0 +1,191 @@
+/**
+ * Classe représentant l'espace de travail d'une recherche de chemins les plus
+ * courts : heures d'arrivée et prédécesseurs indexés par identifiant d'arrêt,
+ * ainsi que la file de priorité. Chaque thread possède son propre espace de
+ * travail, qui est remis à zéro en un temps proportionnel au nombre d'arrêts
+ * atteints par la recherche précédente plutôt que réalloué.
+ */
+
+package ch.epfl.isochrone.timetable;
+
+import java.util.Arrays;
+
+final class SearchWorkspace {
+
+    private static final ThreadLocal<SearchWorkspace> WORKSPACES = new ThreadLocal<>();
+
+    private final int[] m_arrivalTimes;
+    private final int[] m_predecessors;
+    private final int[] m_touched;
+    private int m_touchedCount;
+    private final IndexedMinHeap m_heap;
+    private final StopSet m_marked;
+    private final StopSet m_nextMarked;
+    private boolean m_inUse;
+
+    private SearchWorkspace(int capacity) {
+        m_arrivalTimes = new int[capacity];
+        m_predecessors = new int[capacity];
+        m_touched = new int[capacity];
+        Arrays.fill(m_arrivalTimes, SecondsPastMidnight.INFINITE);
+        Arrays.fill(m_predecessors, -1);
+        m_touchedCount = 0;
+        m_heap = new IndexedMinHeap(capacity);
+        m_marked = new StopSet(capacity);
+        m_nextMarked = new StopSet(capacity);
+        m_inUse = false;
+    }
+
+    /**
+     * Retourne l'espace de travail du thread courant, pouvant contenir au
+     * moins le nombre d'arrêts donné. Il doit être rendu avec release() une
+     * fois la recherche terminée. Si l'espace du thread est déjà utilisé (par
+     * une recherche imbriquée), un nouvel espace est alloué.
+     *
+     * @param stopCount
+     *            Le nombre d'arrêts du graphe sur lequel porte la recherche.
+     * @return Un espace de travail vierge.
+     */
+    static SearchWorkspace acquire(int stopCount) {
+        SearchWorkspace workspace = WORKSPACES.get();
+        if (workspace != null && workspace.m_inUse) {
+            workspace = new SearchWorkspace(stopCount);
+        } else if (workspace == null
+                || workspace.m_arrivalTimes.length < stopCount) {
+            workspace = new SearchWorkspace(stopCount);
+            WORKSPACES.set(workspace);
+        }
+        workspace.m_inUse = true;
+        return workspace;
+    }
+
+    /**
+     * Remet l'espace de travail à zéro et le rend au thread courant. Seuls
+     * les arrêts atteints depuis le dernier appel sont réinitialisés.
+     */
+    void release() {
+        for (int i = 0; i < m_touchedCount; i++) {
+            int stop = m_touched[i];
+            m_arrivalTimes[stop] = SecondsPastMidnight.INFINITE;
+            m_predecessors[stop] = -1;
+        }
+        m_touchedCount = 0;
+        m_heap.clear();
+        m_marked.clear();
+        m_nextMarked.clear();
+        m_inUse = false;
+    }
+
+    /**
+     * Retourne l'heure d'arrivée courante à l'arrêt donné.
+     *
+     * @param stop
+     *            L'identifiant de l'arrêt.
+     * @return L'heure d'arrivée, ou infini si l'arrêt n'a pas été atteint.
+     */
+    int arrivalTime(int stop) {
+        return m_arrivalTimes[stop];
+    }
+
+    /**
+     * Retourne le prédécesseur courant de l'arrêt donné.
+     *
+     * @param stop
+     *            L'identifiant de l'arrêt.
+     * @return L'identifiant du prédécesseur, ou -1 s'il n'y en a pas.
+     */
+    int predecessor(int stop) {
+        return m_predecessors[stop];
+    }
+
+    /**
+     * Modifie l'heure d'arrivée et le prédécesseur de l'arrêt donné.
+     *
+     * @param stop
+     *            L'identifiant de l'arrêt.
+     * @param time
+     *            La nouvelle heure d'arrivée, qui ne doit pas être infinie.
+     * @param predecessor
+     *            L'identifiant du prédécesseur, ou -1 pour l'arrêt de départ.
+     */
+    void setArrivalTime(int stop, int time, int predecessor) {
+        if (m_arrivalTimes[stop] == SecondsPastMidnight.INFINITE
+                && m_predecessors[stop] == -1) {
+            m_touched[m_touchedCount++] = stop;
+        }
+        m_arrivalTimes[stop] = time;
+        m_predecessors[stop] = predecessor;
+    }
+
+    /**
+     * Retourne la file de priorité de cet espace de travail.
+     *
+     * @return La file de priorité, vide au début de chaque recherche.
+     */
+    IndexedMinHeap heap() {
+        return m_heap;
+    }
+
+    /**
+     * Retourne le premier ensemble d'arrêts marqués de cet espace de travail,
+     * utilisé par les recherches procédant par tours.
+     *
+     * @return Un ensemble d'arrêts, vide au début de chaque recherche.
+     */
+    StopSet marked() {
+        return m_marked;
+    }
+
+    /**
+     * Retourne le second ensemble d'arrêts marqués de cet espace de travail.
+     *
+     * @return Un ensemble d'arrêts, vide au début de chaque recherche.
+     */
+    StopSet nextMarked() {
+        return m_nextMarked;
+    }
+
+    /**
+     * Construit l'arbre des chemins les plus courts correspondant à l'état
+     * courant de l'espace de travail.
+     *
+     * @param stopIndex
+     *            L'index des arrêts du graphe.
+     * @param startingStop
+     *            L'identifiant de l'arrêt de départ.
+     * @return L'arbre des chemins les plus courts.
+     */
+    FastestPathTree toTree(StopIndex stopIndex, int startingStop) {
+        return toTree(stopIndex, startingStop, SecondsPastMidnight.INFINITE);
+    }
+
+    /**
+     * Construit l'arbre des chemins les plus courts correspondant à l'état
+     * courant de l'espace de travail, dans lequel les arrêts atteints après
+     * l'heure limite donnée sont considérés comme non atteints.
+     *
+     * @param stopIndex
+     *            L'index des arrêts du graphe.
+     * @param startingStop
+     *            L'identifiant de l'arrêt de départ.
+     * @param latestArrivalTime
+     *            L'heure d'arrivée limite.
+     * @return L'arbre des chemins les plus courts.
+     */
+    FastestPathTree toTree(StopIndex stopIndex, int startingStop,
+            int latestArrivalTime) {
+        int[] arrivalTimes = Arrays.copyOf(m_arrivalTimes, stopIndex.size());
+        int[] predecessors = Arrays.copyOf(m_predecessors, stopIndex.size());
+        if (latestArrivalTime < SecondsPastMidnight.INFINITE) {
+            for (int i = 0; i < m_touchedCount; i++) {
+                int stop = m_touched[i];
+                if (arrivalTimes[stop] > latestArrivalTime) {
+                    arrivalTimes[stop] = SecondsPastMidnight.INFINITE;
+                    predecessors[stop] = -1;
+                }
+            }
+        }
+        return new FastestPathTree(stopIndex, startingStop, arrivalTimes,
+                predecessors);
+    }
+}
@@ -9,6 +9,7 @@ package ch.epfl.isochrone.timetable;
 
 import java.util.Set;
 import java.util.HashSet;
+import java.util.Collections;
 
 public final class Service {
 
@@ -91,6 +92,52 @@ public final class Service {
         return m_name;
     }
 
+    /**
+     * Retourne la date de début de la plage de validité du service.
+     * 
+     * @return La date de début.
+     */
+    Date startingDate() {
+        return m_startingDate;
+    }
+
+    /**
+     * Retourne la date de fin de la plage de validité du service. Les dates
+     * incluses sont toutes dans cette plage.
+     * 
+     * @return La date de fin.
+     */
+    Date endingDate() {
+        return m_endingDate;
+    }
+
+    /**
+     * Retourne les jours de la semaine pendant lesquels le service est actif.
+     * 
+     * @return L'ensemble des jours de la semaine, non modifiable.
+     */
+    Set<Date.DayOfWeek> operatingDays() {
+        return Collections.unmodifiableSet(m_opertatingDays);
+    }
+
+    /**
+     * Retourne les jours exclus de la plage de validité du service.
+     * 
+     * @return L'ensemble des jours exclus, non modifiable.
+     */
+    Set<Date> excludedDates() {
+        return Collections.unmodifiableSet(m_excludedDates);
+    }
+
+    /**
+     * Retourne les jours inclus dans la plage de validité du service.
+     * 
+     * @return L'ensemble des jours inclus, non modifiable.
+     */
+    Set<Date> includedDates() {
+        return Collections.unmodifiableSet(m_includedDates);
+    }
+
     /**
      * Retournes vrai si le jour passé en paramètre est un jour actif dans le
      * service. C'est-à-dire si le jour est dans la plage de validité sans être
@@ -0,0 +1,90 @@
+/**
+ * Classe associant à chaque arrêt d'un ensemble un identifiant entier dense,
+ * compris entre 0 et le nombre d'arrêts moins un.
+ */
+
+package ch.epfl.isochrone.timetable;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static java.util.Collections.unmodifiableSet;
+
+final class StopIndex {
+
+    private final Stop[] m_stops;
+    private final Map<Stop, Integer> m_ids;
+    private final Set<Stop> m_stopSet;
+
+    /**
+     * Construit l'index des arrêts passés en argument. Les identifiants sont
+     * attribués par ordre alphabétique des noms d'arrêts, afin que deux index
+     * construits sur les mêmes arrêts soient identiques.
+     *
+     * @param stops
+     *            Les arrêts à indexer.
+     */
+    public StopIndex(Collection<Stop> stops) {
+        List<Stop> sorted = new ArrayList<>(new HashSet<>(stops));
+        Collections.sort(sorted, new Comparator<Stop>() {
+            public int compare(Stop a, Stop b) {
+                return a.name().compareTo(b.name());
+            }
+        });
+
+        m_stops = sorted.toArray(new Stop[sorted.size()]);
+        m_ids = new HashMap<>();
+        for (int i = 0; i < m_stops.length; i++) {
+            m_ids.put(m_stops[i], i);
+        }
+        m_stopSet = unmodifiableSet(m_ids.keySet());
+    }
+
+    /**
+     * Retourne le nombre d'arrêts de l'index.
+     *
+     * @return Le nombre d'arrêts de l'index.
+     */
+    public int size() {
+        return m_stops.length;
+    }
+
+    /**
+     * Retourne l'arrêt correspondant à l'identifiant passé en argument.
+     *
+     * @param id
+     *            L'identifiant de l'arrêt.
+     * @return L'arrêt ayant cet identifiant.
+     */
+    public Stop stop(int id) {
+        return m_stops[id];
+    }
+
+    /**
+     * Retourne l'identifiant de l'arrêt passé en argument.
+     *
+     * @param stop
+     *            L'arrêt dont on souhaite l'identifiant.
+     * @return L'identifiant de l'arrêt, ou -1 s'il n'est pas dans l'index.
+     */
+    public int id(Stop stop) {
+        Integer id = m_ids.get(stop);
+        return id == null ? -1 : id;
+    }
+
+    /**
+     * Retourne l'ensemble (non modifiable) des arrêts de l'index.
+     *
+     * @return L'ensemble des arrêts de l'index.
+     */
+    public Set<Stop> stops() {
+        return m_stopSet;
+    }
+}
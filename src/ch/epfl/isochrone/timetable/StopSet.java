@@ -0,0 +1,81 @@
+/**
+ * Classe représentant un ensemble d'identifiants d'arrêts, sans doublons, qui
+ * conserve l'ordre d'insertion et se vide en un temps proportionnel à sa
+ * taille.
+ */
+
+package ch.epfl.isochrone.timetable;
+
+final class StopSet {
+
+    private final int[] m_members;
+    private final boolean[] m_contains;
+    private int m_size;
+
+    /**
+     * Construit un ensemble vide pouvant contenir les identifiants compris
+     * dans l'intervalle [0; capacity[.
+     *
+     * @param capacity
+     *            Le nombre d'identifiants différents.
+     */
+    public StopSet(int capacity) {
+        m_members = new int[capacity];
+        m_contains = new boolean[capacity];
+        m_size = 0;
+    }
+
+    /**
+     * Ajoute l'identifiant à l'ensemble s'il n'y est pas déjà.
+     *
+     * @param stop
+     *            L'identifiant de l'arrêt.
+     */
+    public void add(int stop) {
+        if (!m_contains[stop]) {
+            m_contains[stop] = true;
+            m_members[m_size++] = stop;
+        }
+    }
+
+    /**
+     * Retourne vrai si l'identifiant est dans l'ensemble.
+     *
+     * @param stop
+     *            L'identifiant de l'arrêt.
+     * @return Vrai si l'arrêt est dans l'ensemble, faux sinon.
+     */
+    public boolean contains(int stop) {
+        return m_contains[stop];
+    }
+
+    /**
+     * Retourne le nombre d'identifiants de l'ensemble.
+     *
+     * @return La taille de l'ensemble.
+     */
+    public int size() {
+        return m_size;
+    }
+
+    /**
+     * Retourne le i-ème identifiant ajouté à l'ensemble.
+     *
+     * @param i
+     *            L'indice, compris entre 0 et size() - 1.
+     * @return L'identifiant.
+     */
+    public int get(int i) {
+        return m_members[i];
+    }
+
+    /**
+     * Vide l'ensemble.
+     */
+    public void clear() {
+        for (int i = 0; i < m_size; i++) {
+            m_contains[m_members[i]] = false;
+        }
+        m_size = 0;
+    }
+}
@@ -10,6 +10,11 @@ package ch.epfl.isochrone.timetable;
 import java.util.Set;
 import java.util.HashSet;
 import java.util.Collection;
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.HashMap;
 
 import static java.util.Collections.unmodifiableSet;
 
@@ -18,9 +23,23 @@ public final class TimeTable {
     private final Set<Stop> m_stops;
     private final Collection<Service> m_services;
 
+    // Calendrier compilé : le service i circule le jour d (numéroté par
+    // Date.fixed) si le bit d - m_firstDay de sa ligne vaut 1. La ligne du
+    // service i occupe les mots [i * m_calendarWords; (i + 1) *
+    // m_calendarWords[ de m_calendar, et couvre la plage de validité de tous
+    // les services, exceptions comprises.
+    private final Service[] m_serviceArray;
+    private final Map<Service, Integer> m_serviceIds;
+    private final Date m_firstDate;
+    private final int m_firstDay;
+    private final int m_dayCount;
+    private final int m_calendarWords;
+    private final long[] m_calendar;
+
     /**
      * Constructeur de la classe Timetable qui instancie une TimeTable grâce aux
-     * arrêts et services qui lui sont passé en arguement.
+     * arrêts et services qui lui sont passé en arguement. Les jours de
+     * circulation des services y sont calculés une fois pour toutes.
      * 
      * @param stops
      *            Un ensemble d'arrêts de classe Stop.
@@ -30,6 +49,76 @@ public final class TimeTable {
     public TimeTable(Set<Stop> stops, Collection<Service> services) {
         m_stops = unmodifiableSet(new HashSet<>(stops));
         m_services = new HashSet<>(services);
+
+        m_serviceArray = m_services.toArray(new Service[m_services.size()]);
+        m_serviceIds = new HashMap<>();
+        Date firstDate = null;
+        Date lastDate = null;
+        for (int i = 0; i < m_serviceArray.length; i++) {
+            Service service = m_serviceArray[i];
+            m_serviceIds.put(service, i);
+            if (firstDate == null
+                    || service.startingDate().compareTo(firstDate) < 0)
+                firstDate = service.startingDate();
+            if (lastDate == null
+                    || service.endingDate().compareTo(lastDate) > 0)
+                lastDate = service.endingDate();
+        }
+
+        m_firstDate = firstDate;
+        m_firstDay = firstDate == null ? 0 : firstDate.fixed();
+        m_dayCount = firstDate == null ? 0 : lastDate.fixed() - m_firstDay + 1;
+        m_calendarWords = (m_dayCount + 63) >>> 6;
+        m_calendar = new long[m_serviceArray.length * m_calendarWords];
+        Date date = firstDate;
+        for (int d = 0; d < m_dayCount; d++) {
+            for (int i = 0; i < m_serviceArray.length; i++) {
+                if (m_serviceArray[i].isOperatingOn(date))
+                    m_calendar[i * m_calendarWords + (d >>> 6)] |= 1L << d;
+            }
+            date = date.relative(1);
+        }
+    }
+
+    /**
+     * Construit un horaire dont le calendrier est déjà compilé, par exemple
+     * lu dans un instantané (voir TimeTableSnapshot). Les tableaux ne sont
+     * pas copiés.
+     * 
+     * @param stops
+     *            Les arrêts de l'horaire.
+     * @param services
+     *            Les services, dans l'ordre des lignes du calendrier.
+     * @param firstDate
+     *            Le premier jour du calendrier, null s'il n'y a aucun service.
+     * @param dayCount
+     *            Le nombre de jours du calendrier.
+     * @param calendar
+     *            Les lignes du calendrier, une par service.
+     * @throws IllegalArgumentException
+     *             Si la taille du calendrier ne correspond pas au nombre de
+     *             services et de jours.
+     */
+    TimeTable(Set<Stop> stops, Service[] services, Date firstDate,
+            int dayCount, long[] calendar) {
+        m_calendarWords = (dayCount + 63) >>> 6;
+        if (dayCount < 0 || (firstDate == null && dayCount != 0)
+                || calendar.length != services.length * m_calendarWords) {
+            throw new IllegalArgumentException(
+                    "Error : Calendrier compilé invalide !");
+        }
+
+        m_stops = unmodifiableSet(new HashSet<>(stops));
+        m_services = new HashSet<>(Arrays.asList(services));
+        m_serviceArray = services;
+        m_serviceIds = new HashMap<>();
+        for (int i = 0; i < services.length; i++) {
+            m_serviceIds.put(services[i], i);
+        }
+        m_firstDate = firstDate;
+        m_firstDay = firstDate == null ? 0 : firstDate.fixed();
+        m_dayCount = dayCount;
+        m_calendar = calendar;
     }
 
     /**
@@ -41,9 +130,19 @@ public final class TimeTable {
         return m_stops;
     }
 
+    /**
+     * Retourne l'ensemble des services de l'horaire.
+     * 
+     * @return L'ensemble des services de l'horaire.
+     */
+    public Set<Service> services() {
+        return unmodifiableSet(new HashSet<>(m_services));
+    }
+
     /**
      * Retourne l'ensemble des services actifs pour un certain jour qui est
-     * passé en argument.
+     * passé en argument. Seul le bit du jour donné est lu dans le calendrier
+     * de chaque service.
      * 
      * @param date
      *            Le jour pour lequel on souhait avoir l'ensemble des services
@@ -52,15 +151,109 @@ public final class TimeTable {
      */
     public Set<Service> servicesForDate(Date date) {
         Set<Service> tmp = new HashSet<>();
-        for (Service service : m_services) {
-            if (service.isOperatingOn(date)) {
-                tmp.add(service);
-            }
+        int d = date.fixed() - m_firstDay;
+        if (d < 0 || d >= m_dayCount)
+            return tmp;
+
+        int word = d >>> 6;
+        long mask = 1L << d;
+        for (int i = 0; i < m_serviceArray.length; i++) {
+            if ((m_calendar[i * m_calendarWords + word] & mask) != 0)
+                tmp.add(m_serviceArray[i]);
         }
 
         return tmp;
     }
 
+    /**
+     * Retourne vrai si le service donné circule le jour donné, d'après le
+     * calendrier compilé de l'horaire.
+     * 
+     * @param service
+     *            Un service de l'horaire.
+     * @param date
+     *            Le jour.
+     * @return Vrai si le service circule ce jour-là, faux sinon.
+     * @throws IllegalArgumentException
+     *             Si le service n'appartient pas à l'horaire.
+     */
+    public boolean isOperatingOn(Service service, Date date) {
+        int i = serviceId(service);
+        int d = date.fixed() - m_firstDay;
+        return d >= 0 && d < m_dayCount
+                && (m_calendar[i * m_calendarWords + (d >>> 6)] & (1L << d)) != 0;
+    }
+
+    /**
+     * Retourne la liste triée des jours où circule le service donné.
+     * 
+     * @param service
+     *            Un service de l'horaire.
+     * @return La liste des jours de circulation, du plus ancien au plus
+     *         récent.
+     * @throws IllegalArgumentException
+     *             Si le service n'appartient pas à l'horaire.
+     */
+    public List<Date> operatingDates(Service service) {
+        int i = serviceId(service);
+        List<Date> dates = new ArrayList<>();
+        for (int w = 0; w < m_calendarWords; w++) {
+            long bits = m_calendar[i * m_calendarWords + w];
+            while (bits != 0) {
+                int d = (w << 6) + Long.numberOfTrailingZeros(bits);
+                dates.add(m_firstDate.relative(d));
+                bits &= bits - 1;
+            }
+        }
+        return dates;
+    }
+
+    /**
+     * Retourne les services de l'horaire, dans l'ordre des lignes du
+     * calendrier compilé. Le tableau n'est pas copié.
+     * 
+     * @return Les services de l'horaire.
+     */
+    Service[] serviceArray() {
+        return m_serviceArray;
+    }
+
+    /**
+     * Retourne le premier jour du calendrier compilé.
+     * 
+     * @return Le premier jour, ou null s'il n'y a aucun service.
+     */
+    Date firstDate() {
+        return m_firstDate;
+    }
+
+    /**
+     * Retourne le nombre de jours du calendrier compilé.
+     * 
+     * @return Le nombre de jours.
+     */
+    int dayCount() {
+        return m_dayCount;
+    }
+
+    /**
+     * Retourne les lignes du calendrier compilé. Le tableau n'est pas copié.
+     * 
+     * @return Les lignes du calendrier, une par service.
+     */
+    long[] calendar() {
+        return m_calendar;
+    }
+
+    private int serviceId(Service service) {
+        Integer i = m_serviceIds.get(service);
+        if (i == null) {
+            throw new IllegalArgumentException(
+                    "Error : Le service n'appartient pas à l'horaire !");
+        }
+        return i;
+    }
+
     /**
      * Bâtisseur de la classe TimbeTable.
      * 
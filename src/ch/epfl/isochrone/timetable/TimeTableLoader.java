@@ -0,0 +1,263 @@
+/**
+ * Classe permettant de recharger un horaire et son graphe pendant que des
+ * recherches sont en cours. Le nouvel instantané (voir TimeTableSnapshot) est
+ * construit par un thread de fond, pendant que les recherches continuent
+ * d'utiliser l'ancien, puis remplace celui-ci d'un coup. L'horaire et le
+ * graphe d'un instantané n'étant jamais modifiés, une recherche commencée sur
+ * l'ancien instantané se termine sur celui-ci.
+ */
+
+package ch.epfl.isochrone.timetable;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+public final class TimeTableLoader {
+
+    private final TimeTableReader m_reader;
+    private final Path m_snapshotFile;
+    private final int m_walkingTime;
+    private final double m_walkingSpeed;
+
+    private final AtomicReference<TimeTableSnapshot> m_current;
+    // Empreinte des fichiers CSV lors de la dernière comparaison des sommes
+    // de contrôle (voir TimeTableReader.sourceFingerprint), utilisée par le
+    // seul thread de fond.
+    private long m_sourceFingerprint;
+    private final List<Listener> m_listeners;
+
+    // Un seul thread de fond : les rechargements sont faits l'un après
+    // l'autre, dans l'ordre où ils ont été demandés.
+    private final ExecutorService m_executor;
+
+    /**
+     * Construit un chargeur et lit immédiatement, dans le thread appelant,
+     * l'horaire et son graphe pour tous les services (voir
+     * TimeTableSnapshot.readOrBuild).
+     *
+     * @param reader
+     *            Le lecteur des fichiers CSV.
+     * @param snapshotFile
+     *            Le fichier de l'instantané.
+     * @param walkingTime
+     *            Temps de marche maximum.
+     * @param walkingSpeed
+     *            Vitesse de marche.
+     * @throws IOException
+     *             Si la lecture des fichiers CSV échoue.
+     */
+    public TimeTableLoader(TimeTableReader reader, Path snapshotFile,
+            int walkingTime, double walkingSpeed) throws IOException {
+        m_reader = reader;
+        m_snapshotFile = snapshotFile;
+        m_walkingTime = walkingTime;
+        m_walkingSpeed = walkingSpeed;
+        m_sourceFingerprint = reader.sourceFingerprint();
+        m_current = new AtomicReference<>(TimeTableSnapshot.readOrBuild(
+                reader, snapshotFile, walkingTime, walkingSpeed));
+        m_listeners = new CopyOnWriteArrayList<>();
+        m_executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "time-table-loader");
+                // le rechargement ne doit pas empêcher l'application de se
+                // terminer
+                thread.setDaemon(true);
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Retourne l'instantané courant. Il reste utilisable tel quel après un
+     * rechargement : une recherche doit donc lire l'instantané une seule fois
+     * et utiliser son horaire et son graphe jusqu'à la fin.
+     *
+     * @return L'instantané courant.
+     */
+    public TimeTableSnapshot current() {
+        return m_current.get();
+    }
+
+    /**
+     * Ajoute un auditeur averti de chaque rechargement.
+     *
+     * @param listener
+     *            L'auditeur.
+     */
+    public void addListener(Listener listener) {
+        m_listeners.add(listener);
+    }
+
+    /**
+     * Retire un auditeur ajouté par addListener.
+     *
+     * @param listener
+     *            L'auditeur.
+     */
+    public void removeListener(Listener listener) {
+        m_listeners.remove(listener);
+    }
+
+    /**
+     * Demande le rechargement de l'horaire par le thread de fond, sans
+     * attendre qu'il soit terminé.
+     *
+     * @return Le rapport du rechargement, disponible une fois l'instantané
+     *         remplacé. Si la lecture échoue, le rapport lève une
+     *         ExecutionException dont la cause est l'IOException, et
+     *         l'instantané courant est gardé.
+     */
+    public Future<Report> reload() {
+        return submit(true);
+    }
+
+    /**
+     * Demande le rechargement de l'horaire par le thread de fond, seulement
+     * si les fichiers CSV ont changé depuis la lecture de l'instantané
+     * courant (voir reload). Leur somme de contrôle n'est calculée que si
+     * leur date de modification ou leur taille a changé.
+     *
+     * @return Le rapport du rechargement, qui vaut null si les fichiers n'ont
+     *         pas changé.
+     */
+    public Future<Report> reloadIfChanged() {
+        return submit(false);
+    }
+
+    /**
+     * Arrête le thread de fond après les rechargements déjà demandés.
+     */
+    public void shutdown() {
+        m_executor.shutdown();
+    }
+
+    private Future<Report> submit(final boolean force) {
+        return m_executor.submit(new Callable<Report>() {
+            @Override
+            public Report call() throws IOException {
+                TimeTableSnapshot previous = m_current.get();
+                // l'empreinte est lue avant la somme de contrôle : un fichier
+                // modifié entre les deux changera la prochaine empreinte
+                long fingerprint = m_reader.sourceFingerprint();
+                if (!force && fingerprint == m_sourceFingerprint)
+                    return null;
+                long checksum = m_reader.sourceChecksum();
+                m_sourceFingerprint = fingerprint;
+                if (!force && checksum == previous.sourceChecksum())
+                    return null;
+
+                Runtime runtime = Runtime.getRuntime();
+                long usedBefore = runtime.totalMemory() - runtime.freeMemory();
+                long start = System.nanoTime();
+                TimeTableSnapshot snapshot = TimeTableSnapshot.readOrBuild(
+                        m_reader, checksum, m_snapshotFile, m_walkingTime,
+                        m_walkingSpeed);
+                long buildTime = System.nanoTime() - start;
+                long usedAfter = runtime.totalMemory() - runtime.freeMemory();
+
+                m_current.set(snapshot);
+                Report report = new Report(snapshot, previous,
+                        TimeUnit.NANOSECONDS.toMillis(buildTime), usedAfter
+                                - usedBefore);
+                for (Listener i : m_listeners) {
+                    i.reloaded(report);
+                }
+                return report;
+            }
+        });
+    }
+
+    /**
+     * Interface d'un auditeur averti des rechargements.
+     */
+    public interface Listener {
+
+        /**
+         * Appelée par le thread de fond après le remplacement de
+         * l'instantané courant. Un auditeur peut y préparer ce qu'il tire du
+         * nouvel instantané (graphes restreints, etc.) sans bloquer les
+         * recherches, avant de le publier dans son propre thread.
+         *
+         * @param report
+         *            Le rapport du rechargement.
+         */
+        void reloaded(Report report);
+    }
+
+    /**
+     * Classe représentant le rapport d'un rechargement.
+     */
+    public static final class Report {
+
+        private final TimeTableSnapshot m_snapshot;
+        private final TimeTableSnapshot m_previous;
+        private final long m_buildTime;
+        private final long m_memoryDelta;
+
+        private Report(TimeTableSnapshot snapshot, TimeTableSnapshot previous,
+                long buildTime, long memoryDelta) {
+            m_snapshot = snapshot;
+            m_previous = previous;
+            m_buildTime = buildTime;
+            m_memoryDelta = memoryDelta;
+        }
+
+        /**
+         * Retourne le nouvel instantané.
+         *
+         * @return Le nouvel instantané.
+         */
+        public TimeTableSnapshot snapshot() {
+            return m_snapshot;
+        }
+
+        /**
+         * Retourne l'instantané remplacé.
+         *
+         * @return L'ancien instantané.
+         */
+        public TimeTableSnapshot previous() {
+            return m_previous;
+        }
+
+        /**
+         * Retourne la durée de construction du nouvel instantané.
+         *
+         * @return La durée de construction, en millisecondes.
+         */
+        public long buildTime() {
+            return m_buildTime;
+        }
+
+        /**
+         * Retourne la variation de la mémoire utilisée par la machine
+         * virtuelle pendant la construction. L'ancien instantané étant encore
+         * utilisé à ce moment, elle approche la mémoire occupée par le nouvel
+         * instantané, à laquelle s'ajoutent les objets temporaires qui n'ont
+         * pas encore été ramassés.
+         *
+         * @return La variation de la mémoire utilisée, en octets.
+         */
+        public long memoryDelta() {
+            return m_memoryDelta;
+        }
+
+        @Override
+        public String toString() {
+            return "Horaire rechargé en " + m_buildTime + " ms, mémoire "
+                    + (m_memoryDelta >= 0 ? "+" : "")
+                    + m_memoryDelta / 1024 + " Ko";
+        }
+    }
+}
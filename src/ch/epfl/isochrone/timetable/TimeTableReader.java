@@ -7,15 +7,28 @@
 
 package ch.epfl.isochrone.timetable;
 
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.zip.CRC32;
 
 import static java.lang.Math.PI;
 
@@ -23,6 +36,15 @@ import ch.epfl.isochrone.geo.PointWGS84;
 
 public final class TimeTableReader {
 
+    // Pool des tâches lisant stop_times.csv en parallèle, et bornes de la
+    // taille des parties lues par chacune.
+    private static final ForkJoinPool POOL = new ForkJoinPool();
+    private static final long MIN_CHUNK_SIZE = 1 << 20;
+    private static final long MAX_CHUNK_SIZE = 1 << 30;
+
+    private static final String[] SOURCE_FILES = { "stops.csv",
+            "calendar.csv", "calendar_dates.csv", "stop_times.csv" };
+
     private final String m_baseResourceName;
 
     /**
@@ -42,7 +64,7 @@ public final class TimeTableReader {
      * @return Instance de la classe TimeTable possedant les services et les
      *         stops donnés dans les fichiers.
      * @throws IOException
-     *             Si le BufferedReader rencontre une IOException.
+     *             Si la lecture d'un fichier échoue.
      */
     public TimeTable readTimeTable() throws IOException {
         try {
@@ -64,23 +86,16 @@ public final class TimeTableReader {
 
     private Set<Stop> ReadStops() throws IOException {
         try {
-            String fileName = m_baseResourceName + "stops.csv";
-            InputStream inStream = getClass().getResourceAsStream(fileName);
-            BufferedReader reader = new BufferedReader(new InputStreamReader(
-                    inStream, StandardCharsets.UTF_8));
-            String[] champs;
-            String line;
+            CsvTokenizer reader = openCsv("stops.csv");
             Set<Stop> stops = new HashSet<>();
+            String name;
             double longitude, latitude;
 
-            while ((line = reader.readLine()) != null) {
-                champs = line.split(";");
-                latitude = (Double.parseDouble(champs[1].substring(0)) / 180.0)
-                        * PI;
-                longitude = (Double.parseDouble(champs[2].substring(0)) / 180.0)
-                        * PI;
-                stops.add(new Stop(champs[0], new PointWGS84(longitude,
-                        latitude)));
+            while (reader.nextLine()) {
+                name = reader.stringField();
+                latitude = (reader.doubleField() / 180.0) * PI;
+                longitude = (reader.doubleField() / 180.0) * PI;
+                stops.add(new Stop(name, new PointWGS84(longitude, latitude)));
             }
             reader.close();
             return stops;
@@ -91,55 +106,45 @@ public final class TimeTableReader {
 
     private Set<Service> ReadServices() throws IOException {
         try {
-            String fileName = m_baseResourceName + "calendar.csv";
-            InputStream inStream = getClass().getResourceAsStream(fileName);
-            BufferedReader reader = new BufferedReader(new InputStreamReader(
-                    inStream, StandardCharsets.UTF_8));
-            String[] champs;
-            String line;
+            CsvTokenizer reader = openCsv("calendar.csv");
             Map<String, Service.Builder> services = new HashMap<>();
-            Date startingDate;
-            Date endingDate;
+            NameTable<Service.Builder> servicesByName = new NameTable<>();
+            Service.Builder service;
+            String name;
+            int operatingDays;
 
-            while ((line = reader.readLine()) != null) {
+            while (reader.nextLine()) {
                 // création du builder de service avec les dates de debut et de
-                // fin
-                champs = line.split(";");
-                startingDate = new Date(Integer.parseInt(champs[8].substring(6,
-                        8)), Integer.parseInt(champs[8].substring(4, 6)),
-                        Integer.parseInt(champs[8].substring(0, 4)));
-                endingDate = new Date(Integer.parseInt(champs[9]
-                        .substring(6, 8)), Integer.parseInt(champs[9]
-                                .substring(4, 6)), Integer.parseInt(champs[9]
-                                        .substring(0, 4)));
-
-                services.put(champs[0], new Service.Builder(champs[0],
-                        startingDate, endingDate));
+                // fin, lues après les jours de services
+                name = reader.stringField();
+                operatingDays = 0;
+                for (int i = 0; i < 7; i++) {
+                    if (reader.intField() == 1)
+                        operatingDays |= 1 << i;
+                }
+                service = new Service.Builder(name, reader.dateField(),
+                        reader.dateField());
                 // ajout des jours de services
-                for (int i = 1; i <= 7; i++) {
-                    if (Integer.parseInt(champs[i].substring(0, 1)) == 1) {
-                        services.get(champs[0]).addOperatingDay(
-                                Date.DayOfWeek.values()[i - 1]);
-                    }
+                for (int i = 0; i < 7; i++) {
+                    if ((operatingDays & (1 << i)) != 0)
+                        service.addOperatingDay(Date.DayOfWeek.values()[i]);
                 }
+                services.put(name, service);
+                servicesByName.put(name, service);
             }
+            reader.close();
 
             // lecture des exceptions dans le fichier calendar_dates.csv
-            fileName = m_baseResourceName + "calendar_dates.csv";
-            inStream = getClass().getResourceAsStream(fileName);
-            reader = new BufferedReader(new InputStreamReader(inStream,
-                    StandardCharsets.UTF_8));
+            reader = openCsv("calendar_dates.csv");
             Date exceptionDate;
 
-            while ((line = reader.readLine()) != null) {
-                champs = line.split(";");
-                exceptionDate = new Date(Integer.parseInt(champs[1].substring(
-                        6, 8)), Integer.parseInt(champs[1].substring(4, 6)),
-                        Integer.parseInt(champs[1].substring(0, 4)));
-                if (Integer.parseInt(champs[2].substring(0)) == 1)
-                    services.get(champs[0]).addIncludedDate(exceptionDate);
+            while (reader.nextLine()) {
+                service = reader.nameField(servicesByName);
+                exceptionDate = reader.dateField();
+                if (reader.intField() == 1)
+                    service.addIncludedDate(exceptionDate);
                 else
-                    services.get(champs[0]).addExcludedDate(exceptionDate);
+                    service.addExcludedDate(exceptionDate);
             }
 
             // création du Set des services :
@@ -154,10 +159,78 @@ public final class TimeTableReader {
         }
     }
 
+    /**
+     * Calcule une empreinte des fichiers lus par ce lecteur à partir de leur
+     * date de modification et de leur taille, sans lire leur contenu. Elle
+     * change en général dès que l'un d'eux est modifié, mais pas toujours :
+     * une empreinte différente indique seulement qu'il faut comparer les
+     * sommes de contrôle (voir sourceChecksum).
+     * 
+     * @return L'empreinte des fichiers.
+     * @throws IOException
+     *             Si un fichier ne peut être ouvert.
+     */
+    long sourceFingerprint() throws IOException {
+        long fingerprint = 17;
+        for (String file : SOURCE_FILES) {
+            URL url = getClass().getResource(m_baseResourceName + file);
+            long lastModified = -1;
+            long length = -1;
+            if (url != null) {
+                URLConnection connection = url.openConnection();
+                lastModified = connection.getLastModified();
+                length = connection.getContentLengthLong();
+                // la connexion à un fichier l'ouvre : il est refermé
+                connection.getInputStream().close();
+            }
+            fingerprint = 31 * (31 * fingerprint + lastModified) + length;
+        }
+        return fingerprint;
+    }
+
+    /**
+     * Calcule une somme de contrôle (CRC-32) du contenu des fichiers lus par
+     * ce lecteur, qui change dès que l'un d'eux est modifié. Un fichier
+     * absent compte comme vide.
+     * 
+     * @return La somme de contrôle des fichiers.
+     * @throws IOException
+     *             Si la lecture d'un fichier échoue.
+     */
+    long sourceChecksum() throws IOException {
+        CRC32 checksum = new CRC32();
+        byte[] buffer = new byte[1 << 16];
+        for (String file : SOURCE_FILES) {
+            // le nom sépare le contenu des fichiers successifs
+            checksum.update(file.getBytes(StandardCharsets.UTF_8));
+            try (InputStream inStream = getClass().getResourceAsStream(
+                    m_baseResourceName + file)) {
+                if (inStream != null) {
+                    int read;
+                    while ((read = inStream.read(buffer)) != -1)
+                        checksum.update(buffer, 0, read);
+                }
+            }
+        }
+        return checksum.getValue();
+    }
+
+    /**
+     * Ouvre le fichier donné du préfixe de ce lecteur, dont les champs sont
+     * séparés par des points-virgules.
+     */
+    private CsvTokenizer openCsv(String file) {
+        return new CsvTokenizer(getClass().getResourceAsStream(
+                m_baseResourceName + file), ';');
+    }
+
     /**
      * Méthode permettant la création d'une instance de la classe Graph
      * possèdant les trajets contenus dans stop_times.csv et appartenant a l'un
-     * des services donnés en argument.
+     * des services donnés en argument. Chaque trajet garde son service : un
+     * graphe lu pour tous les services de l'horaire peut ensuite être
+     * restreint aux services d'une date avec Graph.forServices, sans relire
+     * le fichier.
      * 
      * @param stops
      *            Ensemble des arrêts du Graphe.
@@ -171,51 +244,265 @@ public final class TimeTableReader {
      *            Vitesse de marche durant les trajets a pied.
      * @return Instance de la classe Graph auquel on a ajouté tous les trajets.
      * @throws IOException
-     *             Si le BufferedReader rencontre une IOException.
+     *             Si la lecture d'un fichier échoue.
      */
     public Graph readGraphForServices(Set<Stop> stops, Set<Service> services,
             int walkingTime, double walkingSpeed) throws IOException {
+        return readGraphBuilder(stops, services, walkingTime, walkingSpeed)
+                .build();
+    }
+
+    /**
+     * Méthode permettant la création du graphe inverse (voir ReverseGraph)
+     * possèdant les trajets contenus dans stop_times.csv et appartenant a l'un
+     * des services donnés en argument, pour les recherches en heure
+     * d'arrivée.
+     * 
+     * @param stops
+     *            Ensemble des arrêts du Graphe.
+     * @param services
+     *            Ensemble des services utilisés pour générer tous les trajets
+     *            du Graphe.
+     * @param walkingTime
+     *            Temps de marche maximum.
+     * @param walkingSpeed
+     *            Vitesse de marche durant les trajets a pied.
+     * @return Le graphe inverse auquel on a ajouté tous les trajets.
+     * @throws IOException
+     *             Si la lecture d'un fichier échoue.
+     */
+    public ReverseGraph readReverseGraphForServices(Set<Stop> stops,
+            Set<Service> services, int walkingTime, double walkingSpeed)
+            throws IOException {
+        return readGraphBuilder(stops, services, walkingTime, walkingSpeed)
+                .buildReverse();
+    }
+
+    private Graph.Builder readGraphBuilder(Set<Stop> stops,
+            Set<Service> services, int walkingTime, double walkingSpeed)
+            throws IOException {
         try {
-            String fileName = m_baseResourceName + "stop_times.csv";
-            InputStream inStream = getClass().getResourceAsStream(fileName);
-            BufferedReader reader = new BufferedReader(new InputStreamReader(
-                    inStream, StandardCharsets.UTF_8));
-            String[] champs;
-            String line;
+            // les noms sont cherchés directement dans les octets lus, sans
+            // créer de String par trajet, et remplacés par leur indice
+            Stop[] stopsById = stops.toArray(new Stop[stops.size()]);
+            NameTable<Integer> stopIds = new NameTable<>();
+            for (int i = 0; i < stopsById.length; i++) {
+                stopIds.put(stopsById[i].name(), i);
+            }
+
+            Service[] servicesById = services.toArray(new Service[services
+                    .size()]);
+            NameTable<Integer> serviceIds = new NameTable<>();
+            for (int i = 0; i < servicesById.length; i++) {
+                serviceIds.put(servicesById[i].name(), i);
+            }
 
             Graph.Builder graph = new Graph.Builder(stops);
-            Stop depart = null, arrivee = null;
+            for (TripBuffer i : readTrips(stopIds, serviceIds)) {
+                for (int j = 0; j < i.m_size; j += TripBuffer.FIELDS) {
+                    graph.addTripEdge(stopsById[i.m_trips[j]],
+                            stopsById[i.m_trips[j + 1]], i.m_trips[j + 2],
+                            i.m_trips[j + 3], servicesById[i.m_trips[j + 4]]);
+                }
+            }
 
-            HashMap<String, Stop> mapStringStop = new HashMap<>();
-            for (Stop i : stops) {
-                mapStringStop.put(i.name(), i);
+            graph.addAllWalkEdges(walkingTime, walkingSpeed);
+            return graph;
+        } catch (IOException e) {
+            throw e;
+        }
+    }
+
+    /**
+     * Lit les trajets du fichier stop_times.csv, dans l'ordre du fichier.
+     * Lorsque le fichier se trouve dans le système de fichiers, il est
+     * projeté en mémoire et découpé en parties formées de lignes entières,
+     * lues en parallèle. Sinon (par exemple dans une archive), il est lu
+     * séquentiellement.
+     */
+    private List<TripBuffer> readTrips(NameTable<Integer> stopIds,
+            NameTable<Integer> serviceIds) throws IOException {
+        String fileName = m_baseResourceName + "stop_times.csv";
+        Path path = null;
+        URL url = getClass().getResource(fileName);
+        if (url != null && "file".equals(url.getProtocol())) {
+            try {
+                path = Paths.get(url.toURI());
+            } catch (URISyntaxException | IllegalArgumentException e) {
+                path = null;
+            }
+        }
+
+        if (path == null) {
+            TripBuffer trips = new TripBuffer();
+            CsvTokenizer reader = openCsv("stop_times.csv");
+            trips.read(reader, stopIds, serviceIds);
+            reader.close();
+            return Collections.singletonList(trips);
+        }
+
+        try (FileChannel channel = FileChannel.open(path,
+                StandardOpenOption.READ)) {
+            long[] bounds = chunkBounds(channel);
+            TripBuffer[] trips = new TripBuffer[bounds.length - 1];
+            try {
+                POOL.invoke(new ChunksTask(channel, bounds, stopIds,
+                        serviceIds, trips, 0, trips.length));
+            } catch (UncheckedIOException e) {
+                // erreur de lecture d'une partie, relancée telle quelle
+                throw e.getCause();
+            } catch (RuntimeException e) {
+                // erreur survenue dans un autre thread du pool, qui l'a
+                // enveloppée dans une nouvelle exception
+                for (Throwable i = e.getCause(); i != null; i = i.getCause()) {
+                    if (i instanceof IOException)
+                        throw (IOException) i;
+                }
+                throw e;
             }
+            return Arrays.asList(trips);
+        }
+    }
+
+    /**
+     * Découpe le fichier en parties d'à peu près même taille, une ou
+     * plusieurs par processeur, et recule le début de chacune au début d'une
+     * ligne. La partie i est formée des octets [bounds[i]; bounds[i + 1][.
+     */
+    private static long[] chunkBounds(FileChannel channel) throws IOException {
+        long size = channel.size();
+        long chunks = Math.min(4L * POOL.getParallelism(), size
+                / MIN_CHUNK_SIZE);
+        chunks = Math.max(Math.max(chunks, 1), size / MAX_CHUNK_SIZE + 1);
 
-            HashMap<String, Service> mapStringService = new HashMap<>();
-            for (Service i : services) {
-                mapStringService.put(i.name(), i);
+        long[] bounds = new long[(int) chunks + 1];
+        ByteBuffer window = ByteBuffer.allocate(4096);
+        for (int i = 1; i < chunks; i++) {
+            // début de la première ligne commençant à partir de la position
+            // nominale de la partie
+            long position = Math.max(size * i / chunks, bounds[i - 1]);
+            long lineStart = -1;
+            while (lineStart == -1 && position < size) {
+                window.clear();
+                int read = channel.read(window, position);
+                for (int j = 0; j < read && lineStart == -1; j++) {
+                    if (window.get(j) == '\n')
+                        lineStart = position + j + 1;
+                }
+                position += Math.max(read, 0);
+                if (read <= 0)
+                    break;
             }
+            bounds[i] = lineStart == -1 ? size : lineStart;
+        }
+        bounds[bounds.length - 1] = size;
+        return bounds;
+    }
+
+    /**
+     * Tâche lisant les parties [begin; end[ du fichier, en se divisant en
+     * deux tant qu'elle contient plusieurs parties. Chaque partie est
+     * projetée en mémoire et lue dans son propre tampon de trajets.
+     */
+    private static final class ChunksTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final FileChannel m_channel;
+        private final long[] m_bounds;
+        private final NameTable<Integer> m_stopIds;
+        private final NameTable<Integer> m_serviceIds;
+        private final TripBuffer[] m_trips;
+        private final int m_begin;
+        private final int m_end;
+
+        ChunksTask(FileChannel channel, long[] bounds,
+                NameTable<Integer> stopIds, NameTable<Integer> serviceIds,
+                TripBuffer[] trips, int begin, int end) {
+            m_channel = channel;
+            m_bounds = bounds;
+            m_stopIds = stopIds;
+            m_serviceIds = serviceIds;
+            m_trips = trips;
+            m_begin = begin;
+            m_end = end;
+        }
 
-            while ((line = reader.readLine()) != null) {
-                champs = line.split(";");
-                if (services.contains(mapStringService.get(champs[0]))) {
-                    if (mapStringStop.containsKey(champs[1])
-                            && mapStringStop.containsKey(champs[3])) {
-                        depart = mapStringStop.get(champs[1]);
-                        arrivee = mapStringStop.get(champs[3]);
-                        graph.addTripEdge(depart, arrivee,
-                                Integer.parseInt(champs[2]),
-                                Integer.parseInt(champs[4]));
+        @Override
+        protected void compute() {
+            if (m_end - m_begin <= 1) {
+                for (int i = m_begin; i < m_end; i++) {
+                    TripBuffer trips = new TripBuffer();
+                    try {
+                        trips.read(new CsvTokenizer(m_channel.map(
+                                FileChannel.MapMode.READ_ONLY, m_bounds[i],
+                                m_bounds[i + 1] - m_bounds[i]), ';'),
+                                m_stopIds, m_serviceIds);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
                     }
+                    m_trips[i] = trips;
+                }
+            } else {
+                int middle = (m_begin + m_end) >>> 1;
+                invokeAll(new ChunksTask(m_channel, m_bounds, m_stopIds,
+                        m_serviceIds, m_trips, m_begin, middle),
+                        new ChunksTask(m_channel, m_bounds, m_stopIds,
+                                m_serviceIds, m_trips, middle, m_end));
+            }
+        }
+    }
+
+    /**
+     * Tampon des trajets lus dans une partie du fichier, rangés à la suite
+     * sous forme d'entiers : indice de l'arrêt de départ, indice de l'arrêt
+     * d'arrivée, heure de départ, heure d'arrivée et indice du service.
+     */
+    private static final class TripBuffer {
+
+        private static final int FIELDS = 5;
+
+        private int[] m_trips;
+        private int m_size;
+
+        TripBuffer() {
+            m_trips = new int[16 * FIELDS];
+            m_size = 0;
+        }
+
+        /**
+         * Lit toutes les lignes du lecteur donné, en gardant les trajets des
+         * services et entre les arrêts des tables données.
+         */
+        void read(CsvTokenizer reader, NameTable<Integer> stopIds,
+                NameTable<Integer> serviceIds) throws IOException {
+            Integer service, depart, arrivee;
+            int departureTime;
 
+            while (reader.nextLine()) {
+                service = reader.nameField(serviceIds);
+                if (service != null) {
+                    depart = reader.nameField(stopIds);
+                    departureTime = reader.intField();
+                    arrivee = reader.nameField(stopIds);
+                    if (depart != null && arrivee != null) {
+                        add(depart, arrivee, departureTime,
+                                reader.intField(), service);
+                    }
                 }
             }
+        }
 
-            reader.close();
-            graph.addAllWalkEdges(walkingTime, walkingSpeed);
-            return graph.build();
-        } catch (IOException e) {
-            throw e;
+        private void add(int depart, int arrivee, int departureTime,
+                int arrivalTime, int service) {
+            if (m_size + FIELDS > m_trips.length)
+                m_trips = Arrays.copyOf(m_trips, 2 * m_trips.length);
+            m_trips[m_size] = depart;
+            m_trips[m_size + 1] = arrivee;
+            m_trips[m_size + 2] = departureTime;
+            m_trips[m_size + 3] = arrivalTime;
+            m_trips[m_size + 4] = service;
+            m_size += FIELDS;
         }
     }
 }
@@ -0,0 +1,462 @@
+/**
+ * Classe représentant un instantané binaire d'un horaire et de son graphe
+ * pour tous les services, qui évite de relire les fichiers CSV et de
+ * recalculer les trajets à pied à chaque lancement. L'instantané est écrit
+ * une fois, puis relu en projetant le fichier en mémoire : les tableaux du
+ * calendrier, des arcs et des trajets y sont copiés d'un bloc, seuls les
+ * arrêts et les services sont recréés un à un.
+ *
+ * Format (version 3, entiers gros-boutistes) : en-tête (nombre magique,
+ * version, somme de contrôle des fichiers CSV, temps et vitesse de marche),
+ * services, calendrier compilé, arrêts dans l'ordre de l'index du graphe,
+ * services des trajets, les tableaux du graphe (voir Graph.compiledArrays),
+ * somme de contrôle (CRC-32) de tout ce qui précède, et à nouveau le nombre
+ * magique. Les dates sont écrites sous la forme AAAAMMJJ, les chaînes par
+ * leur longueur suivie de leurs octets UTF-8, les tableaux par leur longueur
+ * suivie de leurs éléments.
+ */
+
+package ch.epfl.isochrone.timetable;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+import ch.epfl.isochrone.geo.PointWGS84;
+
+public final class TimeTableSnapshot {
+
+    /**
+     * Fichier de l'instantané utilisé par les programmes du projet, dans le
+     * répertoire temporaire.
+     */
+    public static final Path DEFAULT_FILE = Paths.get(
+            System.getProperty("java.io.tmpdir"),
+            "isochrone-time-table.snapshot");
+
+    /**
+     * Temps de marche maximum (en secondes) et vitesse de marche (en mètres
+     * par seconde) de l'instantané utilisé par les programmes du projet.
+     */
+    public static final int DEFAULT_WALKING_TIME = 300;
+    public static final double DEFAULT_WALKING_SPEED = 1.25;
+
+    private static final int MAGIC = 0x49534F54; // "ISOT"
+    private static final int VERSION = 3;
+
+    private final TimeTable m_timeTable;
+    private final Graph m_graph;
+    private final long m_sourceChecksum;
+
+    private TimeTableSnapshot(TimeTable timeTable, Graph graph,
+            long sourceChecksum) {
+        m_timeTable = timeTable;
+        m_graph = graph;
+        m_sourceChecksum = sourceChecksum;
+    }
+
+    /**
+     * Lit l'horaire et son graphe pour tous les services dans l'instantané
+     * donné. Si l'instantané n'existe pas, est illisible, d'une autre version,
+     * ou a été écrit à partir d'autres fichiers CSV ou d'autres paramètres de
+     * marche, l'horaire et le graphe sont lus au moyen du lecteur donné puis
+     * l'instantané est (ré)écrit. Une erreur d'écriture de l'instantané est
+     * ignorée, l'horaire lu étant tout de même retourné.
+     *
+     * @param reader
+     *            Le lecteur des fichiers CSV.
+     * @param file
+     *            Le fichier de l'instantané.
+     * @param walkingTime
+     *            Temps de marche maximum (voir
+     *            TimeTableReader.readGraphForServices).
+     * @param walkingSpeed
+     *            Vitesse de marche.
+     * @return L'instantané de l'horaire et de son graphe.
+     * @throws IOException
+     *             Si la lecture des fichiers CSV échoue.
+     */
+    public static TimeTableSnapshot readOrBuild(TimeTableReader reader,
+            Path file, int walkingTime, double walkingSpeed)
+            throws IOException {
+        return readOrBuild(reader, reader.sourceChecksum(), file, walkingTime,
+                walkingSpeed);
+    }
+
+    /**
+     * Comme readOrBuild, pour des fichiers CSV dont la somme de contrôle a
+     * déjà été calculée (voir TimeTableReader.sourceChecksum).
+     */
+    static TimeTableSnapshot readOrBuild(TimeTableReader reader,
+            long checksum, Path file, int walkingTime, double walkingSpeed)
+            throws IOException {
+        TimeTableSnapshot snapshot = null;
+        if (Files.isRegularFile(file)) {
+            try {
+                snapshot = read(file, checksum, walkingTime, walkingSpeed);
+            } catch (IOException | RuntimeException e) {
+                // instantané tronqué ou corrompu : il est reconstruit
+                snapshot = null;
+            }
+        }
+
+        if (snapshot == null) {
+            TimeTable timeTable = reader.readTimeTable();
+            Graph graph = reader.readGraphForServices(timeTable.stops(),
+                    timeTable.services(), walkingTime, walkingSpeed);
+            snapshot = new TimeTableSnapshot(timeTable, graph, checksum);
+            try {
+                snapshot.write(file, checksum, walkingTime, walkingSpeed);
+            } catch (IOException e) {
+                // l'instantané n'est qu'un cache : il sera réécrit au
+                // prochain lancement
+            }
+        }
+        return snapshot;
+    }
+
+    /**
+     * Retourne l'horaire de l'instantané.
+     *
+     * @return L'horaire.
+     */
+    public TimeTable timeTable() {
+        return m_timeTable;
+    }
+
+    /**
+     * Retourne le graphe de l'instantané, dans lequel tous les services sont
+     * actifs. Il peut être restreint aux services d'une date avec
+     * Graph.forServices.
+     *
+     * @return Le graphe pour tous les services.
+     */
+    public Graph graph() {
+        return m_graph;
+    }
+
+    /**
+     * Retourne la somme de contrôle des fichiers CSV dont l'instantané a été
+     * tiré (voir TimeTableReader.sourceChecksum).
+     *
+     * @return La somme de contrôle des fichiers sources.
+     */
+    long sourceChecksum() {
+        return m_sourceChecksum;
+    }
+
+    /**
+     * Lit l'instantané donné, ou retourne null s'il a été écrit par une autre
+     * version ou à partir d'autres fichiers ou paramètres, si sa somme de
+     * contrôle ne correspond pas à son contenu ou si une longueur dépasse la
+     * taille du fichier.
+     */
+    private static TimeTableSnapshot read(Path file, long checksum,
+            int walkingTime, double walkingSpeed) throws IOException {
+        ByteBuffer in;
+        try (FileChannel channel = FileChannel.open(file,
+                StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE)
+                return null;
+            in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        if (in.getInt() != MAGIC || in.getInt() != VERSION
+                || in.getLong() != checksum || in.getInt() != walkingTime
+                || Double.compare(in.getDouble(), walkingSpeed) != 0)
+            return null;
+
+        // fin du fichier : somme de contrôle du contenu, puis nombre magique
+        int end = in.limit() - 8;
+        if (end < in.position() || in.getInt(end + 4) != MAGIC
+                || in.getInt(end) != checksum(in, end))
+            return null;
+        in.limit(end);
+
+        // services, d'au moins 24 octets chacun
+        int serviceCount = readLength(in, 24);
+        if (serviceCount == -1)
+            return null;
+        Service[] services = new Service[serviceCount];
+        for (int i = 0; i < services.length; i++) {
+            String name = readString(in);
+            if (name == null)
+                return null;
+            Date startingDate = readDate(in);
+            Date endingDate = readDate(in);
+            int days = in.getInt();
+            Set<Date.DayOfWeek> operatingDays = EnumSet
+                    .noneOf(Date.DayOfWeek.class);
+            for (Date.DayOfWeek j : Date.DayOfWeek.values()) {
+                if ((days & (1 << j.ordinal())) != 0)
+                    operatingDays.add(j);
+            }
+            Set<Date> excludedDates = readDates(in);
+            Set<Date> includedDates = readDates(in);
+            if (excludedDates == null || includedDates == null)
+                return null;
+            services[i] = new Service(name, startingDate, endingDate,
+                    operatingDays, excludedDates, includedDates);
+        }
+
+        // calendrier compilé
+        int firstDate = in.getInt();
+        int dayCount = in.getInt();
+        int calendarLength = readLength(in, 8);
+        if (calendarLength == -1)
+            return null;
+        long[] calendar = new long[calendarLength];
+        in.asLongBuffer().get(calendar);
+        in.position(in.position() + 8 * calendar.length);
+
+        // arrêts, dans l'ordre de l'index du graphe, d'au moins 20 octets
+        // chacun
+        List<Stop> stops = new ArrayList<>();
+        int stopCount = readLength(in, 20);
+        if (stopCount == -1)
+            return null;
+        for (int i = 0; i < stopCount; i++) {
+            String name = readString(in);
+            if (name == null)
+                return null;
+            double longitude = in.getDouble();
+            double latitude = in.getDouble();
+            stops.add(new Stop(name, new PointWGS84(longitude, latitude)));
+        }
+
+        // services des trajets, le premier étant null
+        List<Service> tripServices = new ArrayList<>();
+        int tripServiceCount = readLength(in, 4);
+        if (tripServiceCount == -1)
+            return null;
+        for (int i = 0; i < tripServiceCount; i++) {
+            int id = in.getInt();
+            tripServices.add(id == -1 ? null : services[id]);
+        }
+
+        int[][] arrays = new int[Graph.COMPILED_ARRAYS][];
+        for (int i = 0; i < arrays.length; i++) {
+            int length = readLength(in, 4);
+            if (length == -1)
+                return null;
+            arrays[i] = new int[length];
+            in.asIntBuffer().get(arrays[i]);
+            in.position(in.position() + 4 * arrays[i].length);
+        }
+        if (in.hasRemaining())
+            return null;
+
+        TimeTable timeTable = new TimeTable(new HashSet<>(stops), services,
+                firstDate == 0 ? null : toDate(firstDate), dayCount, calendar);
+        Graph graph = Graph.fromCompiledArrays(new StopIndex(stops), arrays,
+                tripServices);
+        return new TimeTableSnapshot(timeTable, graph, checksum);
+    }
+
+    /**
+     * Écrit l'instantané dans un fichier temporaire, puis le renomme en le
+     * fichier donné, afin qu'un lecteur ne voie jamais un instantané à moitié
+     * écrit.
+     */
+    private void write(Path file, long checksum, int walkingTime,
+            double walkingSpeed) throws IOException {
+        Path directory = file.toAbsolutePath().getParent();
+        if (directory != null)
+            Files.createDirectories(directory);
+        Path temporary = Files.createTempFile(directory, file.getFileName()
+                .toString(), ".tmp");
+        try {
+            CRC32 crc = new CRC32();
+            try (DataOutputStream out = new DataOutputStream(
+                    new CheckedOutputStream(new BufferedOutputStream(
+                            Files.newOutputStream(temporary)), crc))) {
+                writeTo(out, checksum, walkingTime, walkingSpeed);
+                out.writeInt((int) crc.getValue());
+                out.writeInt(MAGIC);
+            }
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    private void writeTo(DataOutputStream out, long checksum,
+            int walkingTime, double walkingSpeed) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeLong(checksum);
+        out.writeInt(walkingTime);
+        out.writeDouble(walkingSpeed);
+
+        // services
+        Service[] services = m_timeTable.serviceArray();
+        Map<Service, Integer> serviceIds = new IdentityHashMap<>();
+        out.writeInt(services.length);
+        for (int i = 0; i < services.length; i++) {
+            Service service = services[i];
+            serviceIds.put(service, i);
+            writeString(out, service.name());
+            writeDate(out, service.startingDate());
+            writeDate(out, service.endingDate());
+            int days = 0;
+            for (Date.DayOfWeek j : service.operatingDays()) {
+                days |= 1 << j.ordinal();
+            }
+            out.writeInt(days);
+            writeDates(out, service.excludedDates());
+            writeDates(out, service.includedDates());
+        }
+
+        // calendrier compilé
+        Date firstDate = m_timeTable.firstDate();
+        out.writeInt(firstDate == null ? 0 : toInt(firstDate));
+        out.writeInt(m_timeTable.dayCount());
+        long[] calendar = m_timeTable.calendar();
+        out.writeInt(calendar.length);
+        for (long i : calendar) {
+            out.writeLong(i);
+        }
+
+        // arrêts, dans l'ordre de l'index du graphe
+        StopIndex stopIndex = m_graph.stopIndex();
+        out.writeInt(stopIndex.size());
+        for (int i = 0; i < stopIndex.size(); i++) {
+            Stop stop = stopIndex.stop(i);
+            writeString(out, stop.name());
+            out.writeDouble(stop.position().longitude());
+            out.writeDouble(stop.position().latitude());
+        }
+
+        // services des trajets, le premier étant null
+        List<Service> tripServices = m_graph.services();
+        out.writeInt(tripServices.size());
+        for (Service i : tripServices) {
+            Integer id = i == null ? Integer.valueOf(-1) : serviceIds.get(i);
+            if (id == null) {
+                throw new IllegalStateException(
+                        "Error : Service du graphe absent de l'horaire !");
+            }
+            out.writeInt(id);
+        }
+
+        for (int[] i : m_graph.compiledArrays()) {
+            out.writeInt(i.length);
+            for (int j : i) {
+                out.writeInt(j);
+            }
+        }
+    }
+
+    /**
+     * Calcule la somme de contrôle (CRC-32) des octets [0; end[ de
+     * l'instantané, sans modifier la position du tampon.
+     */
+    private static int checksum(ByteBuffer in, int end) {
+        ByteBuffer content = in.duplicate();
+        content.position(0);
+        content.limit(end);
+        CRC32 crc = new CRC32();
+        byte[] buffer = new byte[1 << 16];
+        while (content.hasRemaining()) {
+            int length = Math.min(buffer.length, content.remaining());
+            content.get(buffer, 0, length);
+            crc.update(buffer, 0, length);
+        }
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Lit une longueur, ou retourne -1 si elle est négative ou si autant
+     * d'éléments d'au moins elementSize octets ne tiennent pas dans la fin de
+     * l'instantané. Les tableaux ne sont ainsi jamais alloués plus grands que
+     * le fichier.
+     */
+    private static int readLength(ByteBuffer in, int elementSize) {
+        int length = in.getInt();
+        if (length < 0 || length > in.remaining() / elementSize)
+            return -1;
+        return length;
+    }
+
+    /**
+     * Lit une chaîne, ou retourne null si sa longueur est invalide (voir
+     * readLength).
+     */
+    private static String readString(ByteBuffer in) {
+        int length = readLength(in, 1);
+        if (length == -1)
+            return null;
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeString(DataOutputStream out, String string)
+            throws IOException {
+        byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static Date readDate(ByteBuffer in) {
+        return toDate(in.getInt());
+    }
+
+    private static void writeDate(DataOutputStream out, Date date)
+            throws IOException {
+        out.writeInt(toInt(date));
+    }
+
+    /**
+     * Lit un ensemble de dates, ou retourne null si sa taille est invalide
+     * (voir readLength).
+     */
+    private static Set<Date> readDates(ByteBuffer in) {
+        int count = readLength(in, 4);
+        if (count == -1)
+            return null;
+        Set<Date> dates = new HashSet<>();
+        for (int i = 0; i < count; i++) {
+            dates.add(readDate(in));
+        }
+        return dates;
+    }
+
+    private static void writeDates(DataOutputStream out, Set<Date> dates)
+            throws IOException {
+        // triées, pour qu'un même horaire donne toujours le même fichier
+        Date[] sorted = dates.toArray(new Date[dates.size()]);
+        Arrays.sort(sorted);
+        out.writeInt(sorted.length);
+        for (Date i : sorted) {
+            writeDate(out, i);
+        }
+    }
+
+    private static Date toDate(int date) {
+        return new Date(date % 100, (date / 100) % 100, date / 10000);
+    }
+
+    private static int toInt(Date date) {
+        return date.year() * 10000 + date.intMonth() * 100 + date.day();
+    }
+}
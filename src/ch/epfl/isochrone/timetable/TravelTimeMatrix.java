@@ -0,0 +1,227 @@
+/**
+ * Classe représentant la matrice des durées des trajets les plus courts entre
+ * des arrêts d'origine et des arrêts de destination, pour une heure de départ
+ * donnée.
+ */
+
+package ch.epfl.isochrone.timetable;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+public final class TravelTimeMatrix {
+
+    private static final ForkJoinPool POOL = new ForkJoinPool();
+
+    private final List<Stop> m_origins;
+    private final List<Stop> m_destinations;
+    private final int m_departureTime;
+
+    // Durées rangées ligne par ligne : la durée de l'origine i vers la
+    // destination j est à l'indice i * m_destinations.size() + j.
+    private final int[] m_travelTimes;
+
+    /**
+     * Calcule la matrice des durées sur le graphe donné, en répartissant les
+     * origines sur les processeurs disponibles.
+     *
+     * @param graph
+     *            Le graphe de l'horaire.
+     * @param origins
+     *            Les arrêts d'origine, qui forment les lignes de la matrice.
+     * @param departureTime
+     *            L'heure de départ depuis chaque origine.
+     * @param destinations
+     *            Les arrêts de destination, qui forment les colonnes de la
+     *            matrice.
+     * @throws IllegalArgumentException
+     *             Si l'heure de départ est négative ou si le graphe ne
+     *             contient pas l'un des arrêts.
+     */
+    public TravelTimeMatrix(Graph graph, List<Stop> origins,
+            int departureTime, List<Stop> destinations) {
+        this(graph, origins, departureTime, destinations, POOL);
+    }
+
+    /**
+     * Calcule la matrice des durées sur le graphe donné, en répartissant les
+     * origines sur les threads du pool donné. Chaque thread utilise son propre
+     * espace de travail et écrit dans ses propres lignes de la matrice.
+     *
+     * @param graph
+     *            Le graphe de l'horaire.
+     * @param origins
+     *            Les arrêts d'origine, qui forment les lignes de la matrice.
+     * @param departureTime
+     *            L'heure de départ depuis chaque origine.
+     * @param destinations
+     *            Les arrêts de destination, qui forment les colonnes de la
+     *            matrice.
+     * @param pool
+     *            Le pool de threads effectuant les recherches.
+     * @throws IllegalArgumentException
+     *             Si l'heure de départ est négative ou si le graphe ne
+     *             contient pas l'un des arrêts.
+     */
+    public TravelTimeMatrix(Graph graph, List<Stop> origins,
+            int departureTime, List<Stop> destinations, ForkJoinPool pool) {
+        if (departureTime < 0) {
+            throw new IllegalArgumentException(
+                    "Error : Heure de départ négative !");
+        }
+        m_origins = Collections.unmodifiableList(new ArrayList<>(origins));
+        m_destinations = Collections.unmodifiableList(new ArrayList<>(
+                destinations));
+        m_departureTime = departureTime;
+        m_travelTimes = new int[m_origins.size() * m_destinations.size()];
+
+        int[] originIds = ids(graph.stopIndex(), m_origins);
+        int[] destinationIds = ids(graph.stopIndex(), m_destinations);
+        pool.invoke(new RowsTask(graph, originIds, destinationIds,
+                departureTime, m_travelTimes, 0, originIds.length));
+    }
+
+    /**
+     * Retourne les arrêts d'origine, dans l'ordre des lignes.
+     *
+     * @return La liste des origines.
+     */
+    public List<Stop> origins() {
+        return m_origins;
+    }
+
+    /**
+     * Retourne les arrêts de destination, dans l'ordre des colonnes.
+     *
+     * @return La liste des destinations.
+     */
+    public List<Stop> destinations() {
+        return m_destinations;
+    }
+
+    /**
+     * Retourne l'heure de départ depuis les origines.
+     *
+     * @return L'heure de départ.
+     */
+    public int departureTime() {
+        return m_departureTime;
+    }
+
+    /**
+     * Retourne la durée du trajet le plus court de l'origine d'indice donné
+     * vers la destination d'indice donné.
+     *
+     * @param origin
+     *            L'indice de l'origine.
+     * @param destination
+     *            L'indice de la destination.
+     * @return La durée en secondes, ou SecondsPastMidnight.INFINITE si la
+     *         destination ne peut être atteinte.
+     * @throws IndexOutOfBoundsException
+     *             Si l'un des indices est invalide.
+     */
+    public int travelTime(int origin, int destination) {
+        if (origin < 0 || origin >= m_origins.size() || destination < 0
+                || destination >= m_destinations.size()) {
+            throw new IndexOutOfBoundsException(
+                    "Error : Indice de la matrice invalide !");
+        }
+        return m_travelTimes[origin * m_destinations.size() + destination];
+    }
+
+    /**
+     * Retourne une copie des durées, rangées ligne par ligne.
+     *
+     * @return Le tableau des durées, de taille origines * destinations.
+     */
+    public int[] toArray() {
+        return Arrays.copyOf(m_travelTimes, m_travelTimes.length);
+    }
+
+    /**
+     * Écrit la matrice dans le flot donné, en binaire (big-endian) : le
+     * nombre d'origines, le nombre de destinations et l'heure de départ,
+     * suivis des durées ligne par ligne. Le flot n'est pas fermé.
+     *
+     * @param out
+     *            Le flot de sortie.
+     * @throws IOException
+     *             Si l'écriture échoue.
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        DataOutputStream data = new DataOutputStream(out);
+        data.writeInt(m_origins.size());
+        data.writeInt(m_destinations.size());
+        data.writeInt(m_departureTime);
+        for (int t : m_travelTimes) {
+            data.writeInt(t);
+        }
+        data.flush();
+    }
+
+    private static int[] ids(StopIndex stopIndex, List<Stop> stops) {
+        int[] ids = new int[stops.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = stopIndex.id(stops.get(i));
+            if (ids[i] == -1) {
+                throw new IllegalArgumentException(
+                        "Error : Le graphe ne contient pas l'arrêt "
+                                + stops.get(i).name() + " !");
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * Tâche calculant les lignes [begin; end[ de la matrice, en se divisant
+     * en deux tant qu'elle contient plusieurs lignes.
+     */
+    private static final class RowsTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Graph m_graph;
+        private final int[] m_origins;
+        private final int[] m_destinations;
+        private final int m_departureTime;
+        private final int[] m_travelTimes;
+        private final int m_begin;
+        private final int m_end;
+
+        RowsTask(Graph graph, int[] origins, int[] destinations,
+                int departureTime, int[] travelTimes, int begin, int end) {
+            m_graph = graph;
+            m_origins = origins;
+            m_destinations = destinations;
+            m_departureTime = departureTime;
+            m_travelTimes = travelTimes;
+            m_begin = begin;
+            m_end = end;
+        }
+
+        @Override
+        protected void compute() {
+            if (m_end - m_begin <= 1) {
+                for (int i = m_begin; i < m_end; i++) {
+                    m_graph.travelTimes(m_origins[i], m_departureTime,
+                            m_destinations, m_travelTimes, i
+                                    * m_destinations.length);
+                }
+            } else {
+                int middle = (m_begin + m_end) >>> 1;
+                invokeAll(new RowsTask(m_graph, m_origins, m_destinations,
+                        m_departureTime, m_travelTimes, m_begin, middle),
+                        new RowsTask(m_graph, m_origins, m_destinations,
+                                m_departureTime, m_travelTimes, middle, m_end));
+            }
+        }
+    }
+}
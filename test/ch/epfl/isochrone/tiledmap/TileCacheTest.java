@@ -0,0 +1,131 @@
+package ch.epfl.isochrone.tiledmap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class TileCacheTest {
+
+    // Nombre de parties du cache, qui partagent sa mémoire à parts égales.
+    private static final int SHARDS = 16;
+
+    private static Tile tile(int zoom, int x, int y, int size) {
+        return new Tile(new BufferedImage(size, size,
+                BufferedImage.TYPE_INT_ARGB), zoom, x, y);
+    }
+
+    private static long bytes(int size) {
+        return 4L * size * size;
+    }
+
+    @Test
+    public void distinctCoordinatesDoNotCollide() {
+        TileCache cache = new TileCache();
+        Tile first = tile(16, 1, 0, 8);
+        Tile second = tile(16, 0, 10000000, 8);
+        cache.put(16, 1, 0, first);
+        cache.put(16, 0, 10000000, second);
+        assertSame(first, cache.get(16, 1, 0));
+        assertSame(second, cache.get(16, 0, 10000000));
+
+        Tile deep = tile(19, 1 << 27, 1 << 27, 8);
+        Tile deepest = tile(20, (1 << 28) - 1, 0, 8);
+        cache.put(19, 1 << 27, 1 << 27, deep);
+        cache.put(20, (1 << 28) - 1, 0, deepest);
+        assertSame(deep, cache.get(19, 1 << 27, 1 << 27));
+        assertSame(deepest, cache.get(20, (1 << 28) - 1, 0));
+        assertNull(cache.get(20, 1 << 27, 1 << 27));
+        assertNull(cache.get(19, 0, 0));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void zoomAboveMaximumIsRejected() {
+        new TileCache().get(TileCache.MAX_ZOOM + 1, 0, 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void negativeCoordinateIsRejected() {
+        new TileCache().put(3, -1, 0, tile(3, 0, 0, 1));
+    }
+
+    @Test
+    public void byteBudgetIsNeverExceeded() {
+        // Quatre tuiles de 256 × 256 pixels par partie.
+        TileCache cache = new TileCache(SHARDS * 4 * bytes(256));
+        Random random = new Random(2013);
+        for (int i = 0; i < 2000; i++) {
+            int x = random.nextInt(64);
+            int y = random.nextInt(64);
+            if (cache.get(12, x, y) == null)
+                cache.put(12, x, y, tile(12, x, y, 256));
+            assertTrue(cache.bytes() <= cache.maxBytes());
+        }
+        assertEquals(cache.size() * bytes(256), cache.bytes());
+        assertTrue(cache.evictions() > 0);
+        assertEquals(2000, cache.hits() + cache.misses());
+    }
+
+    @Test
+    public void replacedTileIsCountedOnce() {
+        TileCache cache = new TileCache();
+        cache.put(5, 1, 2, tile(5, 1, 2, 16));
+        Tile replacement = tile(5, 1, 2, 32);
+        cache.put(5, 1, 2, replacement);
+        assertEquals(1, cache.size());
+        assertEquals(bytes(32), cache.bytes());
+        assertSame(replacement, cache.get(5, 1, 2));
+    }
+
+    @Test
+    public void tileLargerThanItsShareIsNotKept() {
+        TileCache cache = new TileCache(SHARDS * bytes(16));
+        cache.put(5, 1, 2, tile(5, 1, 2, 17));
+        assertEquals(0, cache.size());
+        assertNull(cache.get(5, 1, 2));
+    }
+
+    @Test
+    public void leastRecentlyUsedTileIsEvicted() {
+        List<Integer> xs = sameShardAsOrigin(3);
+        // Trois tuiles d'un pixel par partie.
+        TileCache cache = new TileCache(SHARDS * 3 * bytes(1));
+        Tile origin = tile(10, 0, 0, 1);
+        cache.put(10, 0, 0, origin);
+        cache.put(10, xs.get(0), 0, tile(10, xs.get(0), 0, 1));
+        cache.put(10, xs.get(1), 0, tile(10, xs.get(1), 0, 1));
+
+        // La tuile d'origine devient la plus récemment utilisée : c'est la
+        // première des deux autres qui est retirée.
+        assertSame(origin, cache.get(10, 0, 0));
+        cache.put(10, xs.get(2), 0, tile(10, xs.get(2), 0, 1));
+        assertEquals(1, cache.evictions());
+        assertSame(origin, cache.get(10, 0, 0));
+        assertNull(cache.get(10, xs.get(0), 0));
+        assertTrue(cache.get(10, xs.get(1), 0) != null);
+    }
+
+    /**
+     * Retourne les abscisses x de tuiles (10, x, 0) rangées dans la même
+     * partie que la tuile (10, 0, 0), repérées par un cache ne pouvant
+     * garder qu'une tuile d'un pixel par partie.
+     */
+    private static List<Integer> sameShardAsOrigin(int count) {
+        List<Integer> xs = new ArrayList<>();
+        for (int x = 1; xs.size() < count; x++) {
+            TileCache probe = new TileCache(SHARDS * bytes(1));
+            probe.put(10, 0, 0, tile(10, 0, 0, 1));
+            probe.put(10, x, 0, tile(10, x, 0, 1));
+            if (probe.evictions() == 1)
+                xs.add(x);
+        }
+        return xs;
+    }
+}
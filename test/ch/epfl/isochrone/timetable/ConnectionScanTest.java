@@ -0,0 +1,147 @@
+package ch.epfl.isochrone.timetable;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+import ch.epfl.isochrone.geo.PointWGS84;
+
+public class ConnectionScanTest {
+
+    private static final Date DATE = new Date(1, 10, 2013);
+
+    private static Stop stop(String name, double longitude, double latitude) {
+        return new Stop(name, new PointWGS84(Math.toRadians(longitude),
+                Math.toRadians(latitude)));
+    }
+
+    private static Service service(String name) {
+        return new Service.Builder(name, DATE, DATE).addOperatingDay(
+                DATE.dayOfWeek()).build();
+    }
+
+    @Test
+    public void chainedZeroDurationConnectionsAreFollowed() {
+        // Les noms sont choisis pour que Beta→Gamma précède Zeta→Beta dans
+        // l'ordre des arrêts, et les arrêts trop éloignés pour y marcher.
+        Stop zeta = stop("Zeta", 6.0, 46.0);
+        Stop beta = stop("Beta", 6.5, 46.5);
+        Stop gamma = stop("Gamma", 7.0, 47.0);
+        Graph graph = new Graph.Builder(new HashSet<>(Arrays.asList(zeta,
+                beta, gamma))).addTripEdge(zeta, beta, 28800, 28800)
+                .addTripEdge(beta, gamma, 28800, 28800).build();
+
+        FastestPathTree tree = new ConnectionScan(graph).fastestPaths(zeta,
+                28800);
+        assertEquals(28800, tree.arrivalTime(gamma));
+        assertEquals(Arrays.asList(zeta, beta, gamma), tree.pathTo(gamma));
+        assertEquals(graph.fastestPaths(zeta, 28800).arrivalTime(gamma),
+                tree.arrivalTime(gamma));
+
+        FastestPathProfile profile = new ConnectionScan(graph).profile(zeta,
+                28000, 28800);
+        assertEquals(28800, profile.arrivalTime(gamma, 28000));
+        assertEquals(28800, profile.arrivalTime(gamma, 28800));
+    }
+
+    @Test
+    public void fastestPathsMatchDijkstraOnRandomGraphs() {
+        Random random = new Random(2013);
+        for (int round = 0; round < 20; round++) {
+            List<Stop> stops = randomStops(random, 40);
+            Service active = service("actif");
+            Service inactive = service("inactif");
+            Graph all = randomGraph(random, stops, active, inactive);
+            Set<Service> services = Collections.singleton(active);
+            Graph graph = all.forServices(services);
+            ConnectionScan scan = new ConnectionScan(all)
+                    .forServices(services);
+
+            for (int query = 0; query < 10; query++) {
+                Stop start = stops.get(random.nextInt(stops.size()));
+                int departureTime = 6 * 3600 + random.nextInt(3 * 3600);
+                int maxDuration = random.nextBoolean() ? SecondsPastMidnight.INFINITE
+                        : random.nextInt(3600);
+                FastestPathTree expected = graph.fastestPaths(start,
+                        departureTime, maxDuration);
+                FastestPathTree actual = scan.fastestPaths(start,
+                        departureTime, maxDuration);
+                for (Stop i : stops) {
+                    assertEquals(i.name(), expected.arrivalTime(i),
+                            actual.arrivalTime(i));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void profileMatchesDijkstraOnRandomGraphs() {
+        Random random = new Random(238333);
+        for (int round = 0; round < 10; round++) {
+            List<Stop> stops = randomStops(random, 30);
+            Service active = service("actif");
+            Graph graph = randomGraph(random, stops, active, null);
+            ConnectionScan scan = new ConnectionScan(graph);
+
+            Stop start = stops.get(random.nextInt(stops.size()));
+            int windowStart = 7 * 3600;
+            int windowEnd = windowStart + 3600;
+            FastestPathProfile profile = scan.profile(start, windowStart,
+                    windowEnd);
+            for (int departureTime = windowStart; departureTime <= windowEnd; departureTime += 97) {
+                FastestPathTree expected = graph.fastestPaths(start,
+                        departureTime);
+                for (Stop i : stops) {
+                    assertEquals(i.name(), expected.arrivalTime(i),
+                            profile.arrivalTime(i, departureTime));
+                }
+            }
+        }
+    }
+
+    private static List<Stop> randomStops(Random random, int count) {
+        // Environ 2 km de côté : une partie des arrêts sont à distance de
+        // marche.
+        List<Stop> stops = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            stops.add(stop("Arrêt " + i, 6.6 + random.nextDouble() * 0.025,
+                    46.5 + random.nextDouble() * 0.018));
+        }
+        return stops;
+    }
+
+    /**
+     * Construit un graphe de lignes aléatoires, dont une partie des
+     * connexions sont de durée nulle et partent à la même heure.
+     */
+    private static Graph randomGraph(Random random, List<Stop> stops,
+            Service active, Service inactive) {
+        Graph.Builder builder = new Graph.Builder(new HashSet<>(stops));
+        for (int line = 0; line < 30; line++) {
+            Service service = inactive != null && random.nextInt(3) == 0 ? inactive
+                    : active;
+            int time = 6 * 3600 + random.nextInt(4 * 3600);
+            Stop from = stops.get(random.nextInt(stops.size()));
+            for (int hop = 0; hop < 8; hop++) {
+                Stop to = stops.get(random.nextInt(stops.size()));
+                if (to.equals(from))
+                    continue;
+                int duration = random.nextInt(3) == 0 ? 0 : random
+                        .nextInt(600);
+                builder.addTripEdge(from, to, time, time + duration, service);
+                time += duration + (random.nextBoolean() ? 0 : random
+                        .nextInt(120));
+                from = to;
+            }
+        }
+        return builder.addAllWalkEdges(300, 1.25).build();
+    }
+}
@@ -0,0 +1,127 @@
+package ch.epfl.isochrone.timetable;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+import ch.epfl.isochrone.geo.PointWGS84;
+
+public class GraphTest {
+
+    private static final Date DATE = new Date(1, 10, 2013);
+
+    // Arrêts trop éloignés pour y marcher.
+    private static final Stop A = stop("A", 6.6, 46.5);
+    private static final Stop B = stop("B", 6.9, 46.8);
+
+    private static Stop stop(String name, double longitude, double latitude) {
+        return new Stop(name, new PointWGS84(Math.toRadians(longitude),
+                Math.toRadians(latitude)));
+    }
+
+    private static Service service(String name) {
+        return new Service.Builder(name, DATE, DATE).addOperatingDay(
+                DATE.dayOfWeek()).build();
+    }
+
+    @Test
+    public void onlyTripsOfActiveServicesAreTaken() {
+        Service slow = service("lent");
+        Service fast = service("rapide");
+        Graph graph = new Graph.Builder(new HashSet<>(Arrays.asList(A, B)))
+                .addTripEdge(A, B, 28800, 30000, slow)
+                .addTripEdge(A, B, 29100, 29400, fast).build();
+
+        assertEquals(29400, graph.fastestPaths(A, 28800).arrivalTime(B));
+        assertEquals(30000, graph.forServices(Collections.singleton(slow))
+                .fastestPaths(A, 28800).arrivalTime(B));
+        assertEquals(29400, graph.forServices(Collections.singleton(fast))
+                .fastestPaths(A, 28800).arrivalTime(B));
+        assertEquals(SecondsPastMidnight.INFINITE,
+                graph.forServices(Collections.<Service> emptySet())
+                        .fastestPaths(A, 28800).arrivalTime(B));
+
+        Graph both = graph.forServices(new HashSet<>(Arrays.asList(slow,
+                fast)));
+        assertEquals(1, both.tripCount());
+        assertEquals(29400, both.fastestPaths(A, 28800).arrivalTime(B));
+        // Le graphe restreint garde tous les trajets.
+        assertEquals(30000, both.forServices(Collections.singleton(slow))
+                .fastestPaths(A, 28800).arrivalTime(B));
+    }
+
+    @Test
+    public void cancelledTripIsReplacedInRestrictedGraph() throws IOException {
+        Service slow = service("lent");
+        Service fast = service("rapide");
+        Graph graph = new Graph.Builder(new HashSet<>(Arrays.asList(A, B)))
+                .addTripEdge(A, B, 28800, 30000, slow)
+                .addTripEdge(A, B, 29100, 29400, fast).build();
+        LiveGraph live = new LiveGraph(graph.forServices(new HashSet<>(
+                Arrays.asList(slow, fast))));
+
+        assertEquals(1, live.applyUpdates(new ByteArrayInputStream(
+                "rapide;A;29100;B;29400;;\n".getBytes(StandardCharsets.UTF_8))));
+        assertEquals(30000, live.graph().fastestPaths(A, 28800)
+                .arrivalTime(B));
+    }
+
+    @Test
+    public void restrictedGraphMatchesGraphOfActiveTrips() {
+        Random random = new Random(236608);
+        for (int round = 0; round < 20; round++) {
+            List<Stop> stops = new ArrayList<>();
+            for (int i = 0; i < 30; i++) {
+                stops.add(stop("Arrêt " + i, 6.6 + random.nextDouble() * 0.025,
+                        46.5 + random.nextDouble() * 0.018));
+            }
+            List<Service> services = Arrays.asList(service("a"),
+                    service("b"), service("c"));
+            Set<Service> active = new HashSet<>(services.subList(0, 2));
+
+            Graph.Builder all = new Graph.Builder(new HashSet<>(stops));
+            Graph.Builder activeOnly = new Graph.Builder(new HashSet<>(stops));
+            for (int trip = 0; trip < 400; trip++) {
+                Stop from = stops.get(random.nextInt(stops.size()));
+                Stop to = stops.get(random.nextInt(stops.size()));
+                if (from.equals(to))
+                    continue;
+                Service service = services.get(random.nextInt(services
+                        .size()));
+                int departureTime = 6 * 3600 + random.nextInt(3 * 3600);
+                int arrivalTime = departureTime + random.nextInt(1200);
+                all.addTripEdge(from, to, departureTime, arrivalTime, service);
+                if (active.contains(service))
+                    activeOnly.addTripEdge(from, to, departureTime,
+                            arrivalTime);
+            }
+            Graph restricted = all.addAllWalkEdges(300, 1.25).build()
+                    .forServices(active);
+            Graph expected = activeOnly.addAllWalkEdges(300, 1.25).build();
+
+            for (int query = 0; query < 10; query++) {
+                Stop start = stops.get(random.nextInt(stops.size()));
+                int departureTime = 6 * 3600 + random.nextInt(3 * 3600);
+                FastestPathTree expectedTree = expected.fastestPaths(start,
+                        departureTime);
+                FastestPathTree actualTree = restricted.fastestPaths(start,
+                        departureTime);
+                for (Stop i : stops) {
+                    assertEquals(i.name(), expectedTree.arrivalTime(i),
+                            actualTree.arrivalTime(i));
+                }
+            }
+        }
+    }
+}
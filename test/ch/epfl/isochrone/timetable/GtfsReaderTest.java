@@ -0,0 +1,244 @@
+package ch.epfl.isochrone.timetable;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class GtfsReaderTest {
+
+    private static final Date MONDAY = new Date(14, 10, 2013);
+    private static final Date TUESDAY = new Date(15, 10, 2013);
+    private static final Date SUNDAY = new Date(13, 10, 2013);
+
+    private Path m_directory;
+
+    @Before
+    public void createFeed() throws IOException {
+        m_directory = Files.createTempDirectory("gtfs");
+        for (Map.Entry<String, String> i : feed().entrySet()) {
+            write(i.getKey(), i.getValue());
+        }
+    }
+
+    @After
+    public void deleteFeed() throws IOException {
+        try (DirectoryStream<Path> files = Files
+                .newDirectoryStream(m_directory)) {
+            for (Path i : files) {
+                Files.delete(i);
+            }
+        }
+        Files.delete(m_directory);
+    }
+
+    /**
+     * Flux dont stops.txt commence par une marque d'ordre des octets, a des
+     * fins de ligne CRLF, des colonnes dans le désordre, des champs entre
+     * guillemets et une station. Le service EXTRA n'est défini que dans
+     * calendar_dates.txt, et les lignes du voyage T1 sont mélangées, avec
+     * un arrêt sans heures.
+     */
+    private static Map<String, String> feed() {
+        Map<String, String> feed = new LinkedHashMap<>();
+        feed.put("stops.txt", "\uFEFFstop_lat,stop_id,stop_name,location_type,stop_lon\r\n"
+                + "46.5,STATION,\"Gare, centrale\",1,6.6\r\n"
+                + "46.50,A,\"Arrêt \"\"A\"\"\",,6.60\r\n"
+                + "46.51,B,\"Bel-Air, quai 2\",0,6.61\r\n"
+                + "46.52,C,C,,6.62\r\n"
+                + "46.53,D,D,,6.63\r\n");
+        feed.put("calendar.txt", "service_id,monday,tuesday,wednesday,"
+                + "thursday,friday,saturday,sunday,start_date,end_date\n"
+                + "WK,1,1,1,1,1,0,0,20131001,20131031\n"
+                + "WE,0,0,0,0,0,1,1,20131001,20131031\n");
+        feed.put("calendar_dates.txt", "service_id,date,exception_type\n"
+                + "WK,20131014,2\n"
+                + "WK,20131103,1\n"
+                + "EXTRA,20131014,1\n");
+        feed.put("trips.txt", "route_id,service_id,trip_id\n"
+                + "R,WK,T1\n"
+                + "R,EXTRA,T2\n"
+                + "R,WE,T3\n");
+        feed.put("stop_times.txt", "trip_id,arrival_time,departure_time,"
+                + "stop_id,stop_sequence\n"
+                + "T1,08:20:00,08:21:00,C,30\n"
+                + "T1,08:00:00,08:01:00,A,1\n"
+                + "T1,,,B,7\n"
+                + "T1,08:40:00,08:40:00,D,42\n"
+                + "T2,09:00:00,09:00:00,A,1\n"
+                + "T2,09:30:00,09:30:00,B,2\n"
+                + "T3,10:00:00,10:00:00,A,1\n"
+                + "T3,10:05:00,10:05:00,D,2\n");
+        return feed;
+    }
+
+    private void write(String file, String content) throws IOException {
+        Files.write(m_directory.resolve(file),
+                content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static Map<String, Stop> stopsByName(TimeTable timeTable) {
+        Map<String, Stop> stops = new HashMap<>();
+        for (Stop i : timeTable.stops()) {
+            stops.put(i.name(), i);
+        }
+        return stops;
+    }
+
+    private static Map<String, Service> servicesByName(TimeTable timeTable) {
+        Map<String, Service> services = new HashMap<>();
+        for (Service i : timeTable.services()) {
+            services.put(i.name(), i);
+        }
+        return services;
+    }
+
+    @Test
+    public void stopsAreReadWithoutStations() throws IOException {
+        Map<String, Stop> stops = stopsByName(new GtfsReader(m_directory)
+                .readTimeTable());
+        assertEquals(new HashSet<>(Arrays.asList("Arrêt \"A\"",
+                "Bel-Air, quai 2", "C", "D")), stops.keySet());
+        Stop b = stops.get("Bel-Air, quai 2");
+        assertEquals(Math.toRadians(46.51), b.position().latitude(), 1e-12);
+        assertEquals(Math.toRadians(6.61), b.position().longitude(), 1e-12);
+    }
+
+    @Test
+    public void calendarDatesAddAndRemoveDays() throws IOException {
+        Map<String, Service> services = servicesByName(new GtfsReader(
+                m_directory).readTimeTable());
+        Service weekdays = services.get("WK");
+        assertTrue(weekdays.isOperatingOn(TUESDAY));
+        assertFalse(weekdays.isOperatingOn(MONDAY));
+        assertFalse(weekdays.isOperatingOn(SUNDAY));
+        // Hors de la plage de calendar.txt, sauf le jour ajouté.
+        assertFalse(weekdays.isOperatingOn(new Date(1, 11, 2013)));
+        assertTrue(weekdays.isOperatingOn(new Date(3, 11, 2013)));
+        assertFalse(weekdays.isOperatingOn(new Date(4, 11, 2013)));
+
+        Service extra = services.get("EXTRA");
+        assertTrue(extra.isOperatingOn(MONDAY));
+        assertFalse(extra.isOperatingOn(TUESDAY));
+        assertTrue(services.get("WE").isOperatingOn(SUNDAY));
+    }
+
+    @Test
+    public void tripsFollowStopSequence() throws IOException {
+        assertTrips(new GtfsReader(m_directory));
+    }
+
+    @Test
+    public void raptorRouterFollowsTrips() throws IOException {
+        GtfsReader reader = new GtfsReader(m_directory);
+        TimeTable timeTable = reader.readTimeTable();
+        Map<String, Stop> stops = stopsByName(timeTable);
+        Stop a = stops.get("Arrêt \"A\"");
+        Stop c = stops.get("C");
+        Stop d = stops.get("D");
+
+        RaptorRouter router = reader.readRaptorRouter(timeTable.stops(),
+                timeTable.servicesForDate(TUESDAY), 300, 1.25);
+        assertEquals(1, router.routeCount());
+        FastestPathTree tree = router.fastestPaths(a, 28800);
+        assertEquals(30000, tree.arrivalTime(c));
+        assertEquals(31200, tree.arrivalTime(d));
+        assertEquals(Arrays.asList(a, c, d), tree.pathTo(d));
+        assertEquals(SecondsPastMidnight.INFINITE,
+                tree.arrivalTime(stops.get("Bel-Air, quai 2")));
+    }
+
+    @Test
+    public void zipArchiveIsReadLikeDirectory() throws IOException {
+        Path zip = m_directory.resolve("feed.zip");
+        try (OutputStream out = Files.newOutputStream(zip);
+                ZipOutputStream archive = new ZipOutputStream(out)) {
+            archive.putNextEntry(new ZipEntry("feed/"));
+            for (Map.Entry<String, String> i : feed().entrySet()) {
+                archive.putNextEntry(new ZipEntry("feed/" + i.getKey()));
+                archive.write(i.getValue().getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        assertTrips(new GtfsReader(zip));
+    }
+
+    @Test
+    public void interleavedTripIsRejected() throws IOException {
+        write("stop_times.txt", "trip_id,arrival_time,departure_time,"
+                + "stop_id,stop_sequence\n"
+                + "T1,08:00:00,08:00:00,A,1\n"
+                + "T2,09:00:00,09:00:00,A,1\n"
+                + "T1,08:10:00,08:10:00,C,2\n");
+        GtfsReader reader = new GtfsReader(m_directory);
+        TimeTable timeTable = reader.readTimeTable();
+        try {
+            reader.readGraphForServices(timeTable.stops(),
+                    timeTable.services(), 300, 1.25);
+            fail();
+        } catch (IOException e) {
+            // attendu
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void missingColumnIsRejected() throws IOException {
+        write("stops.txt", "stop_id,stop_name,stop_lat\nA,A,46.5\n");
+        new GtfsReader(m_directory).readTimeTable();
+    }
+
+    /**
+     * Vérifie les heures d'arrivée depuis l'arrêt A pour les trois jours du
+     * flux : les arrêts sont trop éloignés pour y marcher.
+     */
+    private static void assertTrips(GtfsReader reader) throws IOException {
+        TimeTable timeTable = reader.readTimeTable();
+        Map<String, Stop> stops = stopsByName(timeTable);
+        Stop a = stops.get("Arrêt \"A\"");
+        Stop b = stops.get("Bel-Air, quai 2");
+        Stop c = stops.get("C");
+        Stop d = stops.get("D");
+
+        // T1 relie A à C puis C à D, en ignorant B qui n'a pas d'heures.
+        FastestPathTree tuesday = readGraph(reader, timeTable, TUESDAY)
+                .fastestPaths(a, 28800);
+        assertEquals(30000, tuesday.arrivalTime(c));
+        assertEquals(31200, tuesday.arrivalTime(d));
+        assertEquals(SecondsPastMidnight.INFINITE, tuesday.arrivalTime(b));
+
+        FastestPathTree monday = readGraph(reader, timeTable, MONDAY)
+                .fastestPaths(a, 28800);
+        assertEquals(34200, monday.arrivalTime(b));
+        assertEquals(SecondsPastMidnight.INFINITE, monday.arrivalTime(c));
+
+        FastestPathTree sunday = readGraph(reader, timeTable, SUNDAY)
+                .fastestPaths(a, 28800);
+        assertEquals(36300, sunday.arrivalTime(d));
+        assertEquals(SecondsPastMidnight.INFINITE, sunday.arrivalTime(c));
+    }
+
+    private static Graph readGraph(GtfsReader reader, TimeTable timeTable,
+            Date date) throws IOException {
+        Set<Service> services = timeTable.servicesForDate(date);
+        return reader.readGraphForServices(timeTable.stops(), services, 300,
+                1.25);
+    }
+}
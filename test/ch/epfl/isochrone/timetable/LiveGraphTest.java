@@ -0,0 +1,90 @@
+package ch.epfl.isochrone.timetable;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashSet;
+
+import org.junit.Test;
+
+import ch.epfl.isochrone.geo.PointWGS84;
+
+public class LiveGraphTest {
+
+    // Arrêts trop éloignés pour y marcher.
+    private static final Stop A = new Stop("A", new PointWGS84(
+            Math.toRadians(6.6), Math.toRadians(46.5)));
+    private static final Stop B = new Stop("B", new PointWGS84(
+            Math.toRadians(6.9), Math.toRadians(46.8)));
+
+    /**
+     * Bâtisseur d'un graphe dont l'arc de A à B a un trajet de 8h00 à 8h20,
+     * dominé par un trajet de 8h05 à 8h10.
+     */
+    private static Graph.Builder builder() {
+        return new Graph.Builder(new HashSet<>(Arrays.asList(A, B)))
+                .addTripEdge(A, B, 28800, 30000)
+                .addTripEdge(A, B, 29100, 29400);
+    }
+
+    private static int apply(LiveGraph live, String updates)
+            throws IOException {
+        return live.applyUpdates(new ByteArrayInputStream(updates
+                .getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    public void cancellingADominatingTripRestoresTheDominatedOne()
+            throws IOException {
+        LiveGraph live = new LiveGraph(builder().build());
+        assertEquals(29400, live.graph().fastestPaths(A, 28800)
+                .arrivalTime(B));
+
+        assertEquals(1, apply(live, ";A;29100;B;29400;;\n"));
+        assertEquals(30000, live.graph().fastestPaths(A, 28800)
+                .arrivalTime(B));
+        assertEquals(30000, new ConnectionScan(live.graph()).fastestPaths(A,
+                28800).arrivalTime(B));
+    }
+
+    @Test
+    public void dominatedTripCanBeDelayedAndCancelled() throws IOException {
+        LiveGraph live = new LiveGraph(builder().build());
+        assertEquals(1, apply(live, ";A;28800;B;30000;28800;29300\n"));
+        assertEquals(29300, live.graph().fastestPaths(A, 28800)
+                .arrivalTime(B));
+
+        assertEquals(1, apply(live, ";A;28800;B;29300;;\n"));
+        assertEquals(29400, live.graph().fastestPaths(A, 28800)
+                .arrivalTime(B));
+    }
+
+    @Test
+    public void unknownTripsAreIgnored() throws IOException {
+        Graph graph = builder().build();
+        LiveGraph live = new LiveGraph(graph);
+        assertEquals(0, apply(live, ";A;28000;B;29000;;\n;B;28800;A;30000;;\n"));
+        assertEquals(graph, live.graph());
+    }
+
+    @Test
+    public void updatesArePublishedToTheReverseGraph() throws IOException {
+        Graph.Builder builder = builder();
+        LiveGraph live = new LiveGraph(builder.build(), builder.buildReverse());
+        assertEquals(29100, live.reverseGraph().latestDepartures(B, 29500)
+                .departureTime(A));
+
+        apply(live, ";A;29100;B;29400;;\n");
+        assertEquals(LatestDepartureTree.NEGATIVE_INFINITE, live
+                .reverseGraph().latestDepartures(B, 29500).departureTime(A));
+        assertEquals(28800, live.reverseGraph().latestDepartures(B, 30000)
+                .departureTime(A));
+
+        apply(live, ";A;28800;B;30000;29200;29500\n");
+        assertEquals(29200, live.reverseGraph().latestDepartures(B, 29500)
+                .departureTime(A));
+    }
+}
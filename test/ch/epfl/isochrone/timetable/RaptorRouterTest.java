@@ -0,0 +1,118 @@
+package ch.epfl.isochrone.timetable;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+import ch.epfl.isochrone.geo.PointWGS84;
+
+public class RaptorRouterTest {
+
+    // Arrêts trop éloignés pour y marcher.
+    private static final Stop A = stop("A", 6.6, 46.5);
+    private static final Stop B = stop("B", 6.9, 46.8);
+    private static final Stop C = stop("C", 7.2, 47.1);
+
+    private static Stop stop(String name, double longitude, double latitude) {
+        return new Stop(name, new PointWGS84(Math.toRadians(longitude),
+                Math.toRadians(latitude)));
+    }
+
+    @Test
+    public void overtakingTripStartsNewRoute() {
+        Set<Stop> stops = new HashSet<>(Arrays.asList(A, B, C));
+        Stop[] abc = { A, B, C };
+        // L'express part après l'omnibus et le dépasse avant C.
+        RaptorRouter router = new RaptorRouter.Builder(stops)
+                .addTrip(abc, new int[] { 28800, 29400, 31200 },
+                        new int[] { 28800, 29460, 31200 })
+                .addTrip(abc, new int[] { 29100, 29500, 29800 },
+                        new int[] { 29100, 29520, 29800 })
+                .addTrip(abc, new int[] { 30000, 30600, 32400 },
+                        new int[] { 30000, 30660, 32400 }).build();
+        assertEquals(2, router.routeCount());
+
+        FastestPathTree tree = router.fastestPaths(A, 28800);
+        assertEquals(29400, tree.arrivalTime(B));
+        assertEquals(29800, tree.arrivalTime(C));
+        assertEquals(Arrays.asList(A, B, C), tree.pathTo(C));
+
+        // Monter en route : l'express est encore à B à 29500.
+        tree = router.fastestPaths(B, 29500);
+        assertEquals(29800, tree.arrivalTime(C));
+        assertEquals(SecondsPastMidnight.INFINITE, router.fastestPaths(B,
+                29500, 200).arrivalTime(C));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void tripArrivingBeforeLeavingIsRejected() {
+        new RaptorRouter.Builder(new HashSet<>(Arrays.asList(A, B))).addTrip(
+                new Stop[] { A, B }, new int[] { 28800, 28700 },
+                new int[] { 28800, 28700 });
+    }
+
+    @Test
+    public void routerMatchesGraphOfSameTrips() {
+        Random random = new Random(238333);
+        for (int round = 0; round < 20; round++) {
+            List<Stop> stops = new ArrayList<>();
+            for (int i = 0; i < 30; i++) {
+                stops.add(stop("Arrêt " + i, 6.6 + random.nextDouble() * 0.025,
+                        46.5 + random.nextDouble() * 0.018));
+            }
+
+            RaptorRouter.Builder routes = new RaptorRouter.Builder(
+                    new HashSet<>(stops));
+            Graph.Builder graph = new Graph.Builder(new HashSet<>(stops));
+            // Quelques suites d'arrêts, parcourues par plusieurs courses.
+            for (int pattern = 0; pattern < 15; pattern++) {
+                Stop[] tripStops = new Stop[2 + random.nextInt(6)];
+                for (int i = 0; i < tripStops.length; i++) {
+                    do {
+                        tripStops[i] = stops.get(random.nextInt(stops.size()));
+                    } while (i > 0 && tripStops[i] == tripStops[i - 1]);
+                }
+                for (int trip = 0; trip < 10; trip++) {
+                    int[] arrivalTimes = new int[tripStops.length];
+                    int[] departureTimes = new int[tripStops.length];
+                    int time = 6 * 3600 + random.nextInt(3 * 3600);
+                    for (int i = 0; i < tripStops.length; i++) {
+                        arrivalTimes[i] = time;
+                        time += random.nextInt(120);
+                        departureTimes[i] = time;
+                        time += random.nextInt(600);
+                    }
+                    routes.addTrip(tripStops, arrivalTimes, departureTimes);
+                    for (int i = 0; i + 1 < tripStops.length; i++) {
+                        graph.addTripEdge(tripStops[i], tripStops[i + 1],
+                                departureTimes[i], arrivalTimes[i + 1]);
+                    }
+                }
+            }
+            RaptorRouter router = routes.addAllWalkEdges(300, 1.25).build();
+            Graph expected = graph.addAllWalkEdges(300, 1.25).build();
+
+            for (int query = 0; query < 10; query++) {
+                Stop start = stops.get(random.nextInt(stops.size()));
+                int departureTime = 6 * 3600 + random.nextInt(3 * 3600);
+                int maxDuration = query % 2 == 0 ? SecondsPastMidnight.INFINITE
+                        : 1800;
+                FastestPathTree expectedTree = expected.fastestPaths(start,
+                        departureTime, maxDuration);
+                FastestPathTree actualTree = router.fastestPaths(start,
+                        departureTime, maxDuration);
+                for (Stop i : stops) {
+                    assertEquals(i.name(), expectedTree.arrivalTime(i),
+                            actualTree.arrivalTime(i));
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package ch.epfl.isochrone.timetable;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.zip.CRC32;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TimeTableSnapshotTest {
+
+    private static final TimeTableReader READER = new TimeTableReader(
+            "/time-table-test/");
+
+    private Path m_directory;
+    private Path m_file;
+
+    @Before
+    public void createDirectory() throws IOException {
+        m_directory = Files.createTempDirectory("snapshot");
+        m_file = m_directory.resolve("time-table.snapshot");
+    }
+
+    @After
+    public void deleteDirectory() throws IOException {
+        Files.deleteIfExists(m_file);
+        Files.deleteIfExists(m_directory);
+    }
+
+    @Test
+    public void snapshotIsWrittenThenReadBack() throws IOException {
+        TimeTableSnapshot built = TimeTableSnapshot.readOrBuild(READER,
+                m_file, 300, 1.25);
+        byte[] written = Files.readAllBytes(m_file);
+
+        TimeTableSnapshot loaded = TimeTableSnapshot.readOrBuild(READER,
+                m_file, 300, 1.25);
+        assertArrayEquals(written, Files.readAllBytes(m_file));
+        assertSame(built, loaded);
+    }
+
+    @Test
+    public void otherWalkingParametersRebuildTheSnapshot() throws IOException {
+        TimeTableSnapshot.readOrBuild(READER, m_file, 300, 1.25);
+        byte[] written = Files.readAllBytes(m_file);
+        TimeTableSnapshot.readOrBuild(READER, m_file, 300, 1.5);
+        assertTrue(!Arrays.equals(written, Files.readAllBytes(m_file)));
+    }
+
+    @Test
+    public void truncatedSnapshotIsRebuilt() throws IOException {
+        TimeTableSnapshot built = TimeTableSnapshot.readOrBuild(READER,
+                m_file, 300, 1.25);
+        byte[] written = Files.readAllBytes(m_file);
+        assertRebuilt(built, Arrays.copyOf(written, written.length / 2));
+    }
+
+    @Test
+    public void flippedBitIsDetected() throws IOException {
+        TimeTableSnapshot built = TimeTableSnapshot.readOrBuild(READER,
+                m_file, 300, 1.25);
+        byte[] written = Files.readAllBytes(m_file);
+        // Octets des tableaux du graphe, écrits juste avant la somme de
+        // contrôle et le nombre magique.
+        for (int offset = 12; offset < 200 && offset < written.length - 28; offset += 4) {
+            byte[] corrupted = written.clone();
+            corrupted[corrupted.length - offset] ^= 0x10;
+            assertRebuilt(built, corrupted);
+        }
+    }
+
+    @Test
+    public void hugeLengthIsRebuiltWithoutAllocating() throws IOException {
+        TimeTableSnapshot built = TimeTableSnapshot.readOrBuild(READER,
+                m_file, 300, 1.25);
+        byte[] written = Files.readAllBytes(m_file);
+
+        // Nombre de services, juste après l'en-tête de 28 octets. La somme de
+        // contrôle est recalculée : seule la vérification des longueurs
+        // évite d'allouer un tableau trop grand.
+        byte[] corrupted = written.clone();
+        ByteBuffer.wrap(corrupted).putInt(28, 0x7fffffff);
+        CRC32 crc = new CRC32();
+        crc.update(corrupted, 0, corrupted.length - 8);
+        ByteBuffer.wrap(corrupted).putInt(corrupted.length - 8,
+                (int) crc.getValue());
+        assertRebuilt(built, corrupted);
+    }
+
+    /**
+     * Remplace l'instantané par les octets donnés et vérifie qu'il est
+     * reconstruit à partir des fichiers CSV, puis relu tel quel.
+     */
+    private void assertRebuilt(TimeTableSnapshot built, byte[] corrupted)
+            throws IOException {
+        Files.write(m_file, corrupted);
+        assertSame(built, TimeTableSnapshot.readOrBuild(READER, m_file, 300,
+                1.25));
+        byte[] rebuilt = Files.readAllBytes(m_file);
+        assertTrue(!Arrays.equals(corrupted, rebuilt));
+
+        assertSame(built, TimeTableSnapshot.readOrBuild(READER, m_file, 300,
+                1.25));
+        assertArrayEquals(rebuilt, Files.readAllBytes(m_file));
+    }
+
+    /**
+     * Vérifie que deux instantanés ont les mêmes arrêts, les mêmes services
+     * et les mêmes chemins les plus courts.
+     */
+    private static void assertSame(TimeTableSnapshot expected,
+            TimeTableSnapshot actual) {
+        Map<String, Stop> stops = new HashMap<>();
+        for (Stop i : actual.timeTable().stops()) {
+            stops.put(i.name(), i);
+        }
+        assertEquals(expected.timeTable().stops().size(), stops.size());
+        for (Stop i : expected.timeTable().stops()) {
+            Stop stop = stops.get(i.name());
+            assertEquals(i.position().latitude(), stop.position().latitude(),
+                    0);
+            assertEquals(i.position().longitude(),
+                    stop.position().longitude(), 0);
+        }
+
+        Date first = new Date(30, 9, 2013);
+        for (int day = 0; day < 33; day++) {
+            Date date = first.relative(day);
+            assertEquals(names(expected.timeTable().servicesForDate(date)),
+                    names(actual.timeTable().servicesForDate(date)));
+
+            Graph expectedGraph = expected.graph().forServices(
+                    expected.timeTable().servicesForDate(date));
+            Graph actualGraph = actual.graph().forServices(
+                    actual.timeTable().servicesForDate(date));
+            for (Stop i : expected.timeTable().stops()) {
+                FastestPathTree expectedTree = expectedGraph.fastestPaths(i,
+                        28000);
+                FastestPathTree actualTree = actualGraph.fastestPaths(
+                        stops.get(i.name()), 28000);
+                for (Stop j : expected.timeTable().stops()) {
+                    assertEquals(expectedTree.arrivalTime(j),
+                            actualTree.arrivalTime(stops.get(j.name())));
+                }
+            }
+        }
+    }
+
+    private static Set<String> names(Set<Service> services) {
+        Set<String> names = new TreeSet<>();
+        for (Service i : services) {
+            names.add(i.name());
+        }
+        return names;
+    }
+}